@@ -0,0 +1,170 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the advertising of an {@link AdvertisingManager} to the connections, driven by the
+ * connection and advertising callbacks:
+ * <ul>
+ * <li>right after the start and after a central disconnected it advertises in low latency mode
+ * for a burst, so that the central (or another one) finds the server again quickly;</li>
+ * <li>when half of the centrals are connected, or no central connected or disconnected for the
+ * idle time, it backs off to low power mode;</li>
+ * <li>with the maximum number of centrals connected it stops advertising, a disconnect starts it again;</li>
+ * <li>otherwise it advertises in balanced mode.</li>
+ * </ul>
+ * The mode is evaluated on every callback and once a second on the scheduler thread.
+ *
+ * The time from (re)starting to advertise until the next central connects and the time the stack
+ * advertised go to the {@link ServerMetrics}.
+ */
+class AdvertisingController {
+
+    static final long DEFAULT_BURST_MILLIS = 10_000;
+    static final long DEFAULT_IDLE_MILLIS = 60_000;
+    private static final long EVALUATE_PERIOD_MILLIS = 1000;
+
+    private static final HotLog.Event MODE_CHANGED = HotLog.event(HotLog.DEBUG, "advertising mode %d, %d centrals connected");
+    private static final HotLog.Event ADVERTISING_STOPPED = HotLog.event(HotLog.INFO, "advertising stopped, %d centrals connected");
+
+    @NotNull
+    private final AdvertisingManager manager;
+    @NotNull
+    private final AdvertisingPlan plan;
+    @NotNull
+    private final ServerMetrics metrics;
+    @NotNull
+    private final NotificationScheduler.Producer evaluation;
+    private final int maxCentrals;
+    private final long burstNanos;
+    private final long idleNanos;
+
+    // guarded by this
+    private boolean started;
+    private int connectedCentrals;
+    private long burstUntilNanos;
+    private long lastActivityNanos;
+    // when advertising was (re)started and nobody connected since, -1 if not waiting
+    private long discoveryStartNanos = -1;
+    // when the stack reported advertising started, -1 while it does not advertise
+    private long onSinceNanos = -1;
+    private long onNanos;
+
+    AdvertisingController(@NotNull AdvertisingManager manager, @NotNull AdvertisingPlan plan, @NotNull NotificationScheduler scheduler, @NotNull ServerMetrics metrics, int maxCentrals) {
+        this(manager, plan, scheduler, metrics, maxCentrals, DEFAULT_BURST_MILLIS, DEFAULT_IDLE_MILLIS);
+    }
+
+    AdvertisingController(@NotNull AdvertisingManager manager, @NotNull AdvertisingPlan plan, @NotNull NotificationScheduler scheduler, @NotNull ServerMetrics metrics, int maxCentrals, long burstMillis, long idleMillis) {
+        if (maxCentrals < 1) throw new IllegalArgumentException("at least one central must be able to connect");
+        this.manager = Objects.requireNonNull(manager);
+        this.plan = Objects.requireNonNull(plan);
+        this.metrics = Objects.requireNonNull(metrics);
+        this.maxCentrals = maxCentrals;
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(burstMillis);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.evaluation = scheduler.register("Advertising control", EVALUATE_PERIOD_MILLIS, this::evaluate);
+        metrics.setAdvertisingOnGauge(this::getAdvertisingOnNanos);
+    }
+
+    /**
+     * Starts advertising with a low latency burst.
+     */
+    synchronized void start() {
+        started = true;
+        long now = System.nanoTime();
+        burstUntilNanos = now + burstNanos;
+        lastActivityNanos = now;
+        evaluate();
+        evaluation.start();
+    }
+
+    synchronized void stop() {
+        started = false;
+        evaluation.stop();
+        manager.stop();
+        discoveryStartNanos = -1;
+    }
+
+    synchronized void onCentralConnected() {
+        connectedCentrals++;
+        long now = System.nanoTime();
+        lastActivityNanos = now;
+        if (discoveryStartNanos >= 0) {
+            metrics.discoveryLatency.record(now - discoveryStartNanos);
+            discoveryStartNanos = -1;
+        }
+        manager.onCentralConnected();
+        evaluate();
+    }
+
+    synchronized void onCentralDisconnected() {
+        connectedCentrals = Math.max(0, connectedCentrals - 1);
+        long now = System.nanoTime();
+        lastActivityNanos = now;
+        burstUntilNanos = now + burstNanos;
+        // the reconnect is measured from the disconnect, advertising may have run all along
+        discoveryStartNanos = now;
+        evaluate();
+    }
+
+    /**
+     * The stack started advertising.
+     */
+    synchronized void onAdvertisingStarted() {
+        metrics.onAdvertisingStarted();
+        if (onSinceNanos < 0) onSinceNanos = System.nanoTime();
+    }
+
+    /**
+     * The stack stopped advertising or could not start it.
+     */
+    synchronized void onAdvertisingStopped() {
+        if (onSinceNanos < 0) return;
+        onNanos += System.nanoTime() - onSinceNanos;
+        onSinceNanos = -1;
+    }
+
+    /**
+     * @return total time the stack advertised, in ns
+     */
+    synchronized long getAdvertisingOnNanos() {
+        return onNanos + (onSinceNanos >= 0 ? System.nanoTime() - onSinceNanos : 0);
+    }
+
+    /**
+     * @return the advertising mode, -1 if it does not advertise
+     */
+    synchronized int getMode() {
+        return manager.isAdvertising() ? manager.getMode() : -1;
+    }
+
+    // also on the scheduler thread, for the end of a burst and the idle time
+    private synchronized void evaluate() {
+        if (!started) return;
+        if (connectedCentrals >= maxCentrals) {
+            if (manager.isAdvertising()) {
+                manager.stop();
+                ADVERTISING_STOPPED.log(connectedCentrals);
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        int mode;
+        if (now < burstUntilNanos) {
+            mode = AdvertisingManager.MODE_LOW_LATENCY;
+        } else if (2 * connectedCentrals >= maxCentrals || now - lastActivityNanos >= idleNanos) {
+            mode = AdvertisingManager.MODE_LOW_POWER;
+        } else {
+            mode = AdvertisingManager.MODE_BALANCED;
+        }
+        if (mode != manager.getMode() || !manager.isAdvertising()) MODE_CHANGED.log(mode, connectedCentrals);
+        manager.setMode(mode);
+        if (!manager.isAdvertising()) {
+            if (discoveryStartNanos < 0) discoveryStartNanos = now;
+            manager.start(plan);
+        }
+    }
+}
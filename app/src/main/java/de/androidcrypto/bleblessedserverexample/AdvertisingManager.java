@@ -0,0 +1,233 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the single advertising slot: puts the payload sets of an {@link AdvertisingPlan} on air and,
+ * if the services do not fit into one set, rotates through the sets on the scheduler thread.
+ *
+ * It also measures the time to discovery of every advertised service, from the moment the service
+ * goes on air until the next central connects while it is on air. The stack does not tell which
+ * advertisement a central reacted to, so a connection counts for every service on air at the time.
+ * Every {@link #start} begins a new measurement.
+ *
+ * With an {@link Availability} a payload set only goes on air once all of its services are live,
+ * the rotation skips the sets that still wait for a service. The first set is put on air by
+ * {@link #start} regardless, its services are meant to be live by then, see ServiceStartup.
+ *
+ * The advertising mode (interval) can be changed while advertising, see {@link AdvertisingController}.
+ */
+class AdvertisingManager {
+
+    static final long DEFAULT_ROTATION_MILLIS = 2000;
+
+    // advertising modes, the values of AdvertiseSettings.ADVERTISE_MODE_*
+    static final int MODE_LOW_POWER = 0;
+    static final int MODE_BALANCED = 1;
+    static final int MODE_LOW_LATENCY = 2;
+
+    private static final HotLog.Event SERVICE_DISCOVERED = HotLog.event(HotLog.INFO, "advertised service %08x discovered after %d ms");
+
+    /**
+     * The advertising of the Bluetooth stack, see BlessedAdvertiser.
+     */
+    interface Advertiser {
+        /**
+         * Puts the payload on air, replacing what is advertised.
+         *
+         * @param mode one of the MODE_ constants
+         */
+        void startAdvertising(@NotNull AdvertisingPlan.PayloadSet payload, int mode);
+
+        void stopAdvertising();
+    }
+
+    /**
+     * Tells whether a service is live on the GATT server, see ServiceStartup.
+     */
+    interface Availability {
+        boolean isLive(@NotNull UUID service);
+    }
+
+    @NotNull
+    private final Advertiser advertiser;
+    @NotNull
+    private final NotificationScheduler.Producer rotation;
+    private final long rotationNanos;
+    // guarded by this
+    @Nullable
+    private Availability availability;
+    @Nullable
+    private AdvertisingPlan plan;
+    private int current;
+    private int mode = MODE_BALANCED;
+    private long onAirSinceNanos;
+    // service -> when it went on air, only while it waits to be discovered
+    private final Map<UUID, Long> waitingSince = new HashMap<>();
+    private final Map<UUID, LatencyHistogram> discoveryLatency = new HashMap<>();
+
+    AdvertisingManager(@NotNull Advertiser advertiser, @NotNull NotificationScheduler scheduler) {
+        this(advertiser, scheduler, DEFAULT_ROTATION_MILLIS);
+    }
+
+    AdvertisingManager(@NotNull Advertiser advertiser, @NotNull NotificationScheduler scheduler, long rotationMillis) {
+        this.advertiser = Objects.requireNonNull(advertiser);
+        this.rotationNanos = TimeUnit.MILLISECONDS.toNanos(rotationMillis);
+        this.rotation = scheduler.register("Advertising", rotationMillis, this::rotate);
+    }
+
+    /**
+     * Advertises the services, replacing what was advertised before.
+     *
+     * @param services most important first, see {@link AdvertisingPlan}
+     */
+    synchronized void start(@NotNull List<UUID> services, int nameLength, boolean includeTxPower) {
+        start(new AdvertisingPlan(services, nameLength, includeTxPower));
+    }
+
+    /**
+     * Advertises a plan that was computed before, e.g. again after {@link #stop}.
+     */
+    synchronized void start(@NotNull AdvertisingPlan plan) {
+        this.plan = plan;
+        waitingSince.clear();
+        current = 0;
+        putOnAir();
+        if (plan.getSets().size() > 1) {
+            rotation.start();
+        } else {
+            rotation.stop();
+        }
+    }
+
+    /**
+     * Sets what decides whether the services of a payload set are live, null if they all are.
+     */
+    synchronized void setAvailability(@Nullable Availability availability) {
+        this.availability = availability;
+    }
+
+    synchronized void stop() {
+        if (plan == null) return;
+        rotation.stop();
+        advertiser.stopAdvertising();
+        plan = null;
+        waitingSince.clear();
+    }
+
+    /**
+     * Changes the advertising mode, the payload on air is started again with it.
+     */
+    synchronized void setMode(int mode) {
+        if (mode < MODE_LOW_POWER || mode > MODE_LOW_LATENCY) throw new IllegalArgumentException("unknown advertising mode " + mode);
+        if (mode == this.mode) return;
+        this.mode = mode;
+        if (plan != null) advertiser.startAdvertising(plan.getSets().get(current), mode);
+    }
+
+    synchronized int getMode() {
+        return mode;
+    }
+
+    synchronized boolean isAdvertising() {
+        return plan != null;
+    }
+
+    /**
+     * @return the plan on air, null when not advertising
+     */
+    @Nullable
+    synchronized AdvertisingPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the payload set on air, null when not advertising
+     */
+    @Nullable
+    synchronized AdvertisingPlan.PayloadSet getPayloadOnAir() {
+        return plan != null ? plan.getSets().get(current) : null;
+    }
+
+    /**
+     * Records the time to discovery of the services on air that waited for a central.
+     */
+    synchronized void onCentralConnected() {
+        if (plan == null) return;
+        long now = System.nanoTime();
+        AdvertisingPlan.PayloadSet onAir = plan.getSets().get(current);
+        for (Map.Entry<UUID, Long> entry : waitingSince.entrySet()) {
+            if (entry.getValue() < 0 || !onAir.contains(entry.getKey())) continue;
+            long latency = now - entry.getValue();
+            histogram(entry.getKey()).record(latency);
+            SERVICE_DISCOVERED.log(entry.getKey().getMostSignificantBits() >>> 32, TimeUnit.NANOSECONDS.toMillis(latency));
+            entry.setValue(-1L);
+        }
+    }
+
+    /**
+     * @return the times to discovery of the service so far, null if it was never discovered
+     */
+    @Nullable
+    synchronized LatencyHistogram getDiscoveryLatency(@NotNull UUID service) {
+        return discoveryLatency.get(service);
+    }
+
+    // on the scheduler thread, which also runs it right after the start
+    private synchronized void rotate() {
+        if (plan == null || System.nanoTime() - onAirSinceNanos < rotationNanos / 2) return;
+        List<AdvertisingPlan.PayloadSet> sets = plan.getSets();
+        for (int i = 1; i < sets.size(); i++) {
+            int next = (current + i) % sets.size();
+            if (isLive(sets.get(next))) {
+                current = next;
+                putOnAir();
+                return;
+            }
+        }
+        // no other set is live yet, the one on air stays
+    }
+
+    // called with the lock held
+    private boolean isLive(@NotNull AdvertisingPlan.PayloadSet payload) {
+        if (availability == null) return true;
+        for (UUID uuid : payload.advertised) {
+            if (!availability.isLive(uuid)) return false;
+        }
+        for (UUID uuid : payload.scanResponse) {
+            if (!availability.isLive(uuid)) return false;
+        }
+        return true;
+    }
+
+    // called with the lock held, the clock of a service starts when it goes on air the first time
+    private void putOnAir() {
+        AdvertisingPlan.PayloadSet payload = plan.getSets().get(current);
+        onAirSinceNanos = System.nanoTime();
+        for (UUID uuid : payload.advertised) {
+            if (!waitingSince.containsKey(uuid)) waitingSince.put(uuid, onAirSinceNanos);
+        }
+        for (UUID uuid : payload.scanResponse) {
+            if (!waitingSince.containsKey(uuid)) waitingSince.put(uuid, onAirSinceNanos);
+        }
+        advertiser.startAdvertising(payload, mode);
+    }
+
+    @NotNull
+    private LatencyHistogram histogram(@NotNull UUID service) {
+        LatencyHistogram histogram = discoveryLatency.get(service);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            discoveryLatency.put(service, histogram);
+        }
+        return histogram;
+    }
+}
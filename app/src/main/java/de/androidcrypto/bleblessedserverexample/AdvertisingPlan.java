@@ -0,0 +1,135 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Distributes service UUIDs over legacy advertising payloads of 31 bytes, computed once when
+ * advertising starts.
+ *
+ * The advertising data holds the flags (3 bytes, added by the stack), optionally the TX power level
+ * (3 bytes) and one list per UUID width; UUIDs of the Bluetooth base UUID are packed as 16 or 32
+ * bits, all others take 16 bytes. The scan response holds the device name and what did not fit.
+ * The UUIDs are given by priority: as many as fit go into the advertising data of every payload set
+ * ({@link #getFixed()}), the others go into the scan response and are spread over as many sets as
+ * needed, which are meant to go on air one after the other. The name is left out if a UUID would not
+ * fit next to it.
+ */
+final class AdvertisingPlan {
+
+    static final int MAX_PAYLOAD_LENGTH = 31;
+    static final int FLAGS_LENGTH = 3;
+    static final int TX_POWER_LENGTH = 3;
+    static final int AD_HEADER_LENGTH = 2;
+
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final long BASE_UUID_MSB_LOW = 0x1000L;
+
+    /**
+     * What goes on air at one time. The lists do not change.
+     */
+    static final class PayloadSet {
+        @NotNull
+        final List<UUID> advertised;
+        @NotNull
+        final List<UUID> scanResponse;
+        final boolean includeName;
+        final boolean includeTxPower;
+
+        private PayloadSet(@NotNull List<UUID> advertised, @NotNull List<UUID> scanResponse, boolean includeName, boolean includeTxPower) {
+            this.advertised = Collections.unmodifiableList(new ArrayList<>(advertised));
+            this.scanResponse = Collections.unmodifiableList(scanResponse);
+            this.includeName = includeName;
+            this.includeTxPower = includeTxPower;
+        }
+
+        boolean contains(@NotNull UUID uuid) {
+            return advertised.contains(uuid) || scanResponse.contains(uuid);
+        }
+    }
+
+    @NotNull
+    private final List<UUID> fixed = new ArrayList<>();
+    @NotNull
+    private final List<PayloadSet> sets = new ArrayList<>();
+
+    /**
+     * @param uuids      services to advertise, most important first
+     * @param nameLength length of the device name in bytes (UTF-8), it goes into the scan response if it fits
+     */
+    AdvertisingPlan(@NotNull List<UUID> uuids, int nameLength, boolean includeTxPower) {
+        int advertisingSpace = MAX_PAYLOAD_LENGTH - FLAGS_LENGTH - (includeTxPower ? TX_POWER_LENGTH : 0);
+        List<UUID> rest = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            if (!fixed.contains(uuid) && !rest.contains(uuid) && !add(fixed, uuid, advertisingSpace)) rest.add(uuid);
+        }
+
+        // what did not fit next to the fixed UUIDs will not fit next to them in any set either,
+        // a 128 bit UUID always fits into a scan response without the name
+        boolean includeName = AD_HEADER_LENGTH + nameLength <= MAX_PAYLOAD_LENGTH;
+        for (UUID uuid : rest) {
+            if (AD_HEADER_LENGTH + byteLength(uuid) > MAX_PAYLOAD_LENGTH - AD_HEADER_LENGTH - nameLength) includeName = false;
+        }
+        int scanResponseSpace = MAX_PAYLOAD_LENGTH - (includeName ? AD_HEADER_LENGTH + nameLength : 0);
+        do {
+            List<UUID> scanResponse = new ArrayList<>();
+            List<UUID> later = new ArrayList<>();
+            for (UUID uuid : rest) {
+                if (!add(scanResponse, uuid, scanResponseSpace)) later.add(uuid);
+            }
+            sets.add(new PayloadSet(fixed, scanResponse, includeName, includeTxPower));
+            rest = later;
+        } while (!rest.isEmpty());
+    }
+
+    /**
+     * @return the UUIDs that are in the advertising data of every set
+     */
+    @NotNull
+    List<UUID> getFixed() {
+        return Collections.unmodifiableList(fixed);
+    }
+
+    /**
+     * @return the payload sets, one if everything fits at once
+     */
+    @NotNull
+    List<PayloadSet> getSets() {
+        return Collections.unmodifiableList(sets);
+    }
+
+    // adds the UUID if the lists still fit into the space
+    private static boolean add(@NotNull List<UUID> uuids, @NotNull UUID uuid, int space) {
+        uuids.add(uuid);
+        if (encodedLength(uuids) <= space) return true;
+        uuids.remove(uuids.size() - 1);
+        return false;
+    }
+
+    /**
+     * @return bytes the UUID lists take, one AD structure per UUID width
+     */
+    static int encodedLength(@NotNull List<UUID> uuids) {
+        int[] count = new int[17];
+        for (UUID uuid : uuids) {
+            count[byteLength(uuid)]++;
+        }
+        int length = 0;
+        for (int width : new int[]{2, 4, 16}) {
+            if (count[width] > 0) length += AD_HEADER_LENGTH + width * count[width];
+        }
+        return length;
+    }
+
+    /**
+     * @return 2 or 4 for UUIDs of the Bluetooth base UUID, else 16
+     */
+    static int byteLength(@NotNull UUID uuid) {
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB || (uuid.getMostSignificantBits() & 0xFFFFFFFFL) != BASE_UUID_MSB_LOW) return 16;
+        return (uuid.getMostSignificantBits() >>> 32) <= 0xFFFF ? 2 : 4;
+    }
+}
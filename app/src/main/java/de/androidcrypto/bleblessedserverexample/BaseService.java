@@ -9,13 +9,12 @@ import android.bluetooth.BluetoothGattService;
 
 import androidx.annotation.NonNull;
 
-import com.welie.blessed.BluetoothCentral;
-import com.welie.blessed.BluetoothPeripheralManager;
 import com.welie.blessed.GattStatus;
 import com.welie.blessed.ReadResponse;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -25,10 +24,20 @@ class BaseService implements Service {
     public static final UUID CCC_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
     @NotNull
-    protected final BluetoothPeripheralManager peripheralManager;
+    protected final GattPeripheral peripheral;
+    @NotNull
+    protected final NotificationScheduler scheduler;
+    @NotNull
+    protected final NotificationQueue notificationQueue;
+    @NotNull
+    protected final SubscriptionRegistry subscriptions;
+    private volatile SampleObserver[] sampleObservers = new SampleObserver[0];
 
-    BaseService(@NotNull BluetoothPeripheralManager peripheralManager) {
-        this.peripheralManager = Objects.requireNonNull(peripheralManager);
+    BaseService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this.peripheral = Objects.requireNonNull(peripheral);
+        this.scheduler = Objects.requireNonNull(scheduler);
+        this.notificationQueue = Objects.requireNonNull(notificationQueue);
+        this.subscriptions = Objects.requireNonNull(subscriptions);
     }
 
     BluetoothGattDescriptor getCccDescriptor() {
@@ -39,12 +48,70 @@ class BaseService implements Service {
         return new BluetoothGattDescriptor(CUD_DESCRIPTOR_UUID, PERMISSION_READ | PERMISSION_WRITE);
     }
 
+    /**
+     * Queues the value for every central that enabled notifications or indications on the characteristic.
+     * The value is copied, so the caller may reuse the array.
+     */
     protected void notifyCharacteristicChanged(final byte[] value, @NotNull final BluetoothGattCharacteristic characteristic) {
-        peripheralManager.notifyCharacteristicChanged(value, characteristic);
+        for (GattCentral central : subscriptions.subscribers(characteristic)) {
+            notificationQueue.enqueue(central, characteristic, value);
+        }
+    }
+
+    /**
+     * Sets how many values may wait per central for this characteristic and what happens when there are more.
+     */
+    void configureNotifications(@NotNull BluetoothGattCharacteristic characteristic, int capacity, @NotNull NotificationQueue.OverflowPolicy policy) {
+        notificationQueue.configure(characteristic, capacity, policy);
+    }
+
+    /**
+     * Registers a periodic producer of this service with the shared notification scheduler.
+     * The producer runs on the scheduler thread while at least one central is subscribed to one of
+     * the given characteristics.
+     */
+    NotificationScheduler.Producer registerProducer(long periodMillis, @NotNull Runnable producer, @NotNull BluetoothGattCharacteristic... drivenBy) {
+        NotificationScheduler.Producer handle = scheduler.register(getServiceName(), periodMillis, producer);
+        for (BluetoothGattCharacteristic characteristic : drivenBy) {
+            subscriptions.bindProducer(characteristic, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Adds an observer for the values the producers of this service generate, see {@link #publishSample}.
+     */
+    synchronized void addSampleObserver(@NotNull SampleObserver observer) {
+        SampleObserver[] current = sampleObservers;
+        SampleObserver[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = observer;
+        sampleObservers = updated;
+    }
+
+    synchronized void removeSampleObserver(@NotNull SampleObserver observer) {
+        SampleObserver[] current = sampleObservers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != observer) continue;
+            SampleObserver[] updated = new SampleObserver[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, i);
+            System.arraycopy(current, i + 1, updated, i, updated.length - i);
+            sampleObservers = updated;
+            return;
+        }
+    }
+
+    /**
+     * Hands a generated value to the observers, called by the producer when it generates the value.
+     * The encoded bytes only go to the centrals, nobody needs to decode them again.
+     */
+    protected void publishSample(@NotNull BluetoothGattCharacteristic characteristic, double value, int unit, long timeMillis, long sequence) {
+        for (SampleObserver observer : sampleObservers) {
+            observer.onSample(characteristic, value, unit, timeMillis, sequence);
+        }
     }
 
     boolean noCentralsConnected() {
-        return peripheralManager.getConnectedCentrals().size() == 0;
+        return peripheral.getConnectedCentrals().size() == 0;
     }
 
     @Override
@@ -58,49 +125,60 @@ class BaseService implements Service {
     }
 
     @Override
-    public ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
         return new ReadResponse(GattStatus.REQUEST_NOT_SUPPORTED, null);
     }
 
+    /**
+     * Slices the full value. Services that can serve an offset without building the value again override this.
+     */
+    @Override
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, int offset) {
+        ReadResponse response = onCharacteristicRead(central, characteristic);
+        if (offset == 0 || response.status != GattStatus.SUCCESS || response.value == null) return response;
+        if (offset > response.value.length) return new ReadResponse(GattStatus.INVALID_OFFSET, null);
+        return new ReadResponse(GattStatus.SUCCESS, Arrays.copyOfRange(response.value, offset, response.value.length));
+    }
+
     @Override
-    public GattStatus onCharacteristicWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic, byte[] value) {
+    public GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, byte[] value) {
         return GattStatus.SUCCESS;
     }
 
     @Override
-    public void onCharacteristicWriteCompleted(@NonNull BluetoothCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {}
+    public void onCharacteristicWriteCompleted(@NonNull GattCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {}
 
     @Override
-    public ReadResponse onDescriptorRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattDescriptor descriptor) {
+    public ReadResponse onDescriptorRead(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor) {
         return new ReadResponse(GattStatus.REQUEST_NOT_SUPPORTED, null);
     }
 
     @Override
-    public GattStatus onDescriptorWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattDescriptor descriptor, byte[] value) {
+    public GattStatus onDescriptorWrite(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor, byte[] value) {
         return GattStatus.SUCCESS;
     }
 
     @Override
-    public void onNotifyingEnabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+    public void onNotifyingEnabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
 
     }
 
     @Override
-    public void onNotifyingDisabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+    public void onNotifyingDisabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
 
     }
 
     @Override
-    public void onNotificationSent(@NotNull BluetoothCentral central, byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
+    public void onNotificationSent(@NotNull GattCentral central, byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
     }
 
     @Override
-    public void onCentralConnected(@NotNull BluetoothCentral central) {
+    public void onCentralConnected(@NotNull GattCentral central) {
 
     }
 
     @Override
-    public void onCentralDisconnected(@NotNull BluetoothCentral central) {
+    public void onCentralDisconnected(@NotNull GattCentral central) {
 
     }
 }
@@ -0,0 +1,83 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.os.ParcelUuid;
+
+import com.welie.blessed.BluetoothPeripheralManager;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * {@link AdvertisingManager.Advertiser} on top of the blessed BluetoothPeripheralManager. The
+ * settings are built once per mode and the advertise data once per payload set, rotating through
+ * the sets or changing the mode only swaps prebuilt objects.
+ */
+@SuppressLint("MissingPermission")
+class BlessedAdvertiser implements AdvertisingManager.Advertiser {
+
+    @NotNull
+    private final BluetoothPeripheralManager peripheralManager;
+    // by advertising mode, AdvertisingManager.MODE_* are the values of AdvertiseSettings.ADVERTISE_MODE_*
+    @NotNull
+    private final AdvertiseSettings[] settings = {
+            settings(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER),
+            settings(AdvertiseSettings.ADVERTISE_MODE_BALANCED),
+            settings(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
+    };
+    // only touched under the lock of the manager: payload set -> advertise data and scan response
+    private final Map<AdvertisingPlan.PayloadSet, AdvertiseData[]> built = new IdentityHashMap<>();
+    private boolean advertising;
+
+    BlessedAdvertiser(@NotNull BluetoothPeripheralManager peripheralManager) {
+        this.peripheralManager = Objects.requireNonNull(peripheralManager);
+    }
+
+    @Override
+    public void startAdvertising(@NotNull AdvertisingPlan.PayloadSet payload, int mode) {
+        AdvertiseData[] data = built.get(payload);
+        if (data == null) {
+            data = build(payload);
+            built.put(payload, data);
+        }
+        // there is one advertising slot, the payload can only be changed by starting again
+        if (advertising) peripheralManager.stopAdvertising();
+        peripheralManager.startAdvertising(settings[mode], data[0], data[1]);
+        advertising = true;
+    }
+
+    @Override
+    public void stopAdvertising() {
+        peripheralManager.stopAdvertising();
+        advertising = false;
+    }
+
+    @NotNull
+    private static AdvertiseSettings settings(int mode) {
+        return new AdvertiseSettings.Builder()
+                .setAdvertiseMode(mode)
+                .setConnectable(true)
+                .setTimeout(0)
+                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
+                .build();
+    }
+
+    @NotNull
+    private static AdvertiseData[] build(@NotNull AdvertisingPlan.PayloadSet payload) {
+        AdvertiseData.Builder advertiseData = new AdvertiseData.Builder().setIncludeTxPowerLevel(payload.includeTxPower);
+        for (UUID uuid : payload.advertised) {
+            advertiseData.addServiceUuid(new ParcelUuid(uuid));
+        }
+        AdvertiseData.Builder scanResponse = new AdvertiseData.Builder().setIncludeDeviceName(payload.includeName);
+        for (UUID uuid : payload.scanResponse) {
+            scanResponse.addServiceUuid(new ParcelUuid(uuid));
+        }
+        return new AdvertiseData[]{advertiseData.build(), scanResponse.build()};
+    }
+}
@@ -0,0 +1,91 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import com.welie.blessed.BluetoothCentral;
+import com.welie.blessed.BluetoothPeripheralManager;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GattPeripheral} on top of the blessed BluetoothPeripheralManager. Every blessed central is
+ * wrapped once per connection, so the callbacks hand the same {@link GattCentral} to the services.
+ */
+class BlessedGattPeripheral implements GattPeripheral {
+
+    @NotNull
+    private final BluetoothPeripheralManager peripheralManager;
+    private final ConcurrentHashMap<String, BlessedCentral> centrals = new ConcurrentHashMap<>();
+
+    BlessedGattPeripheral(@NotNull BluetoothPeripheralManager peripheralManager) {
+        this.peripheralManager = Objects.requireNonNull(peripheralManager);
+    }
+
+    /**
+     * @return the wrapper of a blessed central, created on first use
+     */
+    @NotNull
+    GattCentral central(@NotNull BluetoothCentral central) {
+        BlessedCentral wrapper = centrals.get(central.getAddress());
+        if (wrapper == null || wrapper.central != central) {
+            wrapper = new BlessedCentral(central);
+            centrals.put(central.getAddress(), wrapper);
+        }
+        return wrapper;
+    }
+
+    /**
+     * Forgets the wrapper of a central after it disconnected.
+     */
+    void release(@NotNull BluetoothCentral central) {
+        centrals.remove(central.getAddress());
+    }
+
+    @Override
+    public boolean notifyCharacteristicChanged(@NotNull byte[] value, @NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        return peripheralManager.notifyCharacteristicChanged(value, ((BlessedCentral) central).central, characteristic);
+    }
+
+    @Override
+    public @NotNull Collection<? extends GattCentral> getConnectedCentrals() {
+        return wrapAll(peripheralManager.getConnectedCentrals());
+    }
+
+    @Override
+    public boolean addService(@NotNull BluetoothGattService service) {
+        return peripheralManager.add(service);
+    }
+
+    private List<GattCentral> wrapAll(Collection<BluetoothCentral> blessedCentrals) {
+        List<GattCentral> result = new ArrayList<>(blessedCentrals.size());
+        for (BluetoothCentral central : blessedCentrals) {
+            result.add(central(central));
+        }
+        return result;
+    }
+
+    private static final class BlessedCentral implements GattCentral {
+        final BluetoothCentral central;
+
+        BlessedCentral(BluetoothCentral central) {
+            this.central = central;
+        }
+
+        @Override
+        public @NotNull String getAddress() {
+            return central.getAddress();
+        }
+
+        @Override
+        public int getCurrentMtu() {
+            return central.getCurrentMtu();
+        }
+    }
+}
@@ -1,25 +1,18 @@
 package de.androidcrypto.bleblessedserverexample;
 
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT16;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
-
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.content.Context;
-import android.content.Intent;
 import android.os.Build;
-import android.os.ParcelUuid;
 
 import androidx.annotation.NonNull;
 
 import com.welie.blessed.AdvertiseError;
-import com.welie.blessed.BluetoothBytesParser;
 import com.welie.blessed.BluetoothCentral;
 import com.welie.blessed.BluetoothPeripheralManager;
 import com.welie.blessed.BluetoothPeripheralManagerCallback;
@@ -28,11 +21,11 @@ import com.welie.blessed.ReadResponse;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.nio.ByteOrder;
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import timber.log.Timber;
@@ -45,201 +38,192 @@ import timber.log.Timber;
 @SuppressLint("MissingPermission")
 class BluetoothServer {
 
-    private static Context mContext;
+    private static final HotLog.Event CHARACTERISTIC_WRITE = HotLog.event(HotLog.DEBUG, "characteristic write, %d bytes: %016x");
+    // management commands of the control point, next to its built-in ones
+    static final int GET_STATISTICS = 0x10;
+    static final int GET_MODEL_NUMBER = 0x11;
+    // most phones keep up to 7 LE connections, at that point advertising only costs power
+    static final int MAX_CENTRALS = 7;
+
     private static BluetoothServer instance = null;
+    private final ServerEventBus eventBus = new ServerEventBus(new ChoreographerFrameTrigger());
     private BluetoothPeripheralManager peripheralManager;
-    private final HashMap<BluetoothGattService, Service> serviceImplementations = new HashMap<>();
-
-    // Intent constants
-    public static final String BLUETOOTH_HANDLER_ADVERTISER = "androidcrypto.bluetoothhandler.advertiser";
-    public static final String BLUETOOTH_HANDLER_ADVERTISER_EXTRA = "androidcrypto.bluetoothhandler.advertiser.extra";
-    public static final String BLUETOOTH_HANDLER_CONNECTION = "androidcrypto.bluetoothhandler.connection";
-    public static final String BLUETOOTH_HANDLER_CONNECTION_EXTRA = "androidcrypto.bluetoothhandler.connection.extra";
-    public static final String BLUETOOTH_HANDLER_CURRENT_TIME = "androidcrypto.bluetoothhandler.currenttime";
-    public static final String BLUETOOTH_HANDLER_CURRENT_TIME_EXTRA = "androidcrypto.bluetoothhandler.currenttime.extra";
-    public static final String BLUETOOTH_HANDLER_HEART_BEAT_RATE = "androidcrypto.bluetoothhandler.heartbeatrate";
-    public static final String BLUETOOTH_HANDLER_HEART_BEAT_RATE_EXTRA = "androidcrypto.bluetoothhandler.heartbeatrate.extra";
-    public static final String BLUETOOTH_HANDLER_MODEL_NAME = "androidcrypto.bluetoothhandler.modelname";
-    public static final String BLUETOOTH_HANDLER_MODEL_NAME_EXTRA = "androidcrypto.bluetoothhandler.modelname.extra";
+    private BlessedGattPeripheral gattPeripheral;
+    private final NotificationScheduler notificationScheduler = new NotificationScheduler();
+    private NotificationQueue notificationQueue;
+    private final SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final List<Service> serviceImplementations = new ArrayList<>();
+    private GattDispatcher dispatcher;
+    private GattCapture capture;
+    private ServiceStartup serviceStartup;
+    private AdvertisingController advertisingController;
+    private DeviceInformationService deviceInformationService;
+    private BluetoothGattCharacteristic currentTimeCharacteristic;
+    private BluetoothGattCharacteristic heartRateMeasurementCharacteristic;
+    private BluetoothGattCharacteristic modelNumberCharacteristic;
 
     public static synchronized BluetoothServer getInstance(Context context) {
-        mContext = context;
         if (instance == null) {
             instance = new BluetoothServer(context.getApplicationContext());
         }
         return instance;
     }
 
+    /**
+     * Events for the UI, delivered on the main thread.
+     */
+    @NotNull
+    ServerEventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Counters and latencies of the running server, see {@link ServerMetrics#snapshot}.
+     */
+    @NotNull
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the model number (UTF-8) as last written by a central, do not modify
+     */
+    @NotNull
+    byte[] getModelNumber() {
+        return deviceInformationService != null ? deviceInformationService.getModelNumber() : new byte[0];
+    }
+
+    /**
+     * Records the GATT traffic into the directory until {@link #stopCapture()}, an earlier capture
+     * in the directory is replaced. See {@link GattCapture} for the format.
+     */
+    synchronized void startCapture(@NotNull File directory) throws IOException {
+        stopCapture();
+        capture = new GattCapture(directory);
+        dispatcher.setCapture(capture);
+    }
+
+    synchronized void stopCapture() {
+        if (capture == null) return;
+        dispatcher.setCapture(null);
+        capture.close();
+        capture = null;
+    }
+
     private final BluetoothPeripheralManagerCallback peripheralManagerCallback = new BluetoothPeripheralManagerCallback() {
         @Override
         public void onServiceAdded(@NotNull GattStatus status, @NotNull BluetoothGattService service) {
+            serviceStartup.onServiceAdded(status, service);
         }
 
         @Override
         public @NotNull ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-            Service serviceImplementation = serviceImplementations.get(characteristic.getService());
-            if (serviceImplementation != null) {
-                return serviceImplementation.onCharacteristicRead(central, characteristic);
-            }
-            return super.onCharacteristicRead(central, characteristic);
+            return dispatcher.onCharacteristicRead(gattPeripheral.central(central), characteristic);
         }
 
         @Override
         public @NotNull GattStatus onCharacteristicWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
-            Service serviceImplementation = serviceImplementations.get(characteristic.getService());
-            if (serviceImplementation != null) {
-                System.out.println("* onCharWrite modelName: " + new String(value));
-                // new - when the model name characteristic is read the model name is shown on th UI
-                if (characteristic.getUuid().equals(DeviceInformationService.MODEL_NUMBER_CHARACTERISTIC_UUID)) {
-                    String data = new String(value);
-                    Intent intent = new Intent(BLUETOOTH_HANDLER_MODEL_NAME);
-                    intent.putExtra(BLUETOOTH_HANDLER_MODEL_NAME_EXTRA, data);
-                    sendToMain(intent);
-                }
-                return serviceImplementation.onCharacteristicWrite(central, characteristic, value);
-            }
-            return GattStatus.REQUEST_NOT_SUPPORTED;
+            CHARACTERISTIC_WRITE.log(value.length, HotLog.pack(value, 0));
+            return dispatcher.onCharacteristicWrite(gattPeripheral.central(central), characteristic, value);
         }
 
         @Override
         public void onCharacteristicWriteCompleted(@NonNull BluetoothCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
-            Service serviceImplementation = serviceImplementations.get(characteristic.getService());
-            if (serviceImplementation != null) {
-                serviceImplementation.onCharacteristicWriteCompleted(central, characteristic, value);
+            dispatcher.onCharacteristicWriteCompleted(gattPeripheral.central(central), characteristic, value);
+            // new - when the model name characteristic is written the model name is shown on the UI,
+            // which reads it with getModelNumber
+            if (characteristic == modelNumberCharacteristic) {
+                eventBus.publish(ServerEventBus.MODEL_NAME, 0);
             }
         }
 
         @Override
         public @NotNull ReadResponse onDescriptorRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattDescriptor descriptor) {
-            BluetoothGattCharacteristic characteristic = Objects.requireNonNull(descriptor.getCharacteristic(), "Descriptor has no Characteristic");
-            BluetoothGattService service = Objects.requireNonNull(characteristic.getService(), "Characteristic has no Service");
-
-            Service serviceImplementation = serviceImplementations.get(service);
-            if (serviceImplementation != null) {
-                return serviceImplementation.onDescriptorRead(central, descriptor);
-            }
-            return super.onDescriptorRead(central, descriptor);
+            return dispatcher.onDescriptorRead(gattPeripheral.central(central), descriptor);
         }
 
         @NonNull
         @Override
         public GattStatus onDescriptorWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattDescriptor descriptor, @NotNull byte[] value) {
-            BluetoothGattCharacteristic characteristic = Objects.requireNonNull(descriptor.getCharacteristic(), "Descriptor has no Characteristic");
-            BluetoothGattService service = Objects.requireNonNull(characteristic.getService(), "Characteristic has no Service");
-            Service serviceImplementation = serviceImplementations.get(service);
-            if (serviceImplementation != null) {
-                return serviceImplementation.onDescriptorWrite(central, descriptor, value);
-            }
-            return GattStatus.REQUEST_NOT_SUPPORTED;
+            return dispatcher.onDescriptorWrite(gattPeripheral.central(central), descriptor, value);
         }
 
         @Override
         public void onNotifyingEnabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-            Service serviceImplementation = serviceImplementations.get(characteristic.getService());
-            if (serviceImplementation != null) {
-                serviceImplementation.onNotifyingEnabled(central, characteristic);
-            }
+            dispatcher.onNotifyingEnabled(gattPeripheral.central(central), characteristic);
         }
 
         @Override
         public void onNotifyingDisabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-            Service serviceImplementation = serviceImplementations.get(characteristic.getService());
-            if (serviceImplementation != null) {
-                serviceImplementation.onNotifyingDisabled(central, characteristic);
-            }
+            dispatcher.onNotifyingDisabled(gattPeripheral.central(central), characteristic);
         }
 
         @Override
         public void onNotificationSent(@NotNull BluetoothCentral central, byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
-            Service serviceImplementation = serviceImplementations.get(characteristic.getService());
-            if (serviceImplementation != null) {
-                serviceImplementation.onNotificationSent(central, value, characteristic, status);
-            }
-            if (characteristic.getUuid().equals(CurrentTimeService.CURRENT_TIME_CHARACTERISTIC_UUID)) {
-                BluetoothBytesParser parser = new BluetoothBytesParser(value, ByteOrder.LITTLE_ENDIAN);
-                Date date = parser.getDateTime();
-                Intent intent = new Intent(BLUETOOTH_HANDLER_CURRENT_TIME);
-                intent.putExtra(BLUETOOTH_HANDLER_CURRENT_TIME_EXTRA, date.toString());
-                sendToMain(intent);
-            }
-            if (characteristic.getUuid().equals(HeartRateService.HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-                BluetoothBytesParser parser = new BluetoothBytesParser(value);
-                int flags = parser.getIntValue(FORMAT_UINT8);
-                final int unit = flags & 0x01;
-                // Parse heart rate
-                int pulse = (unit == 0) ? parser.getIntValue(FORMAT_UINT8) : parser.getIntValue(FORMAT_UINT16);
-                Intent intent = new Intent(BLUETOOTH_HANDLER_HEART_BEAT_RATE);
-                intent.putExtra(BLUETOOTH_HANDLER_HEART_BEAT_RATE_EXTRA, String.valueOf(pulse));
-                sendToMain(intent);
-            }
+            // the dispatcher releases the notification queue, the value array is recycled after that
+            dispatcher.onNotificationSent(gattPeripheral.central(central), value, characteristic, status);
         }
 
         @Override
         public void onCentralConnected(@NotNull BluetoothCentral central) {
-            for (Service serviceImplementation : serviceImplementations.values()) {
-                serviceImplementation.onCentralConnected(central);
-            }
-            Intent intent = new Intent(BLUETOOTH_HANDLER_CONNECTION);
-            intent.putExtra(BLUETOOTH_HANDLER_CONNECTION_EXTRA, "connected to MAC: " + central.getAddress());
-            sendToMain(intent);
+            dispatcher.onCentralConnected(gattPeripheral.central(central));
+            advertisingController.onCentralConnected();
+            eventBus.publish(ServerEventBus.CENTRAL_CONNECTED, ServerEventBus.macToLong(central.getAddress()));
         }
 
         @Override
         public void onCentralDisconnected(@NotNull BluetoothCentral central) {
-            for (Service serviceImplementation : serviceImplementations.values()) {
-                serviceImplementation.onCentralDisconnected(central);
-            }
-            Intent intent = new Intent(BLUETOOTH_HANDLER_CONNECTION);
-            intent.putExtra(BLUETOOTH_HANDLER_CONNECTION_EXTRA, "DISCONNECTED from MAC: " + central.getAddress());
-            sendToMain(intent);
+            dispatcher.onCentralDisconnected(gattPeripheral.central(central));
+            gattPeripheral.release(central);
+            advertisingController.onCentralDisconnected();
+            eventBus.publish(ServerEventBus.CENTRAL_DISCONNECTED, ServerEventBus.macToLong(central.getAddress()));
         }
 
         @Override
         public void onAdvertisingStarted(@NotNull AdvertiseSettings settingsInEffect) {
-            Intent intent = new Intent(BLUETOOTH_HANDLER_ADVERTISER);
-            intent.putExtra(BLUETOOTH_HANDLER_ADVERTISER_EXTRA, "ON");
-            sendToMain(intent);
+            advertisingController.onAdvertisingStarted();
+            eventBus.publish(ServerEventBus.ADVERTISING, 1);
         }
 
         @Override
         public void onAdvertiseFailure(@NotNull AdvertiseError advertiseError) {
-            Intent intent = new Intent(BLUETOOTH_HANDLER_ADVERTISER);
-            intent.putExtra(BLUETOOTH_HANDLER_ADVERTISER_EXTRA, "OFF");
-            sendToMain(intent);
+            advertisingController.onAdvertisingStopped();
+            eventBus.publish(ServerEventBus.ADVERTISING, 0);
         }
 
         @Override
         public void onAdvertisingStopped() {
-            Intent intent = new Intent(BLUETOOTH_HANDLER_ADVERTISER);
-            intent.putExtra(BLUETOOTH_HANDLER_ADVERTISER_EXTRA, "OFF");
-            sendToMain(intent);
+            advertisingController.onAdvertisingStopped();
+            eventBus.publish(ServerEventBus.ADVERTISING, 0);
         }
     };
 
-    public void startAdvertising(UUID serviceUUID) {
-        AdvertiseSettings advertiseSettings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
-                .setConnectable(true)
-                .setTimeout(0)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
-                .build();
-
-        AdvertiseData advertiseData = new AdvertiseData.Builder()
-                .setIncludeTxPowerLevel(true)
-                .addServiceUuid(new ParcelUuid(serviceUUID))
-                .build();
-
-        AdvertiseData scanResponse = new AdvertiseData.Builder()
-                .setIncludeDeviceName(true)
-                .build();
-
-        peripheralManager.startAdvertising(advertiseSettings, advertiseData, scanResponse);
-    }
+    // the UI shows the values the producers generate, not the bytes that were sent
+    private final SampleObserver sampleObserver = (characteristic, value, unit, timeMillis, sequence) -> {
+        if (characteristic == currentTimeCharacteristic) {
+            eventBus.publish(ServerEventBus.CURRENT_TIME, (long) value);
+        } else if (characteristic == heartRateMeasurementCharacteristic) {
+            eventBus.publish(ServerEventBus.HEART_RATE, (long) value);
+        }
+    };
 
-    private void setupServices() {
-        for (BluetoothGattService service : serviceImplementations.keySet()) {
-            peripheralManager.add(service);
+    private void setupServices(@NotNull AdvertisingPlan plan) {
+        // build the dispatch index before the services go live, callbacks may arrive right after add()
+        dispatcher = new GattDispatcher(serviceImplementations, notificationQueue, subscriptions, metrics);
+        currentTimeCharacteristic = dispatcher.findCharacteristic(CurrentTimeService.CURRENT_TIME_CHARACTERISTIC_UUID);
+        heartRateMeasurementCharacteristic = dispatcher.findCharacteristic(HeartRateService.HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID);
+        modelNumberCharacteristic = dispatcher.findCharacteristic(DeviceInformationService.MODEL_NUMBER_CHARACTERISTIC_UUID);
+        // the services of the first payload set go live first, the others follow; the advertising
+        // manager puts the later sets on air once their services are live
+        AdvertisingPlan.PayloadSet first = plan.getSets().get(0);
+        serviceStartup = new ServiceStartup(gattPeripheral, metrics);
+        for (Service serviceImplementation : dispatcher.services()) {
+            ((BaseService) serviceImplementation).addSampleObserver(sampleObserver);
+            BluetoothGattService service = serviceImplementation.getService();
+            serviceStartup.register(service, first.contains(service.getUuid()) ? ServiceStartup.Priority.EAGER : ServiceStartup.Priority.LAZY);
         }
+        serviceStartup.start();
     }
 
     BluetoothServer(Context context) {
@@ -262,28 +246,56 @@ class BluetoothServer {
 
         this.peripheralManager = new BluetoothPeripheralManager(context, bluetoothManager, peripheralManagerCallback);
         this.peripheralManager.removeAllServices();
-
-        DeviceInformationService dis = new DeviceInformationService(peripheralManager);
-        CurrentTimeService cts = new CurrentTimeService(peripheralManager);
-        HeartRateService hrs = new HeartRateService(peripheralManager);
-        serviceImplementations.put(dis.getService(), dis);
-        serviceImplementations.put(cts.getService(), cts);
-        serviceImplementations.put(hrs.getService(), hrs);
+        this.gattPeripheral = new BlessedGattPeripheral(peripheralManager);
+        this.notificationQueue = new NotificationQueue(gattPeripheral, metrics);
+
+        DeviceInformationService dis = new DeviceInformationService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions);
+        deviceInformationService = dis;
+        CurrentTimeService cts = new CurrentTimeService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions);
+        HeartRateService hrs = new HeartRateService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions);
+        serviceImplementations.add(dis);
+        serviceImplementations.add(cts);
+        serviceImplementations.add(hrs);
         // new in step 04
-        TemperatureService temperatureService = new TemperatureService(peripheralManager);
-        serviceImplementations.put(temperatureService.getService(), temperatureService);
-
-        setupServices();
-        startAdvertising(hrs.getService().getUuid());
-        // new in step 04
-        startAdvertising(temperatureService.getService().getUuid());
-    }
-
-    /**
-     * section for broadcast
-     */
-
-    private void sendToMain(@NotNull Intent intent) {
-        mContext.sendBroadcast(intent);
+        TemperatureService temperatureService = new TemperatureService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions);
+        serviceImplementations.add(temperatureService);
+        SampleStreamService sampleStreamService = new SampleStreamService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions);
+        serviceImplementations.add(sampleStreamService);
+        ServerStatisticsService statisticsService = new ServerStatisticsService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions, metrics);
+        serviceImplementations.add(statisticsService);
+        serviceImplementations.add(new BulkIngestService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions));
+        ControlPointService controlPointService = new ControlPointService(gattPeripheral, notificationScheduler, notificationQueue, subscriptions);
+        controlPointService.register(GET_STATISTICS, (central, parameters) -> {
+            byte[] statistics = new byte[ServerStatisticsService.STATISTICS_LENGTH];
+            statisticsService.encodeStatistics(statistics);
+            return statistics;
+        });
+        controlPointService.register(GET_MODEL_NUMBER, (central, parameters) -> dis.getModelNumber());
+        serviceImplementations.add(controlPointService);
+
+        // all services share the one advertising slot, the standard ones first
+        List<UUID> advertised = new ArrayList<>();
+        advertised.add(hrs.getService().getUuid());
+        advertised.add(temperatureService.getService().getUuid());
+        advertised.add(cts.getService().getUuid());
+        advertised.add(dis.getService().getUuid());
+        advertised.add(sampleStreamService.getService().getUuid());
+        advertised.add(statisticsService.getService().getUuid());
+        advertised.add(BulkIngestService.BULK_INGEST_SERVICE_UUID);
+        advertised.add(controlPointService.getService().getUuid());
+        AdvertisingPlan plan = new AdvertisingPlan(advertised, Build.MODEL.getBytes(StandardCharsets.UTF_8).length, true);
+        AdvertisingManager advertisingManager = new AdvertisingManager(new BlessedAdvertiser(peripheralManager), notificationScheduler);
+        advertisingController = new AdvertisingController(advertisingManager, plan, notificationScheduler, metrics, MAX_CENTRALS);
+
+        setupServices(plan);
+        advertisingManager.setAvailability(serviceStartup::isLive);
+        // advertise as soon as the advertised services are live, not after all of them
+        serviceStartup.getEagerReadiness().whenDone(() -> {
+            if (serviceStartup.getEagerReadiness().isReady()) {
+                advertisingController.start();
+            } else {
+                Timber.e("advertised services could not be added, not advertising");
+            }
+        });
     }
 }
@@ -0,0 +1,314 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_WRITE;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
+import static android.bluetooth.BluetoothGattService.SERVICE_TYPE_PRIMARY;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.NonNull;
+
+import com.welie.blessed.GattStatus;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Custom service for pushing large values (configuration blobs, data batches) from a gateway to the
+ * phone without a round trip per write.
+ *
+ * The central starts a transfer with a write (with response) to the control characteristic:
+ * START (uint8, 1), total length (uint32), chunk length (uint16). It then writes the chunks without
+ * response to the data characteristic: sequence number (uint16) followed by chunk length bytes of
+ * the value, only the last chunk may be shorter. ABORT (uint8, 2) drops the transfer. One transfer
+ * runs at a time, a START of another central is answered with BUSY while it is active.
+ *
+ * Flow control is by credits, the central may only send chunks with a sequence number below the
+ * credit limit. The server notifies its state on the control characteristic: CREDIT (uint8, 0x81),
+ * next expected sequence number (uint16), credit limit (uint16), followed by the sequence numbers
+ * of missing chunks (uint16 each) the central should send again. Writes without response arrive in
+ * order, a chunk beyond the next one means the chunks in between were lost; the state is notified
+ * right away then, when half of the window has been used and every {@link #CREDIT_PERIOD_MILLIS}
+ * while the transfer runs, so chunks lost at the end or a lost notification do not stall it. When
+ * all chunks are there, COMPLETE (uint8, 0x82) and the total length (uint32) are notified and the
+ * {@link TransferListener} gets the value.
+ *
+ * The chunks are copied from the write callback straight to their offset in the staging buffer,
+ * which is allocated once for the largest transfer: a direct buffer or a memory mapped file, see
+ * {@link #mapStagingFile}.
+ */
+class BulkIngestService extends BaseService {
+
+    public static final UUID BULK_INGEST_SERVICE_UUID = UUID.fromString("7d2e0020-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+    public static final UUID BULK_INGEST_CONTROL_CHARACTERISTIC_UUID = UUID.fromString("7d2e0021-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+    public static final UUID BULK_INGEST_DATA_CHARACTERISTIC_UUID = UUID.fromString("7d2e0022-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+
+    // control opcodes, central to server
+    static final int START = 0x01;
+    static final int ABORT = 0x02;
+    // control notifications, server to central
+    static final int CREDIT = 0x81;
+    static final int COMPLETE = 0x82;
+
+    static final int DEFAULT_STAGING_BYTES = 512 * 1024;
+    static final int MAX_CHUNKS = 0xFFFF;
+    static final int WINDOW_CHUNKS = 64;
+    static final int CREDIT_PERIOD_MILLIS = 200;
+    static final int CHUNK_HEADER_LENGTH = 2;
+    private static final int CREDIT_HEADER_LENGTH = 5;
+
+    private static final HotLog.Event TRANSFER_STARTED = HotLog.event(HotLog.INFO, "bulk transfer of %d bytes started, %d chunks");
+    private static final HotLog.Event CHUNKS_MISSING = HotLog.event(HotLog.DEBUG, "bulk transfer chunks %d to %d missing");
+    private static final HotLog.Event TRANSFER_COMPLETED = HotLog.event(HotLog.INFO, "bulk transfer of %d bytes completed in %d ms");
+    private static final HotLog.Event TRANSFER_ABORTED = HotLog.event(HotLog.INFO, "bulk transfer aborted after %d of %d chunks");
+
+    interface TransferListener {
+        /**
+         * Called on the callback thread when a transfer is complete. The value is a read-only view
+         * of the staging buffer, only valid until the method returns.
+         */
+        void onTransferCompleted(@NotNull GattCentral central, @NotNull ByteBuffer value);
+    }
+
+    private @NotNull final BluetoothGattService service = new BluetoothGattService(BULK_INGEST_SERVICE_UUID, SERVICE_TYPE_PRIMARY);
+    private @NotNull final BluetoothGattCharacteristic control = new BluetoothGattCharacteristic(BULK_INGEST_CONTROL_CHARACTERISTIC_UUID, PROPERTY_WRITE | PROPERTY_NOTIFY, PERMISSION_WRITE);
+    private @NotNull final BluetoothGattCharacteristic data = new BluetoothGattCharacteristic(BULK_INGEST_DATA_CHARACTERISTIC_UUID, PROPERTY_WRITE_NO_RESPONSE, PERMISSION_WRITE);
+    private @NotNull final ByteBuffer staging;
+    @Nullable
+    private volatile TransferListener listener;
+
+    // guarded by this: the running transfer, sender is null when there is none
+    @Nullable
+    private GattCentral sender;
+    private int totalLength;
+    private int chunkLength;
+    private int chunkCount;
+    private int receivedCount;
+    private int nextExpected;
+    private int highestReceived;
+    private int creditLimit;
+    private long startNanos;
+    private final long[] received = new long[(MAX_CHUNKS + 64) / 64];
+    private long duplicateChunks;
+    private long rejectedChunks;
+
+    BulkIngestService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this(peripheral, scheduler, notificationQueue, subscriptions, ByteBuffer.allocateDirect(DEFAULT_STAGING_BYTES));
+    }
+
+    /**
+     * @param staging receives the transfers, its capacity is the largest transfer that is accepted
+     */
+    BulkIngestService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull ByteBuffer staging) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
+        this.staging = Objects.requireNonNull(staging);
+        service.addCharacteristic(control);
+        control.addDescriptor(getCccDescriptor());
+        service.addCharacteristic(data);
+        // every notification carries the whole state, a newer one replaces a waiting one
+        configureNotifications(control, 1, NotificationQueue.OverflowPolicy.COALESCE_LATEST);
+        registerProducer(CREDIT_PERIOD_MILLIS, this::refreshCredits, control);
+    }
+
+    /**
+     * Maps a file as staging buffer, a transfer then lands in the page cache instead of the heap.
+     */
+    @NotNull
+    static ByteBuffer mapStagingFile(@NotNull File file, int capacity) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(capacity);
+            return output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    void setTransferListener(@Nullable TransferListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        if (characteristic == data) {
+            return onChunk(central, value);
+        } else if (characteristic == control) {
+            if (value.length == 7 && (value[0] & 0xFF) == START) {
+                long length = (value[1] & 0xFFL) | (value[2] & 0xFFL) << 8 | (value[3] & 0xFFL) << 16 | (value[4] & 0xFFL) << 24;
+                return start(central, length, (value[5] & 0xFF) | (value[6] & 0xFF) << 8);
+            } else if (value.length == 1 && (value[0] & 0xFF) == ABORT) {
+                abort(central);
+                return GattStatus.SUCCESS;
+            }
+            return GattStatus.VALUE_NOT_ALLOWED;
+        }
+        return super.onCharacteristicWrite(central, characteristic, value);
+    }
+
+    @NotNull
+    private GattStatus start(@NotNull GattCentral central, long length, int chunk) {
+        // a chunk and its sequence number have to fit into one write at the MTU of the central
+        if (chunk < 1 || CHUNK_HEADER_LENGTH + chunk > central.getCurrentMtu() - 3) return GattStatus.VALUE_NOT_ALLOWED;
+        if (length < 1 || length > staging.capacity() || (length + chunk - 1) / chunk > MAX_CHUNKS) return GattStatus.INVALID_ATTRIBUTE_VALUE_LENGTH;
+        byte[] credit;
+        synchronized (this) {
+            if (sender != null && !sender.getAddress().equals(central.getAddress())) return GattStatus.BUSY;
+            sender = central;
+            totalLength = (int) length;
+            chunkLength = chunk;
+            chunkCount = (int) ((length + chunk - 1) / chunk);
+            receivedCount = 0;
+            nextExpected = 0;
+            highestReceived = -1;
+            startNanos = System.nanoTime();
+            Arrays.fill(received, 0, (chunkCount + 63) / 64, 0);
+            credit = encodeCredit();
+        }
+        TRANSFER_STARTED.log(length, chunkCount);
+        sendToSender(central, credit);
+        return GattStatus.SUCCESS;
+    }
+
+    @NotNull
+    private GattStatus onChunk(@NotNull GattCentral central, @NotNull byte[] value) {
+        if (value.length < CHUNK_HEADER_LENGTH) return GattStatus.INVALID_ATTRIBUTE_VALUE_LENGTH;
+        int sequence = (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+        byte[] notification = null;
+        ByteBuffer completed = null;
+        synchronized (this) {
+            if (sender == null || !sender.getAddress().equals(central.getAddress()) || sequence >= creditLimit) {
+                rejectedChunks++;
+                return GattStatus.WRITE_NOT_PERMITTED;
+            }
+            int offset = sequence * chunkLength;
+            int length = Math.min(chunkLength, totalLength - offset);
+            if (value.length - CHUNK_HEADER_LENGTH != length) {
+                rejectedChunks++;
+                return GattStatus.INVALID_ATTRIBUTE_VALUE_LENGTH;
+            }
+            if ((received[sequence >> 6] & (1L << sequence)) != 0) {
+                duplicateChunks++;
+                return GattStatus.SUCCESS;
+            }
+            staging.position(offset);
+            staging.put(value, CHUNK_HEADER_LENGTH, length);
+            received[sequence >> 6] |= 1L << sequence;
+            receivedCount++;
+
+            boolean gap = sequence > highestReceived + 1;
+            if (gap) CHUNKS_MISSING.log(highestReceived + 1, sequence - 1);
+            highestReceived = Math.max(highestReceived, sequence);
+            while (nextExpected < chunkCount && (received[nextExpected >> 6] & (1L << nextExpected)) != 0) {
+                nextExpected++;
+            }
+
+            if (receivedCount == chunkCount) {
+                TRANSFER_COMPLETED.log(totalLength, (System.nanoTime() - startNanos) / 1_000_000);
+                notification = new byte[]{(byte) COMPLETE, (byte) totalLength, (byte) (totalLength >> 8), (byte) (totalLength >> 16), (byte) (totalLength >> 24)};
+                ByteBuffer view = staging.duplicate();
+                view.position(0);
+                view.limit(totalLength);
+                completed = view.asReadOnlyBuffer();
+                sender = null;
+            } else {
+                int limit = Math.min(chunkCount, nextExpected + WINDOW_CHUNKS);
+                if (gap || limit - creditLimit >= WINDOW_CHUNKS / 2 || (limit == chunkCount && creditLimit < chunkCount)) {
+                    notification = encodeCredit();
+                }
+            }
+        }
+        if (notification != null) sendToSender(central, notification);
+        TransferListener listener = this.listener;
+        if (completed != null && listener != null) listener.onTransferCompleted(central, completed);
+        return GattStatus.SUCCESS;
+    }
+
+    private void abort(@NotNull GattCentral central) {
+        synchronized (this) {
+            if (sender == null || !sender.getAddress().equals(central.getAddress())) return;
+            TRANSFER_ABORTED.log(receivedCount, chunkCount);
+            sender = null;
+        }
+    }
+
+    // on the scheduler thread
+    private void refreshCredits() {
+        GattCentral central;
+        byte[] credit;
+        synchronized (this) {
+            central = sender;
+            if (central == null) return;
+            credit = encodeCredit();
+        }
+        sendToSender(central, credit);
+    }
+
+    /**
+     * Grants the next window and lists the missing chunks that fit into one notification.
+     * Called with the lock held.
+     */
+    @NotNull
+    private byte[] encodeCredit() {
+        creditLimit = Math.min(chunkCount, nextExpected + WINDOW_CHUNKS);
+        int maxMissing = Math.max(0, (sender.getCurrentMtu() - 3 - CREDIT_HEADER_LENGTH) / 2);
+        int missing = 0;
+        for (int sequence = nextExpected; sequence < highestReceived && missing < maxMissing; sequence++) {
+            if ((received[sequence >> 6] & (1L << sequence)) == 0) missing++;
+        }
+        byte[] credit = new byte[CREDIT_HEADER_LENGTH + 2 * missing];
+        credit[0] = (byte) CREDIT;
+        credit[1] = (byte) nextExpected;
+        credit[2] = (byte) (nextExpected >> 8);
+        credit[3] = (byte) creditLimit;
+        credit[4] = (byte) (creditLimit >> 8);
+        int offset = CREDIT_HEADER_LENGTH;
+        for (int sequence = nextExpected; offset < credit.length; sequence++) {
+            if ((received[sequence >> 6] & (1L << sequence)) != 0) continue;
+            credit[offset++] = (byte) sequence;
+            credit[offset++] = (byte) (sequence >> 8);
+        }
+        return credit;
+    }
+
+    private void sendToSender(@NotNull GattCentral central, @NotNull byte[] value) {
+        if (subscriptions.getMode(central, control) != null) {
+            notificationQueue.enqueue(central, control, value);
+        }
+    }
+
+    synchronized boolean isTransferRunning() {
+        return sender != null;
+    }
+
+    synchronized long getDuplicateChunks() {
+        return duplicateChunks;
+    }
+
+    synchronized long getRejectedChunks() {
+        return rejectedChunks;
+    }
+
+    @Override
+    public void onCentralDisconnected(@NotNull GattCentral central) {
+        abort(central);
+    }
+
+    @Override
+    public @NotNull BluetoothGattService getService() {
+        return service;
+    }
+
+    @Override
+    public String getServiceName() {
+        return "Bulk Ingest Service";
+    }
+}
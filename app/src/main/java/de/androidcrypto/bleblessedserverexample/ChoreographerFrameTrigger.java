@@ -0,0 +1,34 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Drains a {@link ServerEventBus} on the main thread at the start of the next display frame, so the
+ * UI is updated at most once per frame however fast the server publishes.
+ */
+final class ChoreographerFrameTrigger implements ServerEventBus.FrameTrigger, Choreographer.FrameCallback {
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable postFrameCallback = () -> Choreographer.getInstance().postFrameCallback(this);
+    private volatile Runnable drain;
+
+    @Override
+    public void requestFrame(@NotNull Runnable drain) {
+        this.drain = drain;
+        // the Choreographer belongs to the main thread, other threads hand over through its Handler
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback.run();
+        } else {
+            mainHandler.post(postFrameCallback);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        drain.run();
+    }
+}
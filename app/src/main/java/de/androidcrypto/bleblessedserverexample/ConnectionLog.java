@@ -0,0 +1,82 @@
+package de.androidcrypto.bleblessedserverexample;
+
+/**
+ * Fixed capacity log of connection events for the UI.
+ *
+ * Entries are kept in primitive arrays used as a ring (time, MAC address packed into a long, event
+ * type), adding an entry overwrites the oldest one when the log is full and never allocates.
+ * Positions count from the newest entry, position 0 is the latest event, which is the order the
+ * list shows them in. Not thread safe, only the main thread uses it.
+ */
+final class ConnectionLog {
+
+    static final int DEFAULT_CAPACITY = 500;
+
+    private final long[] timestamps;
+    private final long[] addresses;
+    private final int[] types;
+    private int next;
+    private int size;
+    private long totalCount;
+
+    ConnectionLog(int capacity) {
+        this.timestamps = new long[capacity];
+        this.addresses = new long[capacity];
+        this.types = new int[capacity];
+    }
+
+    /**
+     * @param type {@link ServerEventBus#CENTRAL_CONNECTED} or {@link ServerEventBus#CENTRAL_DISCONNECTED}
+     * @return true if the oldest entry was overwritten
+     */
+    boolean add(long timeMillis, int type, long address) {
+        timestamps[next] = timeMillis;
+        addresses[next] = address;
+        types[next] = type;
+        next = (next + 1) % timestamps.length;
+        totalCount++;
+        if (size == timestamps.length) return true;
+        size++;
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return number of events ever added, including the overwritten ones
+     */
+    long getTotalCount() {
+        return totalCount;
+    }
+
+    long getTimestamp(int position) {
+        return timestamps[index(position)];
+    }
+
+    long getAddress(int position) {
+        return addresses[index(position)];
+    }
+
+    int getType(int position) {
+        return types[index(position)];
+    }
+
+    void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    private int index(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        }
+        int index = next - 1 - position;
+        return index < 0 ? index + timestamps.length : index;
+    }
+}
@@ -0,0 +1,67 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Shows a {@link ConnectionLog} newest first. The RecyclerView only binds the visible rows, the
+ * text of a row is formatted when it scrolls into view.
+ */
+class ConnectionLogAdapter extends RecyclerView.Adapter<ConnectionLogAdapter.ViewHolder> {
+
+    private final ConnectionLog log;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+    private final Date date = new Date();
+
+    ConnectionLogAdapter(@NonNull ConnectionLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Adds an event to the log and updates the list.
+     */
+    void add(long timeMillis, int type, long address) {
+        boolean overwritten = log.add(timeMillis, type, address);
+        if (overwritten) {
+            notifyItemRemoved(log.size() - 1);
+        }
+        notifyItemInserted(0);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.connection_log_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        date.setTime(log.getTimestamp(position));
+        String event = log.getType(position) == ServerEventBus.CENTRAL_CONNECTED ? "connected to MAC: " : "DISCONNECTED from MAC: ";
+        holder.text.setText(timeFormat.format(date) + " " + event + ServerEventBus.macToString(log.getAddress(position)));
+    }
+
+    @Override
+    public int getItemCount() {
+        return log.size();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            text = itemView.findViewById(R.id.tvConnectionLogItem);
+        }
+    }
+}
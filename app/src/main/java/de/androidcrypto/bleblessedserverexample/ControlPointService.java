@@ -0,0 +1,275 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_WRITE;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
+import static android.bluetooth.BluetoothGattService.SERVICE_TYPE_PRIMARY;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.NonNull;
+
+import com.welie.blessed.GattStatus;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Custom service with a control point that runs commands, so a gateway can run many management
+ * operations without a round trip each.
+ *
+ * A central writes request frames, with or without response: request id (uint8), opcode (uint8),
+ * parameters. The write returns right away, the command runs on a worker thread and its response is
+ * notified on the same characteristic: request id (uint8), opcode (uint8), status (uint8), result.
+ * A central may have up to {@link #MAX_IN_FLIGHT_PER_CENTRAL} requests running, they complete in
+ * any order and the id tells which request a response belongs to. An id can be used again once its
+ * response arrived; a write with an id that is still running is refused with VALUE_NOT_ALLOWED,
+ * a request beyond the limit is answered with {@link #BUSY}.
+ *
+ * The responses of a central wait in its own notification lane, which has room for the responses
+ * of all its running requests and one BUSY reply, so a worker never waits for a slow central. The
+ * limit counts the responses that still wait in the lane too. BUSY is replied right from the write;
+ * when the lane has no room for that either, the write itself fails with BUSY. The same happens
+ * when the workers have too much work queued.
+ *
+ * Commands are registered per opcode, see {@link #register}. {@link #ECHO} returns its parameters
+ * and {@link #GET_OPCODES} lists the registered opcodes.
+ */
+class ControlPointService extends BaseService {
+
+    public static final UUID CONTROL_POINT_SERVICE_UUID = UUID.fromString("7d2e0030-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+    public static final UUID CONTROL_POINT_CHARACTERISTIC_UUID = UUID.fromString("7d2e0031-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+
+    // opcodes of the built-in commands
+    static final int ECHO = 0x01;
+    static final int GET_OPCODES = 0x02;
+
+    // response status
+    static final int SUCCESS = 0x01;
+    static final int OPCODE_NOT_SUPPORTED = 0x02;
+    static final int INVALID_PARAMETER = 0x03;
+    static final int OPERATION_FAILED = 0x04;
+    static final int BUSY = 0x05;
+    static final int RESPONSE_TOO_LONG = 0x06;
+
+    static final int MAX_IN_FLIGHT_PER_CENTRAL = 16;
+    static final int REQUEST_HEADER_LENGTH = 2;
+    static final int RESPONSE_HEADER_LENGTH = 3;
+    // the running responses and one busy reply
+    private static final int LANE_CAPACITY = MAX_IN_FLIGHT_PER_CENTRAL + 1;
+    private static final int WORKER_THREADS = 2;
+    private static final int WORKER_QUEUE_CAPACITY = 64;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    private static final HotLog.Event COMMAND_FAILED = HotLog.event(HotLog.WARN, "control point opcode %d failed with status %d");
+    private static final HotLog.Event REQUEST_REFUSED = HotLog.event(HotLog.WARN, "control point request of %012x refused, %d responses pending");
+
+    interface Command {
+        /**
+         * Runs on a worker thread, commands of one central may run at the same time.
+         *
+         * @return the result, it has to fit into a notification together with the response header
+         * @throws IllegalArgumentException if the parameters are not valid
+         */
+        @NotNull
+        byte[] execute(@NotNull GattCentral central, @NotNull byte[] parameters) throws Exception;
+    }
+
+    private @NotNull final BluetoothGattService service = new BluetoothGattService(CONTROL_POINT_SERVICE_UUID, SERVICE_TYPE_PRIMARY);
+    private @NotNull final BluetoothGattCharacteristic controlPoint = new BluetoothGattCharacteristic(CONTROL_POINT_CHARACTERISTIC_UUID, PROPERTY_WRITE | PROPERTY_WRITE_NO_RESPONSE | PROPERTY_NOTIFY, PERMISSION_WRITE);
+    private @NotNull final Executor executor;
+    private @NotNull final AtomicReferenceArray<Command> commands = new AtomicReferenceArray<>(256);
+    // guarded by this, by central address
+    private final Map<String, InFlight> inFlight = new HashMap<>();
+
+    /**
+     * The request ids a central has running.
+     */
+    private static final class InFlight {
+        final long[] ids = new long[4];
+        int count;
+
+        boolean contains(int id) {
+            return (ids[id >> 6] & (1L << id)) != 0;
+        }
+    }
+
+    ControlPointService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this(peripheral, scheduler, notificationQueue, subscriptions, newWorkers());
+    }
+
+    /**
+     * @param executor runs the commands and sends the responses, never on the callback thread; a
+     *                 request it rejects with a RejectedExecutionException is answered with BUSY
+     */
+    ControlPointService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull Executor executor) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
+        this.executor = Objects.requireNonNull(executor);
+        service.addCharacteristic(controlPoint);
+        controlPoint.addDescriptor(getCccDescriptor());
+        // responses must not be lost, the writes keep within the capacity so nothing is rejected
+        configureNotifications(controlPoint, LANE_CAPACITY, NotificationQueue.OverflowPolicy.REJECT);
+        register(ECHO, (central, parameters) -> parameters);
+        register(GET_OPCODES, (central, parameters) -> getOpcodes());
+    }
+
+    // idle workers end, the service needs no shutdown
+    @NotNull
+    private static Executor newWorkers() {
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(WORKER_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "ControlPoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    /**
+     * Registers the command for an opcode, replacing an earlier one. May be called at any time.
+     */
+    void register(int opcode, @NotNull Command command) {
+        if (opcode < 0 || opcode > 0xFF) throw new IllegalArgumentException("opcode must be uint8");
+        commands.set(opcode, Objects.requireNonNull(command));
+    }
+
+    @Override
+    public GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        if (characteristic != controlPoint) return super.onCharacteristicWrite(central, characteristic, value);
+        if (value.length < REQUEST_HEADER_LENGTH) return GattStatus.INVALID_ATTRIBUTE_VALUE_LENGTH;
+        int id = value[0] & 0xFF;
+        int opcode = value[1] & 0xFF;
+        InFlight running;
+        synchronized (this) {
+            running = inFlight.get(central.getAddress());
+            if (running == null) {
+                running = new InFlight();
+                inFlight.put(central.getAddress(), running);
+            }
+            if (running.contains(id)) return GattStatus.VALUE_NOT_ALLOWED;
+            if (getPendingCount(central, running) >= MAX_IN_FLIGHT_PER_CENTRAL) return replyBusy(central, running, id, opcode);
+            running.ids[id >> 6] |= 1L << id;
+            running.count++;
+        }
+        InFlight owner = running;
+        byte[] parameters = Arrays.copyOfRange(value, REQUEST_HEADER_LENGTH, value.length);
+        try {
+            executor.execute(() -> run(central, owner, id, opcode, parameters));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                release(central, owner, id);
+                return replyBusy(central, owner, id, opcode);
+            }
+        }
+        return GattStatus.SUCCESS;
+    }
+
+    // called with the lock held: responses of running requests and those waiting in the lane
+    private int getPendingCount(@NotNull GattCentral central, @NotNull InFlight running) {
+        return running.count + notificationQueue.getDepth(central, controlPoint);
+    }
+
+    // called with the lock held, on the callback thread
+    @NotNull
+    private GattStatus replyBusy(@NotNull GattCentral central, @NotNull InFlight running, int id, int opcode) {
+        int pending = getPendingCount(central, running);
+        if (pending < LANE_CAPACITY && respond(central, id, opcode, BUSY, null)) return GattStatus.SUCCESS;
+        REQUEST_REFUSED.log(ServerEventBus.macToLong(central.getAddress()), pending);
+        return GattStatus.BUSY;
+    }
+
+    // called with the lock held: the id is free again, unless the central disconnected in the meantime
+    private void release(@NotNull GattCentral central, @NotNull InFlight owner, int id) {
+        if (inFlight.get(central.getAddress()) != owner) return;
+        owner.ids[id >> 6] &= ~(1L << id);
+        owner.count--;
+    }
+
+    // on a worker thread
+    private void run(@NotNull GattCentral central, @NotNull InFlight owner, int id, int opcode, @NotNull byte[] parameters) {
+        Command command = commands.get(opcode);
+        int status;
+        byte[] result = null;
+        if (command == null) {
+            status = OPCODE_NOT_SUPPORTED;
+        } else {
+            try {
+                result = command.execute(central, parameters);
+                status = RESPONSE_HEADER_LENGTH + result.length > central.getCurrentMtu() - 3 ? RESPONSE_TOO_LONG : SUCCESS;
+            } catch (IllegalArgumentException e) {
+                status = INVALID_PARAMETER;
+            } catch (Exception e) {
+                status = OPERATION_FAILED;
+            }
+        }
+        if (status != SUCCESS) {
+            COMMAND_FAILED.log(opcode, status);
+            result = null;
+        }
+        try {
+            respond(central, id, opcode, status, result);
+        } finally {
+            synchronized (this) {
+                release(central, owner, id);
+            }
+        }
+    }
+
+    /**
+     * @return false if the lane of the central had no room
+     */
+    private boolean respond(@NotNull GattCentral central, int id, int opcode, int status, byte[] result) {
+        if (subscriptions.getMode(central, controlPoint) == null) return true;
+        int length = result != null ? result.length : 0;
+        byte[] response = new byte[RESPONSE_HEADER_LENGTH + length];
+        response[0] = (byte) id;
+        response[1] = (byte) opcode;
+        response[2] = (byte) status;
+        if (length > 0) System.arraycopy(result, 0, response, RESPONSE_HEADER_LENGTH, length);
+        return notificationQueue.enqueue(central, controlPoint, response);
+    }
+
+    @NotNull
+    private byte[] getOpcodes() {
+        byte[] opcodes = new byte[commands.length()];
+        int count = 0;
+        for (int opcode = 0; opcode < commands.length(); opcode++) {
+            if (commands.get(opcode) != null) opcodes[count++] = (byte) opcode;
+        }
+        return Arrays.copyOf(opcodes, count);
+    }
+
+    synchronized int getInFlightCount(@NotNull GattCentral central) {
+        InFlight running = inFlight.get(central.getAddress());
+        return running != null ? running.count : 0;
+    }
+
+    @Override
+    public synchronized void onCentralDisconnected(@NotNull GattCentral central) {
+        // running commands finish, their responses are not sent
+        inFlight.remove(central.getAddress());
+    }
+
+    @Override
+    public @NotNull BluetoothGattService getService() {
+        return service;
+    }
+
+    @Override
+    public String getServiceName() {
+        return "Control Point Service";
+    }
+}
@@ -8,14 +8,10 @@ import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
-import android.os.Handler;
-import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
 import com.welie.blessed.BluetoothBytesParser;
-import com.welie.blessed.BluetoothCentral;
-import com.welie.blessed.BluetoothPeripheralManager;
 import com.welie.blessed.GattStatus;
 import com.welie.blessed.ReadResponse;
 
@@ -26,40 +22,40 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.UUID;
 
-import timber.log.Timber;
-
 class CurrentTimeService extends BaseService {
 
     private static final UUID CTS_SERVICE_UUID = UUID.fromString("00001805-0000-1000-8000-00805f9b34fb");
     public static final UUID CURRENT_TIME_CHARACTERISTIC_UUID = UUID.fromString("00002A2B-0000-1000-8000-00805f9b34fb");
 
+    private static final HotLog.Event OFFSET_UPDATED = HotLog.event(HotLog.DEBUG, "current time offset updated to %d");
+    // the 10 byte value is logged as its first 8 bytes and the last 2
+    private static final HotLog.Event CURRENT_TIME_BYTES = HotLog.event(HotLog.INFO, "current time bytes %016x%04x");
+
     private @NotNull final BluetoothGattService service = new BluetoothGattService(CTS_SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
     private @NotNull final BluetoothGattCharacteristic currentTime = new BluetoothGattCharacteristic(CURRENT_TIME_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_NOTIFY | PROPERTY_WRITE, PERMISSION_READ | PERMISSION_WRITE);
-    private @NotNull final Handler handler = new Handler(Looper.getMainLooper());
-    private @NotNull final Runnable notifyRunnable = this::notifyCurrentTime;
-    private long offset;
+    private @NotNull final VersionedValue currentTimeValue;
+    private volatile long offset;
+    private long sequence;
 
-    public CurrentTimeService(@NotNull BluetoothPeripheralManager peripheralManager) {
-        super(peripheralManager);
+    public CurrentTimeService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
         service.addCharacteristic(currentTime);
         currentTime.addDescriptor(getCccDescriptor());
         currentTime.addDescriptor(getCudDescriptor());
+        configureNotifications(currentTime, 1, NotificationQueue.OverflowPolicy.COALESCE_LATEST);
+        registerProducer(1000, this::notifyCurrentTime, currentTime); // 1000 ms = 1 second
+        // reads without a subscriber keep the value warm in the background
+        currentTimeValue = new VersionedValue(getCurrentTime())
+                .enableRefreshAhead(scheduler, getServiceName(), 1000, this::getCurrentTime);
     }
 
     @Override
-    public void onCentralDisconnected(@NotNull BluetoothCentral central) {
-        if (noCentralsConnected()) {
-            stopNotifying();
-        }
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        return currentTimeValue.read();
     }
 
     @Override
-    public ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        return new ReadResponse(GattStatus.SUCCESS, getCurrentTime());
-    }
-
-    @Override
-    public GattStatus onCharacteristicWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+    public GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
         if (value.length != 10) return GattStatus.VALUE_NOT_ALLOWED;
 
         BluetoothBytesParser parser = new BluetoothBytesParser(value, ByteOrder.LITTLE_ENDIAN);
@@ -69,31 +65,17 @@ class CurrentTimeService extends BaseService {
     }
 
     @Override
-    public void onCharacteristicWriteCompleted(@NonNull BluetoothCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
-        Timber.d("current time offset updated to %d", offset);
-    }
-
-    @Override
-    public void onNotifyingEnabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(CURRENT_TIME_CHARACTERISTIC_UUID)) {
-            notifyCurrentTime();
-        }
-    }
-
-    @Override
-    public void onNotifyingDisabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(CURRENT_TIME_CHARACTERISTIC_UUID)) {
-            stopNotifying();
-        }
+    public void onCharacteristicWriteCompleted(@NonNull GattCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        currentTimeValue.publish(getCurrentTime());
+        OFFSET_UPDATED.log(offset);
     }
 
     private void notifyCurrentTime() {
-        notifyCharacteristicChanged(getCurrentTime() ,currentTime);
-        handler.postDelayed(notifyRunnable, 1000); // 1000 ms = 1 second
-    }
-
-    private void stopNotifying() {
-        handler.removeCallbacks(notifyRunnable);
+        long time = System.currentTimeMillis();
+        publishSample(currentTime, time - offset, SampleObserver.UNIT_EPOCH_MILLIS, time, sequence++);
+        byte[] value = getCurrentTime();
+        currentTimeValue.publish(value);
+        notifyCharacteristicChanged(value, currentTime);
     }
 
     private byte[] getCurrentTime() {
@@ -103,8 +85,9 @@ class CurrentTimeService extends BaseService {
         date.setTime(date.getTime() - offset);
         cal.setTime(date);
         parser.setCurrentTime(cal);
-        Timber.i("current time bytes %s", BluetoothBytesParser.bytes2String(parser.getValue()));
-        return parser.getValue();
+        byte[] value = parser.getValue();
+        CURRENT_TIME_BYTES.log(HotLog.pack(value, 0), HotLog.pack(value, 8) >>> 48);
+        return value;
     }
 
     @Override
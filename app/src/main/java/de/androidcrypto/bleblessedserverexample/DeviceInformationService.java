@@ -14,8 +14,6 @@ import android.os.Build;
 
 import androidx.annotation.NonNull;
 
-import com.welie.blessed.BluetoothCentral;
-import com.welie.blessed.BluetoothPeripheralManager;
 import com.welie.blessed.GattStatus;
 import com.welie.blessed.ReadResponse;
 
@@ -23,11 +21,13 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.UUID;
 
-import timber.log.Timber;
-
 /**
  * this services is changed from the original server to accept a write command to the
  * MODEL_NUMBER_CHARACTERISTIC_UUID
+ *
+ * All values are served from a {@link ReadCache}, a read does not allocate. On the device blessed
+ * answers the Read Blob requests of a long read itself from the value of the first read, so only
+ * the full read runs there; the offset read serves the simulator and capture replay.
  */
 
 class DeviceInformationService extends BaseService {
@@ -35,14 +35,38 @@ class DeviceInformationService extends BaseService {
     public static final UUID DEVICE_INFORMATION_SERVICE_UUID = UUID.fromString("0000180A-0000-1000-8000-00805f9b34fb");
     public static final UUID MANUFACTURER_NAME_CHARACTERISTIC_UUID = UUID.fromString("00002A29-0000-1000-8000-00805f9b34fb");
     public static final UUID MODEL_NUMBER_CHARACTERISTIC_UUID = UUID.fromString("00002A24-0000-1000-8000-00805f9b34fb");
+    public static final UUID SERIAL_NUMBER_CHARACTERISTIC_UUID = UUID.fromString("00002A25-0000-1000-8000-00805f9b34fb");
+    public static final UUID HARDWARE_REVISION_CHARACTERISTIC_UUID = UUID.fromString("00002A27-0000-1000-8000-00805f9b34fb");
+    public static final UUID FIRMWARE_REVISION_CHARACTERISTIC_UUID = UUID.fromString("00002A26-0000-1000-8000-00805f9b34fb");
+    public static final UUID SOFTWARE_REVISION_CHARACTERISTIC_UUID = UUID.fromString("00002A28-0000-1000-8000-00805f9b34fb");
+    public static final UUID PNP_ID_CHARACTERISTIC_UUID = UUID.fromString("00002A50-0000-1000-8000-00805f9b34fb");
+
+    // PnP ID: vendor id source 0x01 = Bluetooth SIG company identifier, 0xFFFF is reserved for tests
+    static final int PNP_VENDOR_ID_SOURCE = 0x01;
+    static final int PNP_VENDOR_ID = 0xFFFF;
+    static final int PNP_PRODUCT_ID = 0x0001;
+    static final int PNP_PRODUCT_VERSION = 0x0100;
+    static final String SERIAL_NUMBER = "BBSE-0001";
+    static final String SOFTWARE_REVISION = "1.0";
+    // the longest attribute value ATT allows
+    static final int MAX_MODEL_NUMBER_LENGTH = 512;
+
+    private static final HotLog.Event MODEL_NUMBER_WRITTEN = HotLog.event(HotLog.INFO, "new model number written, %d bytes: %016x");
 
     private @NotNull final BluetoothGattService service = new BluetoothGattService(DEVICE_INFORMATION_SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
-    private byte[] newModel; // new
-
-    public DeviceInformationService(@NotNull BluetoothPeripheralManager peripheralManager) {
-        super(peripheralManager);
-
-        BluetoothGattCharacteristic manufacturer = new BluetoothGattCharacteristic(MANUFACTURER_NAME_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic manufacturer = new BluetoothGattCharacteristic(MANUFACTURER_NAME_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    // org: private @NotNull final BluetoothGattCharacteristic modelNumber = new BluetoothGattCharacteristic(MODEL_NUMBER_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic modelNumber = new BluetoothGattCharacteristic(MODEL_NUMBER_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_WRITE, PERMISSION_READ | PERMISSION_WRITE);
+    private @NotNull final BluetoothGattCharacteristic serialNumber = new BluetoothGattCharacteristic(SERIAL_NUMBER_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic hardwareRevision = new BluetoothGattCharacteristic(HARDWARE_REVISION_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic firmwareRevision = new BluetoothGattCharacteristic(FIRMWARE_REVISION_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic softwareRevision = new BluetoothGattCharacteristic(SOFTWARE_REVISION_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic pnpId = new BluetoothGattCharacteristic(PNP_ID_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
+    // all values are encoded once, a write of the model number swaps in a new table
+    private volatile @NotNull ReadCache values;
+
+    public DeviceInformationService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
 
         // see here: https://medium.com/rtone-iot-security/deep-dive-into-bluetooth-le-security-d2301d640bfc
 
@@ -53,38 +77,76 @@ class DeviceInformationService extends BaseService {
 
         service.addCharacteristic(manufacturer);
 
-        // org: BluetoothGattCharacteristic modelNumber = new BluetoothGattCharacteristic(MODEL_NUMBER_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
-        BluetoothGattCharacteristic modelNumber = new BluetoothGattCharacteristic(MODEL_NUMBER_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_WRITE, PERMISSION_READ | PERMISSION_WRITE);
         //PROPERTY_READ | PROPERTY_NOTIFY | PROPERTY_WRITE, PERMISSION_READ | PERMISSION_WRITE
         service.addCharacteristic(modelNumber);
+        service.addCharacteristic(serialNumber);
+        service.addCharacteristic(hardwareRevision);
+        service.addCharacteristic(firmwareRevision);
+        service.addCharacteristic(softwareRevision);
+        service.addCharacteristic(pnpId);
+
+        values = new ReadCache.Builder()
+                .put(manufacturer, Build.MANUFACTURER)
+                .put(modelNumber, Build.MODEL)
+                .put(serialNumber, SERIAL_NUMBER)
+                .put(hardwareRevision, Build.HARDWARE)
+                .put(firmwareRevision, Build.DISPLAY)
+                .put(softwareRevision, SOFTWARE_REVISION)
+                .put(pnpId, encodePnpId(PNP_VENDOR_ID_SOURCE, PNP_VENDOR_ID, PNP_PRODUCT_ID, PNP_PRODUCT_VERSION))
+                .build();
+    }
+
+    /**
+     * PnP ID (0x2A50): vendor id source (uint8), vendor id, product id, product version (uint16 each).
+     */
+    static byte[] encodePnpId(int vendorIdSource, int vendorId, int productId, int productVersion) {
+        return new byte[]{
+                (byte) vendorIdSource,
+                (byte) vendorId, (byte) (vendorId >> 8),
+                (byte) productId, (byte) (productId >> 8),
+                (byte) productVersion, (byte) (productVersion >> 8)
+        };
     }
 
     // new
     @Override
-    public GattStatus onCharacteristicWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic, byte[] value) {
-        newModel = value.clone();
+    public GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (characteristic != modelNumber) return GattStatus.WRITE_NOT_PERMITTED;
+        if (value.length > MAX_MODEL_NUMBER_LENGTH) return GattStatus.INVALID_ATTRIBUTE_VALUE_LENGTH;
+        // blessed hands over long writes reassembled, the value is copied once into the new table
+        values = values.with(modelNumber, value);
         return super.onCharacteristicWrite(central, characteristic, value);
     }
 
     // new
     @Override
-    public void onCharacteristicWriteCompleted(@NonNull BluetoothCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
-        System.out.println("* DeviceInformationService onCharacteristicWriteCompleted new model number written: " + new String(newModel) + " *");
+    public void onCharacteristicWriteCompleted(@NonNull GattCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        logModelNumber();
+    }
+
+    private void logModelNumber() {
+        byte[] value = getModelNumber();
+        MODEL_NUMBER_WRITTEN.log(value.length, HotLog.pack(value, 0));
+    }
+
+    /**
+     * @return the current model number (UTF-8), do not modify
+     */
+    @NotNull
+    byte[] getModelNumber() {
+        byte[] value = values.getValue(modelNumber);
+        return value != null ? value : new byte[0];
+    }
+
+    @Override
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        return onCharacteristicRead(central, characteristic, 0);
     }
 
     @Override
-    public ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(MANUFACTURER_NAME_CHARACTERISTIC_UUID)) {
-            return new ReadResponse(GattStatus.SUCCESS, Build.MANUFACTURER.getBytes());
-        } else if (characteristic.getUuid().equals(MODEL_NUMBER_CHARACTERISTIC_UUID)) {
-            // new for simulating write - here to a local variable
-            if (newModel != null) {
-                return new ReadResponse(GattStatus.SUCCESS, newModel);
-            } else {
-                return new ReadResponse(GattStatus.SUCCESS, Build.MODEL.getBytes());
-            }
-        }
-        return super.onCharacteristicRead(central, characteristic);
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, int offset) {
+        ReadResponse response = values.read(characteristic, offset);
+        return response != null ? response : super.onCharacteristicRead(central, characteristic);
     }
 
     @Override
@@ -1,57 +0,0 @@
-package de.androidcrypto.bleblessedserverexample;
-
-import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_READ;
-import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_READ;
-
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
-import android.os.Build;
-
-import com.welie.blessed.BluetoothCentral;
-import com.welie.blessed.BluetoothPeripheralManager;
-import com.welie.blessed.GattStatus;
-import com.welie.blessed.ReadResponse;
-
-import org.jetbrains.annotations.NotNull;
-
-import java.util.UUID;
-
-
-class DeviceInformationServiceOrg extends BaseService {
-
-    public static final UUID DEVICE_INFORMATION_SERVICE_UUID = UUID.fromString("0000180A-0000-1000-8000-00805f9b34fb");
-    public static final UUID MANUFACTURER_NAME_CHARACTERISTIC_UUID = UUID.fromString("00002A29-0000-1000-8000-00805f9b34fb");
-    public static final UUID MODEL_NUMBER_CHARACTERISTIC_UUID = UUID.fromString("00002A24-0000-1000-8000-00805f9b34fb");
-
-    private @NotNull final BluetoothGattService service = new BluetoothGattService(DEVICE_INFORMATION_SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
-
-    public DeviceInformationServiceOrg(@NotNull BluetoothPeripheralManager peripheralManager) {
-        super(peripheralManager);
-
-        BluetoothGattCharacteristic manufacturer = new BluetoothGattCharacteristic(MANUFACTURER_NAME_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
-        service.addCharacteristic(manufacturer);
-
-        BluetoothGattCharacteristic modelNumber = new BluetoothGattCharacteristic(MODEL_NUMBER_CHARACTERISTIC_UUID, PROPERTY_READ, PERMISSION_READ);
-        service.addCharacteristic(modelNumber);
-    }
-
-    @Override
-    public ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(MANUFACTURER_NAME_CHARACTERISTIC_UUID)) {
-            return new ReadResponse(GattStatus.SUCCESS, Build.MANUFACTURER.getBytes());
-        } else if (characteristic.getUuid().equals(MODEL_NUMBER_CHARACTERISTIC_UUID)) {
-            return new ReadResponse(GattStatus.SUCCESS, Build.MODEL.getBytes());
-        }
-        return super.onCharacteristicRead(central, characteristic);
-    }
-
-    @Override
-    public @NotNull BluetoothGattService getService() {
-        return service;
-    }
-
-    @Override
-    public String getServiceName() {
-        return "Device Information Service";
-    }
-}
@@ -0,0 +1,252 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Records the GATT traffic of the server, see {@link GattDispatcher#setCapture}: every incoming
+ * callback and every notification handed to the stack. {@link GattCaptureReader} reads it back.
+ *
+ * The capture is written to memory mapped segment files of a fixed size in its own directory
+ * (capture-000001.gattcap, ...). When a segment is full the next one is started and only the
+ * newest segments are kept. What was written survives a crash of the app, the kernel writes the
+ * mapped pages back.
+ *
+ * A segment starts with a header (little endian): the magic "GCAP", the version (uint16), the
+ * record header length (uint16) and the wall clock time the capture started (int64, ms since
+ * 1970-01-01 UTC). Records follow until a record type 0 or the end of the file:
+ * type (uint8), value length (uint16), time since the capture started (int64, ns), central
+ * address (6 bytes, 0 if none), attribute id (uint16, 0 if none), value.
+ * Attributes are referred to by an id that is defined by a {@link #DEFINE_CHARACTERISTIC} (value:
+ * characteristic UUID) or {@link #DEFINE_DESCRIPTOR} (value: characteristic and descriptor UUID)
+ * record before its first use in a segment, so every segment can be read on its own.
+ * UUIDs are stored as the most and then the least significant long.
+ */
+final class GattCapture implements Closeable {
+
+    static final int MAGIC = 0x50414347; // "GCAP" read as little endian int
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_LENGTH = 16;
+    static final int RECORD_HEADER_LENGTH = 19;
+    static final String SEGMENT_SUFFIX = ".gattcap";
+    static final int MIN_SEGMENT_BYTES = 64 * 1024;
+    static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    // record types
+    static final int END = 0;
+    static final int DEFINE_CHARACTERISTIC = 1;
+    static final int DEFINE_DESCRIPTOR = 2;
+    static final int CONNECTED = 3; // value: MTU (uint16)
+    static final int DISCONNECTED = 4;
+    static final int READ = 5;
+    static final int READ_BLOB = 6; // value: offset (uint16)
+    static final int WRITE = 7;
+    static final int WRITE_COMPLETED = 8;
+    static final int DESCRIPTOR_READ = 9;
+    static final int DESCRIPTOR_WRITE = 10;
+    static final int NOTIFYING_ENABLED = 11;
+    static final int NOTIFYING_DISABLED = 12;
+    static final int NOTIFICATION = 13; // outgoing
+
+    private static final HotLog.Event CAPTURE_FAILED = HotLog.event(HotLog.ERROR, "capture stopped, could not open segment %d");
+    private static final int MAX_DEFINITION_LENGTH = RECORD_HEADER_LENGTH + 32;
+
+    @NotNull
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    // guarded by this
+    private final ArrayDeque<File> segments = new ArrayDeque<>();
+    private final IdentityHashMap<Object, Integer> attributeIds = new IdentityHashMap<>();
+    private final byte[] scratch = new byte[2];
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+    private long recordCount;
+
+    GattCapture(@NotNull File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Starts a capture. A directory holds one capture, segments of an earlier capture are deleted.
+     *
+     * @param maxSegments number of segments that are kept, the oldest is deleted for a new one
+     */
+    GattCapture(@NotNull File directory, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes < MIN_SEGMENT_BYTES) throw new IllegalArgumentException("segments must have at least " + MIN_SEGMENT_BYTES + " bytes");
+        if (maxSegments < 1) throw new IllegalArgumentException("need at least one segment");
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("could not create " + directory);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        for (File old : GattCaptureReader.segments(directory)) {
+            if (!old.delete()) throw new IOException("could not delete " + old);
+        }
+        synchronized (this) {
+            openSegment();
+        }
+    }
+
+    void onCentralConnected(@NotNull GattCentral central) {
+        int mtu = central.getCurrentMtu();
+        synchronized (this) {
+            scratch[0] = (byte) mtu;
+            scratch[1] = (byte) (mtu >> 8);
+            append(CONNECTED, central, null, scratch, 2);
+        }
+    }
+
+    void onCentralDisconnected(@NotNull GattCentral central) {
+        append(DISCONNECTED, central, null, null, 0);
+    }
+
+    void onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        append(READ, central, characteristic, null, 0);
+    }
+
+    void onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, int offset) {
+        synchronized (this) {
+            scratch[0] = (byte) offset;
+            scratch[1] = (byte) (offset >> 8);
+            append(READ_BLOB, central, characteristic, scratch, 2);
+        }
+    }
+
+    void onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        append(WRITE, central, characteristic, value, value.length);
+    }
+
+    void onCharacteristicWriteCompleted(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        append(WRITE_COMPLETED, central, characteristic, value, value.length);
+    }
+
+    void onDescriptorRead(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor) {
+        append(DESCRIPTOR_READ, central, descriptor, null, 0);
+    }
+
+    void onDescriptorWrite(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor, @NotNull byte[] value) {
+        append(DESCRIPTOR_WRITE, central, descriptor, value, value.length);
+    }
+
+    void onNotifyingEnabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        append(NOTIFYING_ENABLED, central, characteristic, null, 0);
+    }
+
+    void onNotifyingDisabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        append(NOTIFYING_DISABLED, central, characteristic, null, 0);
+    }
+
+    void onNotification(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        append(NOTIFICATION, central, characteristic, value, value.length);
+    }
+
+    synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Stops the capture and writes the segment back, later records are ignored.
+     */
+    @Override
+    public synchronized void close() {
+        if (segment == null) return;
+        segment.force();
+        segment = null;
+    }
+
+    private synchronized void append(int type, @Nullable GattCentral central, @Nullable Object attribute, @Nullable byte[] value, int length) {
+        if (segment == null) return;
+        // room for a definition of the attribute as well, a new segment starts without definitions
+        if (segment.remaining() < MAX_DEFINITION_LENGTH + RECORD_HEADER_LENGTH + length) {
+            segment.force();
+            try {
+                openSegment();
+            } catch (IOException e) {
+                CAPTURE_FAILED.log(segmentNumber);
+                segment = null;
+                return;
+            }
+        }
+        int attributeId = attribute == null ? 0 : idOf(attribute);
+        long address = central == null ? 0 : ServerEventBus.macToLong(central.getAddress());
+        putHeader(type, length, address, attributeId);
+        if (length > 0) segment.put(value, 0, length);
+        recordCount++;
+    }
+
+    // called with the lock held, defines the attribute in the current segment on first use
+    private int idOf(@NotNull Object attribute) {
+        Integer id = attributeIds.get(attribute);
+        if (id != null) return id;
+        int newId = attributeIds.size() + 1;
+        attributeIds.put(attribute, newId);
+        if (attribute instanceof BluetoothGattCharacteristic) {
+            putHeader(DEFINE_CHARACTERISTIC, 16, 0, newId);
+            putUuid(((BluetoothGattCharacteristic) attribute).getUuid());
+        } else {
+            BluetoothGattDescriptor descriptor = (BluetoothGattDescriptor) attribute;
+            BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+            putHeader(DEFINE_DESCRIPTOR, 32, 0, newId);
+            putUuid(characteristic != null ? characteristic.getUuid() : new UUID(0, 0));
+            putUuid(descriptor.getUuid());
+        }
+        return newId;
+    }
+
+    private void putHeader(int type, int length, long address, int attributeId) {
+        segment.put((byte) type);
+        segment.putShort((short) length);
+        segment.putLong(System.nanoTime() - startNanos);
+        for (int i = 0; i < 6; i++) {
+            segment.put((byte) (address >> (8 * i)));
+        }
+        segment.putShort((short) attributeId);
+    }
+
+    private void putUuid(@NotNull UUID uuid) {
+        segment.putLong(uuid.getMostSignificantBits());
+        segment.putLong(uuid.getLeastSignificantBits());
+    }
+
+    // called with the lock held
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.US, "capture-%06d%s", ++segmentNumber, SEGMENT_SUFFIX));
+        MappedByteBuffer mapped;
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            // a new file reads as zeros, i.e. END, behind the last record
+            output.setLength(segmentBytes);
+            mapped = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.putInt(MAGIC);
+        mapped.putShort((short) VERSION);
+        mapped.putShort((short) RECORD_HEADER_LENGTH);
+        mapped.putLong(startMillis);
+        segment = mapped;
+        attributeIds.clear();
+        segments.addLast(file);
+        while (segments.size() > maxSegments) {
+            File oldest = segments.removeFirst();
+            //noinspection ResultOfMethodCallIgnored
+            oldest.delete();
+        }
+    }
+}
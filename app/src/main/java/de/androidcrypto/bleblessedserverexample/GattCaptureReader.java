@@ -0,0 +1,171 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads a capture written by {@link GattCapture}, segment by segment and in the order it was
+ * recorded. The attribute definitions are resolved, {@link #next()} only stops at traffic records.
+ */
+final class GattCaptureReader {
+
+    @NotNull
+    private final File[] files;
+    // attribute id of the current segment to characteristic UUID and descriptor UUID (null for a characteristic)
+    private final Map<Integer, UUID[]> attributes = new HashMap<>();
+    private MappedByteBuffer segment;
+    private int fileIndex;
+    private long startMillis;
+
+    private int type;
+    private long timeNanos;
+    private long address;
+    @Nullable
+    private UUID[] attribute;
+    @NotNull
+    private byte[] value = new byte[0];
+
+    GattCaptureReader(@NotNull File directory) throws IOException {
+        this.files = segments(directory);
+        if (files.length == 0) throw new IOException("no capture in " + directory);
+    }
+
+    /**
+     * @return the segment files of the capture in a directory, oldest first
+     */
+    @NotNull
+    static File[] segments(@NotNull File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("capture-") && name.endsWith(GattCapture.SEGMENT_SUFFIX));
+        if (files == null) return new File[0];
+        // the number is zero padded, the names sort in the order the segments were written
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false at the end of the capture
+     */
+    boolean next() throws IOException {
+        while (true) {
+            if (segment == null || segment.remaining() < GattCapture.RECORD_HEADER_LENGTH || segment.get(segment.position()) == GattCapture.END) {
+                if (fileIndex == files.length) return false;
+                openSegment(files[fileIndex++]);
+                continue;
+            }
+            int recordType = segment.get() & 0xFF;
+            int length = segment.getShort() & 0xFFFF;
+            long time = segment.getLong();
+            long recordAddress = 0;
+            for (int i = 0; i < 6; i++) {
+                recordAddress |= (segment.get() & 0xFFL) << (8 * i);
+            }
+            int attributeId = segment.getShort() & 0xFFFF;
+            if (length > segment.remaining()) throw new IOException("truncated record in " + files[fileIndex - 1]);
+
+            if (recordType == GattCapture.DEFINE_CHARACTERISTIC) {
+                attributes.put(attributeId, new UUID[]{getUuid(), null});
+                continue;
+            } else if (recordType == GattCapture.DEFINE_DESCRIPTOR) {
+                attributes.put(attributeId, new UUID[]{getUuid(), getUuid()});
+                continue;
+            }
+            type = recordType;
+            timeNanos = time;
+            address = recordAddress;
+            attribute = attributeId == 0 ? null : attributes.get(attributeId);
+            if (attributeId != 0 && attribute == null) throw new IOException("undefined attribute " + attributeId + " in " + files[fileIndex - 1]);
+            // a new array per record, the services may keep written values
+            value = new byte[length];
+            segment.get(value);
+            return true;
+        }
+    }
+
+    /**
+     * @return wall clock time the capture started, ms since 1970-01-01 UTC
+     */
+    long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return one of the record types of {@link GattCapture}
+     */
+    int getType() {
+        return type;
+    }
+
+    /**
+     * @return time since the capture started
+     */
+    long getTimeNanos() {
+        return timeNanos;
+    }
+
+    @NotNull
+    String getAddress() {
+        return ServerEventBus.macToString(address);
+    }
+
+    /**
+     * @return the UUID of the characteristic, or the characteristic of the descriptor, null for connection records
+     */
+    @Nullable
+    UUID getCharacteristicUuid() {
+        return attribute == null ? null : attribute[0];
+    }
+
+    /**
+     * @return the UUID of the descriptor, null for records of characteristics
+     */
+    @Nullable
+    UUID getDescriptorUuid() {
+        return attribute == null ? null : attribute[1];
+    }
+
+    @NotNull
+    byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return the uint16 value of CONNECTED (the MTU) and READ_BLOB (the offset) records
+     */
+    int getValueUint16() {
+        return value.length < 2 ? 0 : (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+    }
+
+    private UUID getUuid() {
+        return new UUID(segment.getLong(), segment.getLong());
+    }
+
+    private void openSegment(@NotNull File file) throws IOException {
+        MappedByteBuffer mapped;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            mapped = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.remaining() < GattCapture.SEGMENT_HEADER_LENGTH || mapped.getInt() != GattCapture.MAGIC) {
+            throw new IOException(file + " is not a capture segment");
+        }
+        if ((mapped.getShort() & 0xFFFF) != GattCapture.VERSION || (mapped.getShort() & 0xFFFF) != GattCapture.RECORD_HEADER_LENGTH) {
+            throw new IOException(file + " has an unsupported capture format");
+        }
+        startMillis = mapped.getLong();
+        segment = mapped;
+        attributes.clear();
+    }
+}
@@ -0,0 +1,18 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A connected central as the services see it. On the phone this wraps a blessed BluetoothCentral
+ * (see {@link BlessedGattPeripheral}), in a JVM load test it is a virtual central.
+ */
+interface GattCentral {
+
+    @NotNull
+    String getAddress();
+
+    /**
+     * @return the negotiated ATT MTU, 23 if nothing was negotiated
+     */
+    int getCurrentMtu();
+}
@@ -0,0 +1,71 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Immutable index from every characteristic and descriptor of the registered services to the
+ * Service that handles it. It is built once when the services are set up; the platform hands the
+ * same characteristic and descriptor objects back in every callback, so a lookup is an identity
+ * lookup and never hashes or compares UUIDs.
+ */
+final class GattDispatchTable {
+
+    static final GattDispatchTable EMPTY = new GattDispatchTable(Collections.<Service>emptyList());
+
+    private final Service[] services;
+    private final Map<BluetoothGattCharacteristic, Service> characteristicHandlers = new IdentityHashMap<>();
+    private final Map<BluetoothGattDescriptor, Service> descriptorHandlers = new IdentityHashMap<>();
+
+    GattDispatchTable(@NotNull List<? extends Service> serviceImplementations) {
+        this.services = serviceImplementations.toArray(new Service[0]);
+        for (Service serviceImplementation : services) {
+            BluetoothGattService service = serviceImplementation.getService();
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                characteristicHandlers.put(characteristic, serviceImplementation);
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    descriptorHandlers.put(descriptor, serviceImplementation);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    Service forCharacteristic(@NotNull BluetoothGattCharacteristic characteristic) {
+        return characteristicHandlers.get(characteristic);
+    }
+
+    @Nullable
+    Service forDescriptor(@NotNull BluetoothGattDescriptor descriptor) {
+        return descriptorHandlers.get(descriptor);
+    }
+
+    /**
+     * @return all services in registration order, do not modify
+     */
+    @NotNull
+    Service[] services() {
+        return services;
+    }
+
+    /**
+     * Resolves a characteristic by UUID. Only meant for setting up references, not for the callback path.
+     */
+    @Nullable
+    BluetoothGattCharacteristic findCharacteristic(@NotNull UUID uuid) {
+        for (BluetoothGattCharacteristic characteristic : characteristicHandlers.keySet()) {
+            if (characteristic.getUuid().equals(uuid)) return characteristic;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,204 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Routes the GATT server callbacks to the services, independent of the Bluetooth stack.
+ * BluetoothServer feeds it from the blessed callback, a JVM load test feeds it from virtual centrals.
+ */
+class GattDispatcher {
+
+    @NotNull
+    private final GattDispatchTable dispatchTable;
+    @NotNull
+    private final NotificationQueue notificationQueue;
+    @NotNull
+    private final SubscriptionRegistry subscriptions;
+    @NotNull
+    private final ServerMetrics metrics;
+    @Nullable
+    private volatile GattCapture capture;
+
+    GattDispatcher(@NotNull List<? extends Service> serviceImplementations, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this(serviceImplementations, notificationQueue, subscriptions, new ServerMetrics());
+    }
+
+    GattDispatcher(@NotNull List<? extends Service> serviceImplementations, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull ServerMetrics metrics) {
+        this.dispatchTable = new GattDispatchTable(serviceImplementations);
+        this.notificationQueue = Objects.requireNonNull(notificationQueue);
+        this.subscriptions = Objects.requireNonNull(subscriptions);
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * @return all services in registration order, do not modify
+     */
+    @NotNull
+    Service[] services() {
+        return dispatchTable.services();
+    }
+
+    /**
+     * Records all callbacks and the notifications sent from now on, null stops recording.
+     * The capture is not closed here.
+     */
+    void setCapture(@Nullable GattCapture capture) {
+        this.capture = capture;
+        notificationQueue.setCapture(capture);
+    }
+
+    /**
+     * Resolves a characteristic by UUID. Only meant for setting up references, not for the callback path.
+     */
+    @Nullable
+    BluetoothGattCharacteristic findCharacteristic(@NotNull UUID uuid) {
+        return dispatchTable.findCharacteristic(uuid);
+    }
+
+    @NotNull
+    ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        metrics.of(characteristic).reads.increment();
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onCharacteristicRead(central, characteristic);
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            return serviceImplementation.onCharacteristicRead(central, characteristic);
+        }
+        return new ReadResponse(GattStatus.REQUEST_NOT_SUPPORTED, null);
+    }
+
+    /**
+     * Read at an offset (ATT Read Blob). blessed answers long reads itself from the value of the
+     * first read, stacks that pass the offset through call this.
+     */
+    @NotNull
+    ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, int offset) {
+        metrics.of(characteristic).reads.increment();
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onCharacteristicRead(central, characteristic, offset);
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            return serviceImplementation.onCharacteristicRead(central, characteristic, offset);
+        }
+        return new ReadResponse(GattStatus.REQUEST_NOT_SUPPORTED, null);
+    }
+
+    @NotNull
+    GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        metrics.of(characteristic).writes.increment();
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onCharacteristicWrite(central, characteristic, value);
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            return serviceImplementation.onCharacteristicWrite(central, characteristic, value);
+        }
+        return GattStatus.REQUEST_NOT_SUPPORTED;
+    }
+
+    void onCharacteristicWriteCompleted(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onCharacteristicWriteCompleted(central, characteristic, value);
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            serviceImplementation.onCharacteristicWriteCompleted(central, characteristic, value);
+        }
+    }
+
+    @NotNull
+    ReadResponse onDescriptorRead(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onDescriptorRead(central, descriptor);
+        Service serviceImplementation = dispatchTable.forDescriptor(descriptor);
+        if (serviceImplementation != null) {
+            return serviceImplementation.onDescriptorRead(central, descriptor);
+        }
+        return new ReadResponse(GattStatus.REQUEST_NOT_SUPPORTED, null);
+    }
+
+    @NotNull
+    GattStatus onDescriptorWrite(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor, @NotNull byte[] value) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onDescriptorWrite(central, descriptor, value);
+        Service serviceImplementation = dispatchTable.forDescriptor(descriptor);
+        if (serviceImplementation != null) {
+            return serviceImplementation.onDescriptorWrite(central, descriptor, value);
+        }
+        return GattStatus.REQUEST_NOT_SUPPORTED;
+    }
+
+    /**
+     * Records the subscription, which starts the producers of the characteristic for the first
+     * subscriber, then informs the service.
+     */
+    void onNotifyingEnabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onNotifyingEnabled(central, characteristic);
+        subscriptions.subscribe(central, characteristic, SubscriptionRegistry.modeOf(characteristic));
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            serviceImplementation.onNotifyingEnabled(central, characteristic);
+        }
+    }
+
+    void onNotifyingDisabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onNotifyingDisabled(central, characteristic);
+        subscriptions.unsubscribe(central, characteristic);
+        notificationQueue.onNotifyingDisabled(central, characteristic);
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            serviceImplementation.onNotifyingDisabled(central, characteristic);
+        }
+    }
+
+    /**
+     * Informs the service and then releases the notification queue of the central. The value array
+     * belongs to the queue and is recycled as soon as the next value is sent, so callers must be
+     * done with it before calling this.
+     */
+    void onNotificationSent(@NotNull GattCentral central, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
+        ServerMetrics.CharacteristicMetrics characteristicMetrics = metrics.of(characteristic);
+        if (status == GattStatus.SUCCESS) {
+            characteristicMetrics.notificationsSent.increment();
+            characteristicMetrics.bytesSent.add(value.length);
+        } else {
+            characteristicMetrics.notificationsFailed.increment();
+        }
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        if (serviceImplementation != null) {
+            serviceImplementation.onNotificationSent(central, value, characteristic, status);
+        }
+        notificationQueue.onNotificationSent(central, characteristic);
+    }
+
+    void onCentralConnected(@NotNull GattCentral central) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onCentralConnected(central);
+        metrics.onCentralConnected();
+        for (Service serviceImplementation : dispatchTable.services()) {
+            serviceImplementation.onCentralConnected(central);
+        }
+    }
+
+    void onCentralDisconnected(@NotNull GattCentral central) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onCentralDisconnected(central);
+        metrics.onCentralDisconnected();
+        notificationQueue.onCentralDisconnected(central);
+        subscriptions.unsubscribeAll(central);
+        for (Service serviceImplementation : dispatchTable.services()) {
+            serviceImplementation.onCentralDisconnected(central);
+        }
+    }
+}
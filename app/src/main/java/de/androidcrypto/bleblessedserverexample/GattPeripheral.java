@@ -0,0 +1,38 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * The part of the peripheral manager the services and the notification queue depend on.
+ *
+ * Characteristics are still described with the android.bluetooth data classes, they only hold
+ * UUIDs, properties and descriptors. Everything that needs the Bluetooth stack goes through this
+ * interface, so the services can run against {@link BlessedGattPeripheral} on the phone and against
+ * an in-memory stand-in on the JVM.
+ */
+interface GattPeripheral {
+
+    /**
+     * Sends one notification or indication to one central. The outcome is reported with
+     * {@link GattDispatcher#onNotificationSent}.
+     *
+     * @return false if the value could not be handed to the stack
+     */
+    boolean notifyCharacteristicChanged(@NotNull byte[] value, @NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic);
+
+    @NotNull
+    Collection<? extends GattCentral> getConnectedCentrals();
+
+    /**
+     * Hands a service to the stack, which adds one service at a time. The outcome is reported with
+     * {@link ServiceStartup#onServiceAdded}.
+     *
+     * @return false if the stack did not take the service
+     */
+    boolean addService(@NotNull BluetoothGattService service);
+}
@@ -0,0 +1,159 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encoder for the Heart Rate Measurement characteristic (0x2A37).
+ *
+ * Layout (little endian):
+ * flags (uint8), heart rate (uint8 or uint16), energy expended (uint16 kJ, optional),
+ * RR-intervals (uint16 in 1/1024 s, optional, as many as fit).
+ *
+ * The encoder keeps one buffer per payload length and hands that buffer out from
+ * {@link #encode()}, so a stream of measurements with the same layout does not allocate.
+ * The returned array is only valid until the next call of encode; the notification queue copies it.
+ * Not thread safe, every characteristic owns its own encoder.
+ */
+final class HeartRateMeasurementEncoder {
+
+    static final int FLAG_VALUE_FORMAT_UINT16 = 0x01;
+    static final int FLAG_SENSOR_CONTACT_DETECTED = 0x02;
+    static final int FLAG_SENSOR_CONTACT_SUPPORTED = 0x04;
+    static final int FLAG_ENERGY_EXPENDED_PRESENT = 0x08;
+    static final int FLAG_RR_INTERVAL_PRESENT = 0x10;
+
+    static final int DEFAULT_MAX_PAYLOAD_SIZE = 20; // default ATT MTU of 23 minus the 3 byte notification header
+    static final int MAX_ENERGY_EXPENDED = 0xFFFF;
+    private static final int MAX_PENDING_RR_INTERVALS = 64;
+
+    private final int maxPayloadSize;
+    private final byte[][] buffers;
+    private final int[] pendingRrIntervals = new int[MAX_PENDING_RR_INTERVALS];
+    private int pendingRrHead;
+    private int pendingRrCount;
+    private int heartRate;
+    private boolean forceUint16;
+    private boolean sensorContactSupported;
+    private boolean sensorContactDetected;
+    private int energyExpended = -1;
+
+    HeartRateMeasurementEncoder() {
+        this(DEFAULT_MAX_PAYLOAD_SIZE);
+    }
+
+    HeartRateMeasurementEncoder(int maxPayloadSize) {
+        if (maxPayloadSize < 2) throw new IllegalArgumentException("payload must hold at least flags and heart rate");
+        this.maxPayloadSize = maxPayloadSize;
+        this.buffers = new byte[maxPayloadSize + 1][];
+    }
+
+    /**
+     * @param heartRate beats per minute, values above 255 are sent as UINT16
+     */
+    HeartRateMeasurementEncoder setHeartRate(int heartRate) {
+        if (heartRate < 0 || heartRate > 0xFFFF) throw new IllegalArgumentException("heart rate out of range");
+        this.heartRate = heartRate;
+        return this;
+    }
+
+    /**
+     * Always send the heart rate as UINT16, even when it fits in one byte.
+     */
+    HeartRateMeasurementEncoder setForceUint16(boolean forceUint16) {
+        this.forceUint16 = forceUint16;
+        return this;
+    }
+
+    HeartRateMeasurementEncoder setSensorContact(boolean supported, boolean detected) {
+        this.sensorContactSupported = supported;
+        this.sensorContactDetected = supported && detected;
+        return this;
+    }
+
+    /**
+     * Includes the accumulated energy in the next measurement only. The value saturates at 0xFFFF kJ.
+     */
+    HeartRateMeasurementEncoder setEnergyExpended(int kiloJoules) {
+        this.energyExpended = Math.max(0, Math.min(kiloJoules, MAX_ENERGY_EXPENDED));
+        return this;
+    }
+
+    /**
+     * Queues an RR-interval. Intervals are sent oldest first, as many as fit in a measurement; the rest
+     * go with the next one. If more than 64 intervals are waiting the oldest are discarded.
+     *
+     * @param rrInterval interval in 1/1024 seconds
+     */
+    HeartRateMeasurementEncoder addRrInterval(int rrInterval) {
+        int value = Math.max(0, Math.min(rrInterval, 0xFFFF));
+        if (pendingRrCount == MAX_PENDING_RR_INTERVALS) {
+            pendingRrHead = (pendingRrHead + 1) % MAX_PENDING_RR_INTERVALS;
+            pendingRrCount--;
+        }
+        pendingRrIntervals[(pendingRrHead + pendingRrCount) % MAX_PENDING_RR_INTERVALS] = value;
+        pendingRrCount++;
+        return this;
+    }
+
+    int getPendingRrIntervalCount() {
+        return pendingRrCount;
+    }
+
+    /**
+     * Encodes the current state into the reusable buffer of the resulting length.
+     * The energy expended value and the RR-intervals that were written are consumed.
+     */
+    @NotNull
+    byte[] encode() {
+        boolean uint16 = forceUint16 || heartRate > 0xFF;
+        boolean withEnergy = energyExpended >= 0;
+        int length = 1 + (uint16 ? 2 : 1) + (withEnergy ? 2 : 0);
+        int rrCount = Math.min(pendingRrCount, (maxPayloadSize - length) / 2);
+        length += rrCount * 2;
+
+        byte[] buffer = buffers[length];
+        if (buffer == null) {
+            buffer = new byte[length];
+            buffers[length] = buffer;
+        }
+
+        int flags = 0;
+        if (uint16) flags |= FLAG_VALUE_FORMAT_UINT16;
+        if (sensorContactSupported) flags |= FLAG_SENSOR_CONTACT_SUPPORTED;
+        if (sensorContactDetected) flags |= FLAG_SENSOR_CONTACT_DETECTED;
+        if (withEnergy) flags |= FLAG_ENERGY_EXPENDED_PRESENT;
+        if (rrCount > 0) flags |= FLAG_RR_INTERVAL_PRESENT;
+
+        int offset = 0;
+        buffer[offset++] = (byte) flags;
+        buffer[offset++] = (byte) heartRate;
+        if (uint16) buffer[offset++] = (byte) (heartRate >> 8);
+        if (withEnergy) {
+            buffer[offset++] = (byte) energyExpended;
+            buffer[offset++] = (byte) (energyExpended >> 8);
+            energyExpended = -1;
+        }
+        for (int i = 0; i < rrCount; i++) {
+            int rr = pendingRrIntervals[pendingRrHead];
+            pendingRrHead = (pendingRrHead + 1) % MAX_PENDING_RR_INTERVALS;
+            buffer[offset++] = (byte) rr;
+            buffer[offset++] = (byte) (rr >> 8);
+        }
+        pendingRrCount -= rrCount;
+        return buffer;
+    }
+
+    /**
+     * Reads the heart rate from an encoded measurement without allocating.
+     *
+     * @return beats per minute, or -1 if the value is too short
+     */
+    static int decodeHeartRate(@NotNull byte[] value) {
+        if (value.length < 2) return -1;
+        if ((value[0] & FLAG_VALUE_FORMAT_UINT16) == 0) {
+            return value[1] & 0xFF;
+        }
+        if (value.length < 3) return -1;
+        return (value[1] & 0xFF) | ((value[2] & 0xFF) << 8);
+    }
+}
@@ -8,79 +8,83 @@ import static android.bluetooth.BluetoothGattService.SERVICE_TYPE_PRIMARY;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
-import android.os.Handler;
-import android.os.Looper;
 
-import com.welie.blessed.BluetoothCentral;
-import com.welie.blessed.BluetoothPeripheralManager;
-import com.welie.blessed.GattStatus;
 import com.welie.blessed.ReadResponse;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Objects;
 import java.util.UUID;
 
-import timber.log.Timber;
-
 class HeartRateService extends BaseService {
 
     public static final UUID HEART_BEAT_RATE_SERVICE_UUID = UUID.fromString("0000180D-0000-1000-8000-00805f9b34fb");
     public static final UUID HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID = UUID.fromString("00002A37-0000-1000-8000-00805f9b34fb");
 
+    static final int PERIOD_MILLIS = 1000;
+
+    private static final HotLog.Event NEW_HEART_RATE = HotLog.event(HotLog.INFO, "new hr: %d");
+
     private @NotNull final BluetoothGattService service = new BluetoothGattService(HEART_BEAT_RATE_SERVICE_UUID, SERVICE_TYPE_PRIMARY);
     // uses indication private @NotNull final BluetoothGattCharacteristic measurement = new BluetoothGattCharacteristic(HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_NOTIFY, PERMISSION_READ);
     // uses indicate
     private @NotNull final BluetoothGattCharacteristic measurement = new BluetoothGattCharacteristic(HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_INDICATE, PERMISSION_READ);
-    private @NotNull final Handler handler = new Handler(Looper.getMainLooper());
-    private @NotNull final Runnable notifyRunnable = this::notifyHeartRate;
-    private int currentHR = 80;
+    private @NotNull final HeartRateMeasurementEncoder encoder = new HeartRateMeasurementEncoder();
+    // the latest measurement for reads, published by the producer
+    private @NotNull final VersionedValue measurementValue = new VersionedValue(new byte[]{0x00, 0x40});
+    private @NotNull final SampleSource source;
+    private int currentHR;
+    private int energyExpendedJoules;
+    private int tick;
+    private long sequence;
+
+    public HeartRateService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this(peripheral, scheduler, notificationQueue, subscriptions, defaultSource());
+    }
 
-    public HeartRateService(@NotNull BluetoothPeripheralManager peripheralManager) {
-        super(peripheralManager);
+    /**
+     * @param source heart rate in beats per minute
+     */
+    HeartRateService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull SampleSource source) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
+        this.source = Objects.requireNonNull(source);
         service.addCharacteristic(measurement);
         measurement.addDescriptor(getCccDescriptor());
+        configureNotifications(measurement, 1, NotificationQueue.OverflowPolicy.COALESCE_LATEST);
+        registerProducer(PERIOD_MILLIS, this::notifyHeartRate, measurement); // every second a new value
+        encoder.setSensorContact(true, true);
     }
 
-    @Override
-    public void onCentralDisconnected(@NotNull BluetoothCentral central) {
-        if (noCentralsConnected()) {
-            stopNotifying();
-        }
+    // a random walk between 40 and 120 bpm, the same one in every run
+    @NotNull
+    static SampleSource defaultSource() {
+        return Waveforms.randomWalk(0x180D, 80, 5, PERIOD_MILLIS, 40, 120);
     }
 
     @Override
-    public ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            return new ReadResponse(GattStatus.SUCCESS, new byte[]{0x00, 0x40});
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        if (characteristic == measurement) {
+            return measurementValue.read();
         }
         return super.onCharacteristicRead(central, characteristic);
     }
 
-    @Override
-    public void onNotifyingEnabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            notifyHeartRate();
-        }
-    }
-
-    @Override
-    public void onNotifyingDisabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            stopNotifying();
-        }
-    }
-
     private void notifyHeartRate() {
-        currentHR += (int) ((Math.random() * 10) - 5);
-        if (currentHR > 120) currentHR = 100;
-        final byte[] value = new byte[]{0x00, (byte) currentHR};
+        // the uint8 format of the encoder only carries 0..255 bpm
+        currentHR = (int) Math.max(1, Math.min(255, Math.round(source.valueAt(sequence * PERIOD_MILLIS * 1_000_000L))));
+        encoder.setHeartRate(currentHR);
+        // one beat interval per second in 1/1024 s, the encoder sends as many as fit
+        encoder.addRrInterval(60 * 1024 / currentHR);
+        // rough estimate of the energy expended, the spec suggests sending it only every 10th measurement
+        energyExpendedJoules += currentHR * 10;
+        if (++tick % 10 == 0) {
+            encoder.setEnergyExpended(energyExpendedJoules / 1000);
+        }
+        publishSample(measurement, currentHR, SampleObserver.UNIT_BEATS_PER_MINUTE, System.currentTimeMillis(), sequence++);
+        byte[] value = encoder.encode();
+        measurementValue.publish(value);
         notifyCharacteristicChanged(value, measurement);
-        handler.postDelayed(notifyRunnable, 1000); // every second a new value
-        Timber.i("new hr: %d", currentHR);
-    }
-
-    private void stopNotifying() {
-        handler.removeCallbacks(notifyRunnable);
+        NEW_HEART_RATE.log(currentHR);
     }
 
     @Override
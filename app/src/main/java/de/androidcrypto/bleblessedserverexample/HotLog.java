@@ -0,0 +1,210 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import timber.log.Timber;
+
+/**
+ * Logging for the GATT callback and producer threads.
+ *
+ * An event is declared once with its level and format string, see {@link #event}. Logging it
+ * stores the event id, the time and up to two long arguments in a preallocated ring; nothing is
+ * formatted and nothing is allocated on the calling thread. A background thread formats new
+ * entries in batches and hands them to Timber, and {@link #dump} formats the entries still in the
+ * ring, e.g. for a bug report. Logging an event below the minimum level is a single comparison.
+ * The background thread sleeps while nothing new is recorded; the first entry after that wakes it.
+ *
+ * The ring keeps the latest {@link #CAPACITY} entries. When the background thread falls that far
+ * behind, the overwritten entries are counted as lost instead of being printed.
+ */
+final class HotLog {
+
+    // the priorities of android.util.Log
+    static final int VERBOSE = 2;
+    static final int DEBUG = 3;
+    static final int INFO = 4;
+    static final int WARN = 5;
+    static final int ERROR = 6;
+    static final int OFF = Integer.MAX_VALUE;
+
+    static final int CAPACITY = 2048;
+    // entries recorded within this time after the first one are formatted in one round
+    private static final long FORMAT_INTERVAL_MILLIS = 250;
+
+    // per entry: time, event id, first argument, second argument
+    private static final int SLOT_LONGS = 4;
+    private static final int MASK = CAPACITY - 1;
+    private static final AtomicLongArray slots = new AtomicLongArray(CAPACITY * SLOT_LONGS);
+    // position of the entry in a slot, -1 while it is written
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong cursor = new AtomicLong();
+    private static final List<Event> events = new ArrayList<>();
+    private static volatile Event[] eventsById = new Event[0];
+    private static volatile int minLevel = INFO;
+    private static long formatted; // background thread only
+    private static final AtomicLong lostCount = new AtomicLong();
+    private static final Thread formatter = new Thread(HotLog::formatLoop, "HotLog");
+    // set while the background thread is parked with everything formatted
+    private static volatile boolean formatterIdle;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, -1);
+        }
+        formatter.setDaemon(true);
+        formatter.setPriority(Thread.MIN_PRIORITY);
+        formatter.start();
+    }
+
+    private HotLog() {
+    }
+
+    /**
+     * A kind of log entry. Declare events as static final fields, the format string takes the
+     * arguments as longs (%d, %x, ...).
+     */
+    static final class Event {
+        final int id;
+        final int level;
+        @NotNull
+        final String format;
+
+        private Event(int id, int level, @NotNull String format) {
+            this.id = id;
+            this.level = level;
+            this.format = format;
+        }
+
+        void log() {
+            if (level < minLevel) return;
+            record(this, 0, 0);
+        }
+
+        void log(long argument) {
+            if (level < minLevel) return;
+            record(this, argument, 0);
+        }
+
+        void log(long first, long second) {
+            if (level < minLevel) return;
+            record(this, first, second);
+        }
+    }
+
+    @NotNull
+    static synchronized Event event(int level, @NotNull String format) {
+        Event event = new Event(events.size(), level, format);
+        events.add(event);
+        eventsById = events.toArray(new Event[0]);
+        return event;
+    }
+
+    /**
+     * Events below this level are not recorded, {@link #OFF} disables the log.
+     */
+    static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    /**
+     * Packs up to 8 bytes of a value into a long (first byte highest) for logging with %016x.
+     */
+    static long pack(@NotNull byte[] value, int offset) {
+        long packed = 0;
+        for (int i = 0; i < 8; i++) {
+            int index = offset + i;
+            packed = (packed << 8) | (index < value.length ? value[index] & 0xFF : 0);
+        }
+        return packed;
+    }
+
+    static long getLostCount() {
+        return lostCount.get();
+    }
+
+    /**
+     * Formats the entries that are still in the ring, oldest first.
+     */
+    static void dump(@NotNull StringBuilder into) {
+        long end = cursor.get();
+        Event[] event = new Event[1];
+        for (long position = Math.max(0, end - CAPACITY); position < end; position++) {
+            String line = format(position, event);
+            if (line != null) into.append(line).append('\n');
+        }
+    }
+
+    private static void record(Event event, long first, long second) {
+        long position = cursor.getAndIncrement();
+        int slot = (int) (position & MASK);
+        int base = slot * SLOT_LONGS;
+        sequences.set(slot, -1);
+        slots.lazySet(base, System.nanoTime());
+        slots.lazySet(base + 1, event.id);
+        slots.lazySet(base + 2, first);
+        slots.lazySet(base + 3, second);
+        sequences.set(slot, position);
+        if (formatterIdle) {
+            formatterIdle = false;
+            LockSupport.unpark(formatter);
+        }
+    }
+
+    // null if the entry was overwritten or is being written, else the event is stored in eventOut[0]
+    private static String format(long position, Event[] eventOut) {
+        int slot = (int) (position & MASK);
+        int base = slot * SLOT_LONGS;
+        if (sequences.get(slot) != position) return null;
+        long timeNanos = slots.get(base);
+        long id = slots.get(base + 1);
+        long first = slots.get(base + 2);
+        long second = slots.get(base + 3);
+        if (sequences.get(slot) != position) return null;
+
+        Event[] byId = eventsById;
+        if (id < 0 || id >= byId.length) return null;
+        Event event = byId[(int) id];
+        eventOut[0] = event;
+        String message = String.format(Locale.US, event.format, first, second);
+        return String.format(Locale.US, "%d.%03d %s", timeNanos / 1_000_000_000L, timeNanos / 1_000_000L % 1000, message);
+    }
+
+    private static void formatLoop() {
+        Event[] event = new Event[1];
+        while (true) {
+            if (cursor.get() == formatted) {
+                formatterIdle = true;
+                // an entry recorded before the flag was set is seen here, one recorded after it unparks
+                if (cursor.get() == formatted) LockSupport.park();
+                formatterIdle = false;
+            }
+            try {
+                Thread.sleep(FORMAT_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long end = cursor.get();
+            if (end - formatted > CAPACITY) {
+                lostCount.addAndGet(end - CAPACITY - formatted);
+                formatted = end - CAPACITY;
+            }
+            for (; formatted < end; formatted++) {
+                String line = format(formatted, event);
+                if (line == null) {
+                    // a writer that has not finished yet is picked up in the next round
+                    if (sequences.get((int) (formatted & MASK)) == -1) break;
+                    lostCount.incrementAndGet();
+                    continue;
+                }
+                Timber.log(event[0].level, "%s", line);
+            }
+        }
+    }
+}
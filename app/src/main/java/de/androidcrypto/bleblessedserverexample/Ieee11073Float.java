@@ -0,0 +1,173 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encoder and decoder for the IEEE-11073 20601 FLOAT (32 bit) and SFLOAT (16 bit) formats that
+ * are used by the health related GATT characteristics, e.g. the Temperature Measurement (0x2A1C).
+ *
+ * FLOAT: 24 bit signed mantissa, 8 bit signed base 10 exponent.
+ * SFLOAT: 12 bit signed mantissa, 4 bit signed base 10 exponent.
+ * Both are written little endian straight into a caller supplied buffer, nothing is allocated.
+ */
+final class Ieee11073Float {
+
+    static final int FLOAT_NAN = 0x007FFFFF;
+    static final int FLOAT_NRES = 0x00800000;
+    static final int FLOAT_POSITIVE_INFINITY = 0x007FFFFE;
+    static final int FLOAT_NEGATIVE_INFINITY = 0x00800002;
+    static final int FLOAT_RESERVED = 0x00800001;
+
+    static final int SFLOAT_NAN = 0x07FF;
+    static final int SFLOAT_NRES = 0x0800;
+    static final int SFLOAT_POSITIVE_INFINITY = 0x07FE;
+    static final int SFLOAT_NEGATIVE_INFINITY = 0x0802;
+    static final int SFLOAT_RESERVED = 0x0801;
+
+    private static final int FLOAT_MANTISSA_MAX = 0x007FFFFD;
+    private static final int FLOAT_MANTISSA_MIN = -FLOAT_MANTISSA_MAX;
+    private static final int FLOAT_EXPONENT_MAX = 127;
+    private static final int FLOAT_EXPONENT_MIN = -128;
+    private static final int SFLOAT_MANTISSA_MAX = 0x07FD;
+    private static final int SFLOAT_MANTISSA_MIN = -SFLOAT_MANTISSA_MAX;
+    private static final int SFLOAT_EXPONENT_MAX = 7;
+    private static final int SFLOAT_EXPONENT_MIN = -8;
+
+    // exact powers of ten, doubles represent all of them without rounding
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private Ieee11073Float() {
+    }
+
+    /**
+     * Writes a FLOAT with the given number of decimal places, e.g. 36.55 with precision 2 is sent
+     * as mantissa 3655 and exponent -2. If the mantissa does not fit, decimal places are dropped.
+     *
+     * @return offset behind the written 4 bytes
+     */
+    static int writeFloat(@NotNull byte[] buffer, int offset, double value, int precision) {
+        int bits = toFloatBits(value, precision);
+        buffer[offset] = (byte) bits;
+        buffer[offset + 1] = (byte) (bits >> 8);
+        buffer[offset + 2] = (byte) (bits >> 16);
+        buffer[offset + 3] = (byte) (bits >> 24);
+        return offset + 4;
+    }
+
+    /**
+     * Writes an SFLOAT with the given number of decimal places, see {@link #writeFloat}.
+     *
+     * @return offset behind the written 2 bytes
+     */
+    static int writeSFloat(@NotNull byte[] buffer, int offset, double value, int precision) {
+        int bits = toSFloatBits(value, precision);
+        buffer[offset] = (byte) bits;
+        buffer[offset + 1] = (byte) (bits >> 8);
+        return offset + 2;
+    }
+
+    static double readFloat(@NotNull byte[] buffer, int offset) {
+        int bits = (buffer[offset] & 0xFF)
+                | ((buffer[offset + 1] & 0xFF) << 8)
+                | ((buffer[offset + 2] & 0xFF) << 16)
+                | ((buffer[offset + 3] & 0xFF) << 24);
+        return fromFloatBits(bits);
+    }
+
+    static double readSFloat(@NotNull byte[] buffer, int offset) {
+        int bits = (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+        return fromSFloatBits(bits);
+    }
+
+    static int toFloatBits(double value, int precision) {
+        if (Double.isNaN(value)) return FLOAT_NAN;
+        if (value == Double.POSITIVE_INFINITY) return FLOAT_POSITIVE_INFINITY;
+        if (value == Double.NEGATIVE_INFINITY) return FLOAT_NEGATIVE_INFINITY;
+        long mantissa = scale(value, precision);
+        int exponent = -precision;
+        while ((mantissa > FLOAT_MANTISSA_MAX || mantissa < FLOAT_MANTISSA_MIN) && exponent < FLOAT_EXPONENT_MAX) {
+            mantissa = divideRounded(mantissa);
+            exponent++;
+        }
+        if (mantissa > FLOAT_MANTISSA_MAX) return FLOAT_POSITIVE_INFINITY;
+        if (mantissa < FLOAT_MANTISSA_MIN) return FLOAT_NEGATIVE_INFINITY;
+        if (exponent < FLOAT_EXPONENT_MIN) return FLOAT_NRES;
+        return ((exponent & 0xFF) << 24) | ((int) mantissa & 0xFFFFFF);
+    }
+
+    static int toSFloatBits(double value, int precision) {
+        if (Double.isNaN(value)) return SFLOAT_NAN;
+        if (value == Double.POSITIVE_INFINITY) return SFLOAT_POSITIVE_INFINITY;
+        if (value == Double.NEGATIVE_INFINITY) return SFLOAT_NEGATIVE_INFINITY;
+        long mantissa = scale(value, precision);
+        int exponent = -precision;
+        while ((mantissa > SFLOAT_MANTISSA_MAX || mantissa < SFLOAT_MANTISSA_MIN) && exponent < SFLOAT_EXPONENT_MAX) {
+            mantissa = divideRounded(mantissa);
+            exponent++;
+        }
+        if (mantissa > SFLOAT_MANTISSA_MAX) return SFLOAT_POSITIVE_INFINITY;
+        if (mantissa < SFLOAT_MANTISSA_MIN) return SFLOAT_NEGATIVE_INFINITY;
+        if (exponent < SFLOAT_EXPONENT_MIN) return SFLOAT_NRES;
+        return ((exponent & 0x0F) << 12) | ((int) mantissa & 0x0FFF);
+    }
+
+    static double fromFloatBits(int bits) {
+        int mantissa = bits & 0xFFFFFF;
+        switch (mantissa) {
+            case FLOAT_POSITIVE_INFINITY:
+                return Double.POSITIVE_INFINITY;
+            case FLOAT_NEGATIVE_INFINITY:
+                return Double.NEGATIVE_INFINITY;
+            case FLOAT_NAN:
+            case FLOAT_NRES:
+            case FLOAT_RESERVED:
+                return Double.NaN;
+        }
+        mantissa = (mantissa << 8) >> 8; // sign extend 24 bit
+        int exponent = bits >> 24;
+        return applyExponent(mantissa, exponent);
+    }
+
+    static double fromSFloatBits(int bits) {
+        int mantissa = bits & 0x0FFF;
+        switch (mantissa) {
+            case SFLOAT_POSITIVE_INFINITY:
+                return Double.POSITIVE_INFINITY;
+            case SFLOAT_NEGATIVE_INFINITY:
+                return Double.NEGATIVE_INFINITY;
+            case SFLOAT_NAN:
+            case SFLOAT_NRES:
+            case SFLOAT_RESERVED:
+                return Double.NaN;
+        }
+        mantissa = (mantissa << 20) >> 20; // sign extend 12 bit
+        int exponent = (bits << 16) >> 28; // sign extend 4 bit
+        return applyExponent(mantissa, exponent);
+    }
+
+    private static long scale(double value, int precision) {
+        if (precision >= 0) {
+            return Math.round(value * powerOfTen(precision));
+        }
+        return Math.round(value / powerOfTen(-precision));
+    }
+
+    // dividing the exact integer by an exact power of ten gives the correctly rounded double
+    private static double applyExponent(int mantissa, int exponent) {
+        if (exponent >= 0) {
+            return mantissa * powerOfTen(exponent);
+        }
+        return mantissa / powerOfTen(-exponent);
+    }
+
+    private static double powerOfTen(int exponent) {
+        return exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent] : Math.pow(10, exponent);
+    }
+
+    private static long divideRounded(long mantissa) {
+        return mantissa >= 0 ? (mantissa + 5) / 10 : (mantissa - 5) / 10;
+    }
+}
@@ -4,11 +4,9 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
 import android.os.Build;
@@ -18,11 +16,16 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.switchmaterial.SwitchMaterial;
 
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import timber.log.Timber;
 
@@ -30,11 +33,17 @@ public class MainActivity extends AppCompatActivity {
 
     /* Local UI */
     SwitchMaterial bluetoothEnabled, advertisingActive, deviceConnected;
-    com.google.android.material.textfield.TextInputEditText connectionLog, currentTime, heartBeatRate, modelName;
+    com.google.android.material.textfield.TextInputEditText currentTime, heartBeatRate, modelName;
+    RecyclerView connectionLogView;
+    private LinearLayoutManager connectionLogLayout;
+    private final ConnectionLogAdapter connectionLog = new ConnectionLogAdapter(new ConnectionLog(ConnectionLog.DEFAULT_CAPACITY));
 
     private static final int REQUEST_ENABLE_BT = 1;
     private static final int ACCESS_LOCATION_REQUEST = 2;
 
+    private BluetoothServer bluetoothServer;
+    private SimpleDateFormat currentTimeFormat;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -43,18 +52,17 @@ public class MainActivity extends AppCompatActivity {
         bluetoothEnabled = findViewById(R.id.swMainBleEnabled);
         advertisingActive = findViewById(R.id.swMainAdvertisingActive);
         deviceConnected = findViewById(R.id.swMainDeviceConnected);
-        connectionLog = findViewById(R.id.etMainConnectionLog);
+        connectionLogView = findViewById(R.id.rvMainConnectionLog);
+        connectionLogLayout = new LinearLayoutManager(this);
+        connectionLogView.setLayoutManager(connectionLogLayout);
+        connectionLogView.setAdapter(connectionLog);
         currentTime = findViewById(R.id.etMainCurrentTime);
         heartBeatRate = findViewById(R.id.etMainHeartBeatRate);
         modelName = findViewById(R.id.etMainModelName);
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
-        registerReceiver(advertiserStateReceiver, new IntentFilter((BluetoothServer.BLUETOOTH_HANDLER_ADVERTISER)));
-        registerReceiver(connectionStateReceiver, new IntentFilter((BluetoothServer.BLUETOOTH_HANDLER_CONNECTION)));
-        registerReceiver(currentTimeStateReceiver, new IntentFilter((BluetoothServer.BLUETOOTH_HANDLER_CURRENT_TIME)));
-        registerReceiver(heartBeatRateStateReceiver, new IntentFilter((BluetoothServer.BLUETOOTH_HANDLER_HEART_BEAT_RATE)));
-        registerReceiver(modelNameStateReceiver, new IntentFilter((BluetoothServer.BLUETOOTH_HANDLER_MODEL_NAME)));
+        currentTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
     }
 
     @SuppressLint("MissingPermission")
@@ -75,11 +83,9 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        unregisterReceiver(advertiserStateReceiver);
-        unregisterReceiver(connectionStateReceiver);
-        unregisterReceiver(currentTimeStateReceiver);
-        unregisterReceiver(heartBeatRateStateReceiver);
-        unregisterReceiver(modelNameStateReceiver);
+        if (bluetoothServer != null) {
+            bluetoothServer.getEventBus().unsubscribe(serverEventListener);
+        }
     }
 
     private boolean isBluetoothEnabled() {
@@ -203,65 +209,46 @@ public class MainActivity extends AppCompatActivity {
 
     private void initBluetoothHandler()
     {
-        BluetoothServer.getInstance(getApplicationContext());
+        bluetoothServer = BluetoothServer.getInstance(getApplicationContext());
+        bluetoothServer.getEventBus().subscribe(serverEventListener);
     }
 
     /**
-     * section for broadcast
+     * section for server events, delivered on the main thread at most once per frame
      */
 
-    private final BroadcastReceiver advertiserStateReceiver = new BroadcastReceiver() {
+    private final ServerEventBus.Listener serverEventListener = new ServerEventBus.Listener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String advertiserStatus = intent.getStringExtra(BluetoothServer.BLUETOOTH_HANDLER_ADVERTISER_EXTRA);
-            if (advertiserStatus == null) return;
-            if (advertiserStatus.equals("ON")) {
-                advertisingActive.setChecked(true);
-            } else {
-                advertisingActive.setChecked(false);
+        public void onServerEvent(int type, long value, Object payload) {
+            switch (type) {
+                case ServerEventBus.ADVERTISING:
+                    advertisingActive.setChecked(value != 0);
+                    break;
+                case ServerEventBus.CENTRAL_CONNECTED:
+                    deviceConnected.setChecked(true);
+                    appendConnectionLog(type, value);
+                    break;
+                case ServerEventBus.CENTRAL_DISCONNECTED:
+                    deviceConnected.setChecked(false);
+                    appendConnectionLog(type, value);
+                    break;
+                case ServerEventBus.CURRENT_TIME:
+                    currentTime.setText(currentTimeFormat.format(value));
+                    break;
+                case ServerEventBus.HEART_RATE:
+                    heartBeatRate.setText(String.valueOf(value));
+                    break;
+                case ServerEventBus.MODEL_NAME:
+                    modelName.setText(new String(bluetoothServer.getModelNumber(), StandardCharsets.UTF_8));
+                    break;
             }
         }
     };
 
-    private final BroadcastReceiver connectionStateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String connectionStatus = intent.getStringExtra(BluetoothServer.BLUETOOTH_HANDLER_CONNECTION_EXTRA);
-            if (connectionStatus == null) return;
-            if (connectionStatus.contains("connected")) {
-                deviceConnected.setChecked(true);
-            } else {
-                deviceConnected.setChecked(false);
-            }
-            String newConnectionLog = connectionStatus + "\n" + connectionLog.getText().toString();
-            connectionLog.setText(newConnectionLog);
-        }
-    };
-
-    private final BroadcastReceiver currentTimeStateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String currentTimeStatus = intent.getStringExtra(BluetoothServer.BLUETOOTH_HANDLER_CURRENT_TIME_EXTRA);
-            if (currentTimeStatus == null) return;
-            currentTime.setText(currentTimeStatus);
-        }
-    };
-
-    private final BroadcastReceiver heartBeatRateStateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String heartBeatRateStatus = intent.getStringExtra(BluetoothServer.BLUETOOTH_HANDLER_HEART_BEAT_RATE_EXTRA);
-            if (heartBeatRateStatus == null) return;
-            heartBeatRate.setText(heartBeatRateStatus);
-        }
-    };
-
-    private final BroadcastReceiver modelNameStateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String dataStatus = intent.getStringExtra(BluetoothServer.BLUETOOTH_HANDLER_MODEL_NAME_EXTRA);
-            if (dataStatus == null) return;
-            modelName.setText(dataStatus);
-        }
-    };
-}
\ No newline at end of file
+    private void appendConnectionLog(int type, long address) {
+        // follow the newest entry only if the user has not scrolled down into the history
+        boolean atTop = connectionLogLayout.findFirstVisibleItemPosition() <= 0;
+        connectionLog.add(System.currentTimeMillis(), type, address);
+        if (atTop) connectionLogView.scrollToPosition(0);
+    }
+}
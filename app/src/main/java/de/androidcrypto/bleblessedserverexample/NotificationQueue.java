@@ -0,0 +1,399 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded outbound queue for notifications and indications.
+ *
+ * There is one lane per central and per characteristic. A lane has at most one value in flight
+ * in the Bluetooth stack; the next value is only handed to the peripheral manager after
+ * onNotificationSent was received for the previous one. Values waiting in a lane are copied into
+ * buffers owned by the lane, so producers may reuse their own buffers. When a lane is full the
+ * {@link OverflowPolicy} of the characteristic decides what happens to the new value.
+ * Every value carries the time it was queued, the latency until its onNotificationSent is recorded
+ * in the {@link ServerMetrics}.
+ */
+class NotificationQueue {
+
+    enum OverflowPolicy {
+        /**
+         * replace the newest waiting value, a slow central always gets the latest value
+         */
+        COALESCE_LATEST,
+        /**
+         * discard the oldest waiting value to make room for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * block the producer until the lane has room again (or the block timeout expires)
+         */
+        BLOCK,
+        /**
+         * refuse the new value, enqueue returns false; for values that must not be lost, whose
+         * producer keeps within the capacity and can tell the central otherwise
+         */
+        REJECT
+    }
+
+    static final int DEFAULT_CAPACITY = 4;
+    static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 1000;
+
+    private static final HotLog.Event NOT_SENT = HotLog.event(HotLog.WARN, "could not send notification to %012x");
+
+    @NotNull
+    private final GattPeripheral peripheral;
+    @NotNull
+    private final ServerMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Map<BluetoothGattCharacteristic, Config> configs = new IdentityHashMap<>();
+    private final Map<String, Map<BluetoothGattCharacteristic, Lane>> lanes = new HashMap<>();
+    private final Config defaultConfig = new Config(DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    private final long blockTimeoutNanos;
+    private int totalDepth;
+    private long droppedCount;
+    private long failedCount;
+    @Nullable
+    private volatile GattCapture capture;
+
+    NotificationQueue(@NotNull GattPeripheral peripheral) {
+        this(peripheral, new ServerMetrics());
+    }
+
+    NotificationQueue(@NotNull GattPeripheral peripheral, @NotNull ServerMetrics metrics) {
+        this(peripheral, DEFAULT_BLOCK_TIMEOUT_MILLIS, metrics);
+    }
+
+    NotificationQueue(@NotNull GattPeripheral peripheral, long blockTimeoutMillis, @NotNull ServerMetrics metrics) {
+        this.peripheral = Objects.requireNonNull(peripheral);
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.metrics = Objects.requireNonNull(metrics);
+        metrics.setQueueDepthGauge(this::getTotalDepth);
+    }
+
+    /**
+     * Records every value handed to the peripheral, null stops recording.
+     */
+    void setCapture(@Nullable GattCapture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * Sets the number of values that may wait per central for this characteristic (not counting
+     * the one in flight) and what to do when that number is exceeded.
+     */
+    void configure(@NotNull BluetoothGattCharacteristic characteristic, int capacity, @NotNull OverflowPolicy policy) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        lock.lock();
+        try {
+            configs.put(characteristic, new Config(capacity, Objects.requireNonNull(policy)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a value for one central. The value is copied, the caller keeps ownership of the array.
+     *
+     * @return false if the value was dropped
+     */
+    boolean enqueue(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        byte[] toSend = null;
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Lane lane = getLane(central.getAddress(), characteristic);
+            if (!lane.busy) {
+                lane.busy = true;
+                toSend = lane.takeInFlightBuffer(value, now);
+            } else if (lane.count < lane.config.capacity) {
+                lane.add(value, now);
+            } else {
+                switch (lane.config.policy) {
+                    case COALESCE_LATEST:
+                        lane.replaceNewest(value, now);
+                        break;
+                    case DROP_OLDEST:
+                        lane.dropOldest();
+                        lane.add(value, now);
+                        droppedCount++;
+                        break;
+                    case BLOCK:
+                        if (!awaitSpace(lane) || !isAttached(central.getAddress(), characteristic, lane)) {
+                            droppedCount++;
+                            return false;
+                        }
+                        if (lane.busy) {
+                            lane.add(value, now);
+                        } else {
+                            lane.busy = true;
+                            toSend = lane.takeInFlightBuffer(value, now);
+                        }
+                        break;
+                    case REJECT:
+                        droppedCount++;
+                        return false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (toSend != null) {
+            send(central, characteristic, toSend);
+        }
+        return true;
+    }
+
+    /**
+     * Releases the lane of the central for this characteristic and sends the next waiting value, if any.
+     */
+    void onNotificationSent(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        release(central, characteristic, true);
+    }
+
+    private void release(GattCentral central, BluetoothGattCharacteristic characteristic, boolean acknowledged) {
+        byte[] toSend;
+        long queuedAtNanos;
+        lock.lock();
+        try {
+            Map<BluetoothGattCharacteristic, Lane> centralLanes = lanes.get(central.getAddress());
+            Lane lane = centralLanes != null ? centralLanes.get(characteristic) : null;
+            if (lane == null) return;
+            queuedAtNanos = lane.inFlightQueuedAtNanos;
+            toSend = lane.pollIntoInFlight();
+            lane.busy = toSend != null;
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (acknowledged) {
+            metrics.of(characteristic).notificationLatency.record(System.nanoTime() - queuedAtNanos);
+        }
+        if (toSend != null) {
+            send(central, characteristic, toSend);
+        }
+    }
+
+    /**
+     * Discards the values waiting for a central that switched off notifications on the characteristic.
+     * A value already in flight is still acknowledged by the stack.
+     */
+    void onNotifyingDisabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        lock.lock();
+        try {
+            Map<BluetoothGattCharacteristic, Lane> centralLanes = lanes.get(central.getAddress());
+            Lane lane = centralLanes != null ? centralLanes.get(characteristic) : null;
+            if (lane == null) return;
+            totalDepth -= lane.count;
+            lane.count = 0;
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards everything queued for a central that went away.
+     */
+    void onCentralDisconnected(@NotNull GattCentral central) {
+        lock.lock();
+        try {
+            Map<BluetoothGattCharacteristic, Lane> centralLanes = lanes.remove(central.getAddress());
+            if (centralLanes == null) return;
+            for (Lane lane : centralLanes.values()) {
+                totalDepth -= lane.count;
+                lane.count = 0;
+                lane.busy = false;
+            }
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of values waiting for this central and characteristic, not counting the one in flight
+     */
+    int getDepth(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        lock.lock();
+        try {
+            Map<BluetoothGattCharacteristic, Lane> centralLanes = lanes.get(central.getAddress());
+            Lane lane = centralLanes != null ? centralLanes.get(characteristic) : null;
+            return lane != null ? lane.count : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getTotalDepth() {
+        lock.lock();
+        try {
+            return totalDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getFailedCount() {
+        lock.lock();
+        try {
+            return failedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void send(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        GattCapture capture = this.capture;
+        if (capture != null) capture.onNotification(central, characteristic, value);
+        if (!peripheral.notifyCharacteristicChanged(value, central, characteristic)) {
+            NOT_SENT.log(ServerEventBus.macToLong(central.getAddress()));
+            lock.lock();
+            try {
+                failedCount++;
+            } finally {
+                lock.unlock();
+            }
+            metrics.of(characteristic).notificationsFailed.increment();
+            // nothing will be acknowledged for this value, so release the lane ourselves
+            release(central, characteristic, false);
+        }
+    }
+
+    // called with the lock held
+    private boolean awaitSpace(Lane lane) {
+        long remaining = blockTimeoutNanos;
+        try {
+            while (lane.busy && lane.count >= lane.config.capacity) {
+                if (remaining <= 0) return false;
+                remaining = spaceAvailable.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // called with the lock held, false if the central disconnected while the producer was blocked
+    private boolean isAttached(String address, BluetoothGattCharacteristic characteristic, Lane lane) {
+        Map<BluetoothGattCharacteristic, Lane> centralLanes = lanes.get(address);
+        return centralLanes != null && centralLanes.get(characteristic) == lane;
+    }
+
+    // called with the lock held
+    private Lane getLane(String address, BluetoothGattCharacteristic characteristic) {
+        Map<BluetoothGattCharacteristic, Lane> centralLanes = lanes.get(address);
+        if (centralLanes == null) {
+            centralLanes = new IdentityHashMap<>();
+            lanes.put(address, centralLanes);
+        }
+        Lane lane = centralLanes.get(characteristic);
+        if (lane == null) {
+            Config config = configs.get(characteristic);
+            lane = new Lane(config != null ? config : defaultConfig);
+            centralLanes.put(characteristic, lane);
+        }
+        return lane;
+    }
+
+    private static final class Config {
+        final int capacity;
+        final OverflowPolicy policy;
+
+        Config(int capacity, OverflowPolicy policy) {
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Ring of waiting values plus the buffer that is currently in flight. Buffers are recycled
+     * between the ring and the in-flight slot, so a steady stream of equally sized values
+     * does not allocate.
+     */
+    private final class Lane {
+        final Config config;
+        final byte[][] slots;
+        final long[] queuedAtNanos;
+        byte[] inFlight;
+        long inFlightQueuedAtNanos;
+        int head;
+        int count;
+        boolean busy;
+
+        Lane(Config config) {
+            this.config = config;
+            this.slots = new byte[config.capacity][];
+            this.queuedAtNanos = new long[config.capacity];
+        }
+
+        void add(byte[] value, long nowNanos) {
+            int index = (head + count) % slots.length;
+            slots[index] = copyInto(slots[index], value);
+            queuedAtNanos[index] = nowNanos;
+            count++;
+            totalDepth++;
+        }
+
+        void replaceNewest(byte[] value, long nowNanos) {
+            int index = (head + count - 1) % slots.length;
+            slots[index] = copyInto(slots[index], value);
+            queuedAtNanos[index] = nowNanos;
+        }
+
+        void dropOldest() {
+            head = (head + 1) % slots.length;
+            count--;
+            totalDepth--;
+        }
+
+        byte[] takeInFlightBuffer(byte[] value, long nowNanos) {
+            inFlight = copyInto(inFlight, value);
+            inFlightQueuedAtNanos = nowNanos;
+            return inFlight;
+        }
+
+        byte[] pollIntoInFlight() {
+            if (count == 0) return null;
+            // swap the oldest waiting buffer with the released in-flight buffer
+            byte[] next = slots[head];
+            slots[head] = inFlight;
+            inFlight = next;
+            inFlightQueuedAtNanos = queuedAtNanos[head];
+            head = (head + 1) % slots.length;
+            count--;
+            totalDepth--;
+            return inFlight;
+        }
+
+        private byte[] copyInto(byte[] target, byte[] value) {
+            if (target == null || target.length != value.length) {
+                target = new byte[value.length];
+            }
+            System.arraycopy(value, 0, target, 0, value.length);
+            return target;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import timber.log.Timber;
+
+/**
+ * Runs the periodic notification producers of all services on one dedicated thread.
+ *
+ * Producers are scheduled at a fixed rate: every deadline is computed from the previous
+ * deadline and not from the end of the previous run, so the period does not drift.
+ * All deadlines are aligned to a common grid that starts when the scheduler is created,
+ * which means producers with the same (or a multiple of the same) period are due at the
+ * same moment and are run in a single wakeup. Producers that are due within
+ * the coalescing window of the earliest deadline are run in that same wakeup as well.
+ */
+class NotificationScheduler {
+
+    static final long DEFAULT_COALESCE_WINDOW_MILLIS = 10;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final List<Producer> producers = new ArrayList<>();
+    private final List<Producer> due = new ArrayList<>();
+    private final long epochNanos = System.nanoTime();
+    private final long coalesceWindowNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    NotificationScheduler() {
+        this(DEFAULT_COALESCE_WINDOW_MILLIS);
+    }
+
+    NotificationScheduler(long coalesceWindowMillis) {
+        this.coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalesceWindowMillis);
+        this.thread = new Thread(this::loop, "NotificationScheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Registers a periodic producer. The producer does not run until {@link Producer#start()} is called.
+     */
+    @NotNull
+    Producer register(@NotNull String name, long periodMillis, @NotNull Runnable task) {
+        if (periodMillis <= 0) throw new IllegalArgumentException("period must be positive");
+        Producer producer = new Producer(name, TimeUnit.MILLISECONDS.toNanos(periodMillis), Objects.requireNonNull(task));
+        lock.lock();
+        try {
+            producers.add(producer);
+        } finally {
+            lock.unlock();
+        }
+        return producer;
+    }
+
+    void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void loop() {
+        while (running) {
+            lock.lock();
+            try {
+                long earliest = Long.MAX_VALUE;
+                for (Producer producer : producers) {
+                    if (producer.startRequested) producer.activate();
+                    if (producer.active && producer.nextDeadlineNanos < earliest) {
+                        earliest = producer.nextDeadlineNanos;
+                    }
+                }
+                long now = System.nanoTime();
+                if (earliest == Long.MAX_VALUE) {
+                    changed.await();
+                    continue;
+                }
+                if (earliest - now > 0) {
+                    changed.awaitNanos(earliest - now);
+                    continue;
+                }
+                // run everything that is due now or within the coalescing window
+                long horizon = now + coalesceWindowNanos;
+                for (Producer producer : producers) {
+                    if (producer.active && producer.nextDeadlineNanos - horizon <= 0) {
+                        producer.advance(now);
+                        due.add(producer);
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (!running) return;
+                continue;
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < due.size(); i++) {
+                due.get(i).run();
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * Handle of a registered periodic task.
+     */
+    class Producer {
+        private final String name;
+        private long periodNanos;
+        private final Runnable task;
+        private boolean active;
+        // set without the lock by requestStart, taken over by the next scheduler pass
+        private volatile boolean startRequested;
+        private long nextDeadlineNanos;
+        private long missedTicks;
+
+        private Producer(String name, long periodNanos, Runnable task) {
+            this.name = name;
+            this.periodNanos = periodNanos;
+            this.task = task;
+        }
+
+        /**
+         * Runs the task as soon as possible and then at the fixed rate on the scheduler grid.
+         * Starting a producer that is already running has no effect.
+         */
+        void start() {
+            lock.lock();
+            try {
+                activate();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Like {@link #start()}, but never waits for the scheduler lock, so it may be called on the
+         * GATT callback thread. When the lock is busy the start is left to the next scheduler pass.
+         *
+         * @return false if the start is only requested, the scheduler may be waiting for a later
+         * deadline and see it late; call again to make sure
+         */
+        boolean requestStart() {
+            startRequested = true;
+            if (!lock.tryLock()) return false;
+            try {
+                activate();
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        }
+
+        // called with the lock held
+        private void activate() {
+            startRequested = false;
+            if (active) return;
+            active = true;
+            nextDeadlineNanos = System.nanoTime();
+            changed.signal();
+        }
+
+        void stop() {
+            lock.lock();
+            try {
+                active = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Changes the period. A running producer runs once as soon as possible and then at the new rate.
+         */
+        void setPeriod(long periodMillis) {
+            if (periodMillis <= 0) throw new IllegalArgumentException("period must be positive");
+            lock.lock();
+            try {
+                periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+                if (active) {
+                    nextDeadlineNanos = System.nanoTime();
+                    changed.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isRunning() {
+            lock.lock();
+            try {
+                return active;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getMissedTicks() {
+            lock.lock();
+            try {
+                return missedTicks;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // called with the lock held: moves the deadline to the next grid point after the
+        // current one, skipping (and counting) ticks that could not be served in time
+        private void advance(long now) {
+            long base = Math.max(now, nextDeadlineNanos);
+            long behind = (now - nextDeadlineNanos) / periodNanos;
+            if (behind > 0) missedTicks += behind;
+            nextDeadlineNanos = epochNanos + ((base - epochNanos) / periodNanos + 1) * periodNanos;
+        }
+
+        private void run() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Timber.e(e, "producer %s failed", name);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Immutable table of pre-encoded characteristic values for characteristics whose value does not
+ * change between reads, e.g. the Device Information Service.
+ *
+ * Every value is encoded once and its ReadResponse is built once, so a read does not allocate.
+ * Reads at an offset (ATT Read Blob) are answered with a slice of the encoded value; each slice
+ * is built on first use and kept, as long reads always ask for the same offsets. blessed answers
+ * Read Blob itself on the device, so offsets only reach the table in the simulator and capture
+ * replay, through GattDispatcher; the slices are not even allocated until then.
+ * Changing a value creates a new table, see {@link #with}.
+ */
+final class ReadCache {
+
+    private static final ReadResponse EMPTY = new ReadResponse(GattStatus.SUCCESS, new byte[0]);
+    private static final ReadResponse INVALID_OFFSET = new ReadResponse(GattStatus.INVALID_OFFSET, null);
+
+    private final Map<BluetoothGattCharacteristic, Entry> entries;
+
+    private ReadCache(Map<BluetoothGattCharacteristic, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return the response for the characteristic, or null if the table has no value for it
+     */
+    @Nullable
+    ReadResponse read(@NotNull BluetoothGattCharacteristic characteristic, int offset) {
+        Entry entry = entries.get(characteristic);
+        return entry != null ? entry.read(offset) : null;
+    }
+
+    /**
+     * @return the encoded value, do not modify
+     */
+    @Nullable
+    byte[] getValue(@NotNull BluetoothGattCharacteristic characteristic) {
+        Entry entry = entries.get(characteristic);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * @return a copy of this table with one value replaced, the value is copied; this table if the
+     * value does not change
+     */
+    @NotNull
+    ReadCache with(@NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        Entry current = entries.get(characteristic);
+        if (current != null && Arrays.equals(current.value, value)) return this;
+        Map<BluetoothGattCharacteristic, Entry> copy = new IdentityHashMap<>(entries);
+        copy.put(characteristic, new Entry(value.clone()));
+        return new ReadCache(copy);
+    }
+
+    static final class Builder {
+        private final Map<BluetoothGattCharacteristic, Entry> entries = new IdentityHashMap<>();
+
+        Builder put(@NotNull BluetoothGattCharacteristic characteristic, @NotNull String value) {
+            return put(characteristic, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * The builder takes ownership of the array.
+         */
+        Builder put(@NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+            entries.put(characteristic, new Entry(value));
+            return this;
+        }
+
+        @NotNull
+        ReadCache build() {
+            return new ReadCache(new IdentityHashMap<>(entries));
+        }
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final ReadResponse full;
+        // slices by offset, built on first use; a lost race only builds an equal slice twice
+        ReadResponse[] slices;
+
+        Entry(byte[] value) {
+            this.value = value;
+            this.full = new ReadResponse(GattStatus.SUCCESS, value);
+        }
+
+        ReadResponse read(int offset) {
+            if (offset == 0) return full;
+            if (offset == value.length) return EMPTY;
+            if (offset < 0 || offset > value.length) return INVALID_OFFSET;
+            ReadResponse[] slices = this.slices;
+            if (slices == null) {
+                slices = new ReadResponse[value.length];
+                this.slices = slices;
+            }
+            ReadResponse slice = slices[offset];
+            if (slice == null) {
+                slice = new ReadResponse(GattStatus.SUCCESS, Arrays.copyOfRange(value, offset, value.length));
+                slices[offset] = slice;
+            }
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the values of the producers as they are generated, before they are encoded for the radio.
+ *
+ * Called on the producer thread (the scheduler thread) with primitive arguments only, an observer
+ * must return quickly and must not block. Observers that need the value on another thread hand it
+ * over themselves, e.g. through the {@link ServerEventBus}.
+ */
+interface SampleObserver {
+
+    int UNIT_NONE = 0;
+    int UNIT_BEATS_PER_MINUTE = 1;
+    int UNIT_DEGREES_FAHRENHEIT = 2;
+    int UNIT_EPOCH_MILLIS = 3; // milliseconds since 1970-01-01 UTC
+
+    /**
+     * @param characteristic the characteristic the value is sent on
+     * @param unit           one of the UNIT_ constants
+     * @param timeMillis     time the value was generated, milliseconds since 1970-01-01 UTC
+     * @param sequence       counts the values of the characteristic, starting with 0
+     */
+    void onSample(@NotNull BluetoothGattCharacteristic characteristic, double value, int unit, long timeMillis, long sequence);
+}
@@ -0,0 +1,19 @@
+package de.androidcrypto.bleblessedserverexample;
+
+/**
+ * Where a producer gets its measurements from, see {@link Waveforms} for synthetic signals and
+ * {@link TraceReplaySource} for recorded data.
+ *
+ * A source is a function of time. The producer passes the time on its own clock, i.e. the number
+ * of values it produced times their interval, so a run with the same source produces the same
+ * values no matter how late the scheduler wakes up. The time passed in never goes backwards.
+ * A source is used by one producer thread only and does not need to be thread safe.
+ */
+interface SampleSource {
+
+    /**
+     * @param elapsedNanos time since the producer started
+     * @return the value at that time
+     */
+    double valueAt(long elapsedNanos);
+}
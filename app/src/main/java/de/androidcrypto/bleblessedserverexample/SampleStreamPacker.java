@@ -0,0 +1,149 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Packs a stream of sint16 samples into notifications that are as large as the ATT MTU of each
+ * central allows.
+ *
+ * Frame layout (little endian):
+ * sequence number (uint16, per central, wraps), sample count (uint8), samples (sint16 each).
+ * The sequence number counts frames; a central that falls so far behind that samples are
+ * overwritten sees a skipped sequence number.
+ *
+ * With the default MTU of 23 a frame holds 8 samples, with an MTU of 247 it holds 120.
+ * Samples are kept in a ring shared by all centrals, every central has its own read position and
+ * one reusable buffer per frame length. Not thread safe, only the producer thread may use it.
+ */
+final class SampleStreamPacker {
+
+    static final int HEADER_LENGTH = 3;
+    static final int SAMPLE_SIZE = 2;
+    static final int DEFAULT_ATT_MTU = 23;
+    static final int NOTIFICATION_HEADER_LENGTH = 3; // ATT opcode and handle
+    static final int MAX_SAMPLES_PER_FRAME = 255;
+
+    /**
+     * Receives a packed frame for one central. The frame is only valid during the call.
+     */
+    interface FrameSink {
+        void onFrame(@NotNull GattCentral central, @NotNull byte[] frame);
+    }
+
+    private final short[] ring;
+    private final int mask;
+    private long written;
+    private final Map<String, Cursor> cursors = new HashMap<>();
+
+    /**
+     * @param ringCapacity number of samples kept for slow centrals, rounded up to a power of two
+     */
+    SampleStreamPacker(int ringCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(ringCapacity, MAX_SAMPLES_PER_FRAME) - 1) << 1;
+        this.ring = new short[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the number of samples that fit in one notification to a central with this MTU
+     */
+    static int samplesPerFrame(int mtu) {
+        int payload = Math.max(mtu, DEFAULT_ATT_MTU) - NOTIFICATION_HEADER_LENGTH - HEADER_LENGTH;
+        return Math.min(payload / SAMPLE_SIZE, MAX_SAMPLES_PER_FRAME);
+    }
+
+    void append(short sample) {
+        ring[(int) (written & mask)] = sample;
+        written++;
+    }
+
+    long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * Emits all full frames that are pending for the subscribers. A partly filled last frame is
+     * emitted as well once {@code maxPending} samples wait for it, so a sample waits for a full frame
+     * or for that many samples, whichever comes first.
+     * Read positions of centrals that are no longer subscribed are dropped.
+     */
+    void flush(@NotNull GattCentral[] subscribers, int maxPending, @NotNull FrameSink sink) {
+        if (cursors.size() > subscribers.length) {
+            prune(subscribers);
+        }
+        for (GattCentral central : subscribers) {
+            Cursor cursor = cursors.get(central.getAddress());
+            if (cursor == null) {
+                // a new subscriber starts with the next sample
+                cursor = new Cursor(written);
+                cursors.put(central.getAddress(), cursor);
+                continue;
+            }
+            if (written - cursor.next > ring.length) {
+                // overwritten before they could be sent, mark the gap in the sequence
+                cursor.next = written - ring.length;
+                cursor.sequence++;
+            }
+            int perFrame = samplesPerFrame(central.getCurrentMtu());
+            long pending = written - cursor.next;
+            while (pending >= perFrame || (pending > 0 && pending >= maxPending)) {
+                int count = (int) Math.min(pending, perFrame);
+                sink.onFrame(central, pack(cursor, count));
+                pending -= count;
+            }
+        }
+    }
+
+    private byte[] pack(Cursor cursor, int count) {
+        byte[] frame = cursor.buffer(HEADER_LENGTH + count * SAMPLE_SIZE);
+        int sequence = cursor.sequence++;
+        frame[0] = (byte) sequence;
+        frame[1] = (byte) (sequence >> 8);
+        frame[2] = (byte) count;
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            short sample = ring[(int) (cursor.next++ & mask)];
+            frame[offset++] = (byte) sample;
+            frame[offset++] = (byte) (sample >> 8);
+        }
+        return frame;
+    }
+
+    private void prune(GattCentral[] subscribers) {
+        Iterator<String> addresses = cursors.keySet().iterator();
+        while (addresses.hasNext()) {
+            String address = addresses.next();
+            boolean subscribed = false;
+            for (GattCentral central : subscribers) {
+                if (central.getAddress().equals(address)) {
+                    subscribed = true;
+                    break;
+                }
+            }
+            if (!subscribed) addresses.remove();
+        }
+    }
+
+    private static final class Cursor {
+        final byte[][] buffers = new byte[HEADER_LENGTH + MAX_SAMPLES_PER_FRAME * SAMPLE_SIZE + 1][];
+        long next;
+        int sequence;
+
+        Cursor(long next) {
+            this.next = next;
+        }
+
+        byte[] buffer(int length) {
+            byte[] buffer = buffers[length];
+            if (buffer == null) {
+                buffer = new byte[length];
+                buffers[length] = buffer;
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_READ;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_READ;
+import static android.bluetooth.BluetoothGattService.SERVICE_TYPE_PRIMARY;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Custom service that streams a high rate waveform (250 samples per second, sint16) in frames packed
+ * up to the MTU of each central, see {@link SampleStreamPacker} for the frame layout. The samples
+ * come from a {@link SampleSource}, by default a 1 Hz sine, values outside of sint16 are clamped.
+ * Reading the characteristic returns the sample rate in Hz (uint16).
+ *
+ * A frame is sent when it is full or when its oldest sample waited for the maximum latency, see
+ * {@link #setMaxLatency}. The default lets a frame fill up to an MTU of 247 (120 samples, 480 ms);
+ * a lower latency means smaller frames at a large MTU.
+ */
+class SampleStreamService extends BaseService {
+
+    public static final UUID SAMPLE_STREAM_SERVICE_UUID = UUID.fromString("7d2e0001-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+    public static final UUID SAMPLE_STREAM_CHARACTERISTIC_UUID = UUID.fromString("7d2e0002-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+
+    static final int SAMPLE_RATE_HZ = 250;
+    static final int DEFAULT_MAX_LATENCY_MILLIS = 500;
+    private static final int PRODUCER_PERIOD_MILLIS = 20;
+    private static final int SAMPLES_PER_TICK = SAMPLE_RATE_HZ * PRODUCER_PERIOD_MILLIS / 1000;
+    private static final long SAMPLE_INTERVAL_NANOS = 1_000_000_000L / SAMPLE_RATE_HZ;
+    private static final int QUEUE_CAPACITY = 8;
+
+    private @NotNull final BluetoothGattService service = new BluetoothGattService(SAMPLE_STREAM_SERVICE_UUID, SERVICE_TYPE_PRIMARY);
+    private @NotNull final BluetoothGattCharacteristic stream = new BluetoothGattCharacteristic(SAMPLE_STREAM_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_NOTIFY, PERMISSION_READ);
+    private @NotNull final SampleStreamPacker packer = new SampleStreamPacker(4 * SAMPLE_RATE_HZ);
+    private @NotNull final SampleStreamPacker.FrameSink sink = (central, frame) -> notificationQueue.enqueue(central, stream, frame);
+    private @NotNull final SampleSource source;
+    private @NotNull final byte[] sampleRate = {(byte) SAMPLE_RATE_HZ, (byte) (SAMPLE_RATE_HZ >> 8)};
+    private long sequence;
+    // samples a partly filled frame may hold before it is sent
+    private volatile int maxPendingSamples;
+
+    SampleStreamService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this(peripheral, scheduler, notificationQueue, subscriptions, Waveforms.sine(0, 1000, 1000));
+    }
+
+    SampleStreamService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull SampleSource source) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
+        this.source = Objects.requireNonNull(source);
+        service.addCharacteristic(stream);
+        stream.addDescriptor(getCccDescriptor());
+        configureNotifications(stream, QUEUE_CAPACITY, NotificationQueue.OverflowPolicy.DROP_OLDEST);
+        setMaxLatency(DEFAULT_MAX_LATENCY_MILLIS);
+        registerProducer(PRODUCER_PERIOD_MILLIS, this::produceSamples, stream);
+    }
+
+    /**
+     * Sets how long a sample may wait for its frame to fill before the partly filled frame is sent.
+     * Frames that fill faster are always sent full.
+     */
+    void setMaxLatency(int millis) {
+        if (millis < PRODUCER_PERIOD_MILLIS) throw new IllegalArgumentException("latency must be at least " + PRODUCER_PERIOD_MILLIS + " ms");
+        maxPendingSamples = millis * SAMPLE_RATE_HZ / 1000;
+    }
+
+    @Override
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        if (characteristic == stream) {
+            return new ReadResponse(GattStatus.SUCCESS, sampleRate);
+        }
+        return super.onCharacteristicRead(central, characteristic);
+    }
+
+    private void produceSamples() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < SAMPLES_PER_TICK; i++) {
+            long value = Math.round(source.valueAt(sequence * SAMPLE_INTERVAL_NANOS));
+            short sample = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            packer.append(sample);
+            // samples of a tick are spaced by the sample interval, the last one is the newest
+            publishSample(stream, sample, SampleObserver.UNIT_NONE, now - (SAMPLES_PER_TICK - 1 - i) * 1000L / SAMPLE_RATE_HZ, sequence++);
+        }
+        packer.flush(subscriptions.subscribers(stream), maxPendingSamples, sink);
+    }
+
+    @Override
+    public @NotNull BluetoothGattService getService() {
+        return service;
+    }
+
+    @Override
+    public String getServiceName() {
+        return "Sample Stream Service";
+    }
+}
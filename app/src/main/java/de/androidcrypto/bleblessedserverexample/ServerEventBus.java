@@ -0,0 +1,238 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process event bus from the GATT server to the UI.
+ *
+ * Events are a type, a primitive value and for the rare text events an object payload. Any thread
+ * may publish; events go into a bounded lock-free ring (multi producer, single consumer) and are
+ * drained once per display frame on the consumer thread. State events (advertising, current time,
+ * heart rate, model name) are coalesced, a listener only sees the latest value of a frame; connection
+ * events are delivered one by one in order.
+ *
+ * Listeners are held weakly, the bus never keeps an activity alive. A listener still has to be
+ * referenced by its owner, e.g. as a field.
+ */
+final class ServerEventBus {
+
+    static final int ADVERTISING = 0; // value 1 = started, 0 = stopped or failed
+    static final int CENTRAL_CONNECTED = 1; // value = MAC address, see macToLong
+    static final int CENTRAL_DISCONNECTED = 2; // value = MAC address
+    static final int CURRENT_TIME = 3; // value = milliseconds since 1970-01-01 UTC
+    static final int HEART_RATE = 4; // value = beats per minute
+    static final int MODEL_NAME = 5; // the model number was written, see BluetoothServer.getModelNumber
+    private static final int TYPE_COUNT = 6;
+    private static final boolean[] COALESCED = {true, false, false, true, true, true};
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    interface Listener {
+        /**
+         * Called on the consumer thread, for the UI the main thread.
+         */
+        void onServerEvent(int type, long value, @Nullable Object payload);
+    }
+
+    // not generic, so the listener arrays can be created without unchecked casts
+    private static final class ListenerReference extends WeakReference<Listener> {
+        ListenerReference(@NotNull Listener listener) {
+            super(listener);
+        }
+    }
+
+    /**
+     * Runs the drain on the consumer thread with the next frame, see {@link ChoreographerFrameTrigger}.
+     */
+    interface FrameTrigger {
+        void requestFrame(@NotNull Runnable drain);
+    }
+
+    @NotNull
+    private final FrameTrigger frameTrigger;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] types;
+    private final long[] values;
+    private final Object[] payloads;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer only
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Runnable drainTask = this::drain;
+    private volatile ListenerReference[] listeners = new ListenerReference[0];
+
+    // latest state per type within one drain, consumer only
+    private final boolean[] pending = new boolean[TYPE_COUNT];
+    private final long[] pendingValues = new long[TYPE_COUNT];
+    private final Object[] pendingPayloads = new Object[TYPE_COUNT];
+
+    ServerEventBus(@NotNull FrameTrigger frameTrigger) {
+        this(frameTrigger, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of events that may wait for the next frame, rounded up to a power of two
+     */
+    ServerEventBus(@NotNull FrameTrigger frameTrigger, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.frameTrigger = frameTrigger;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.types = new int[size];
+        this.values = new long[size];
+        this.payloads = new Object[size];
+    }
+
+    boolean publish(int type, long value) {
+        return publish(type, value, null);
+    }
+
+    /**
+     * @return false if the ring is full and the event was dropped
+     */
+    boolean publish(int type, long value, @Nullable Object payload) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (difference < 0) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            // another producer claimed the slot first, try the next one
+        }
+        types[index] = type;
+        values[index] = value;
+        payloads[index] = payload;
+        sequences.lazySet(index, position + 1);
+        if (drainRequested.compareAndSet(false, true)) {
+            frameTrigger.requestFrame(drainTask);
+        }
+        return true;
+    }
+
+    /**
+     * Subscribing a listener twice has no effect.
+     */
+    synchronized void subscribe(@NotNull Listener listener) {
+        ListenerReference[] current = listeners;
+        for (ListenerReference reference : current) {
+            if (reference.get() == listener) return;
+        }
+        ListenerReference[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new ListenerReference(listener);
+        listeners = updated;
+    }
+
+    synchronized void unsubscribe(@NotNull Listener listener) {
+        removeIf(listener);
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Delivers everything that was published since the last drain. Must only run on the consumer thread.
+     */
+    void drain() {
+        // events published from now on request the next frame
+        drainRequested.set(false);
+        ListenerReference[] current = listeners;
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) break;
+            int type = types[index];
+            long value = values[index];
+            Object payload = payloads[index];
+            payloads[index] = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+
+            if (type >= 0 && type < TYPE_COUNT && COALESCED[type]) {
+                pending[type] = true;
+                pendingValues[type] = value;
+                pendingPayloads[type] = payload;
+            } else {
+                deliver(current, type, value, payload);
+            }
+        }
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            if (!pending[type]) continue;
+            pending[type] = false;
+            Object payload = pendingPayloads[type];
+            pendingPayloads[type] = null;
+            deliver(current, type, pendingValues[type], payload);
+        }
+    }
+
+    private void deliver(ListenerReference[] current, int type, long value, Object payload) {
+        for (ListenerReference reference : current) {
+            Listener listener = reference.get();
+            if (listener != null) {
+                listener.onServerEvent(type, value, payload);
+            } else {
+                synchronized (this) {
+                    removeIf(null);
+                }
+            }
+        }
+    }
+
+    // called with the monitor held, null removes the cleared references
+    private void removeIf(Listener listener) {
+        ListenerReference[] current = listeners;
+        int keep = 0;
+        for (ListenerReference reference : current) {
+            Listener referent = reference.get();
+            if (referent != null && referent != listener) keep++;
+        }
+        if (keep == current.length) return;
+        ListenerReference[] updated = new ListenerReference[keep];
+        int i = 0;
+        for (ListenerReference reference : current) {
+            Listener referent = reference.get();
+            if (referent != null && referent != listener) updated[i++] = reference;
+        }
+        listeners = updated;
+    }
+
+    /**
+     * Packs a MAC address like "AA:BB:CC:DD:EE:FF" into the lower 48 bits of a long without allocating.
+     */
+    static long macToLong(@NotNull String address) {
+        long result = 0;
+        for (int i = 0; i < address.length(); i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    @NotNull
+    static String macToString(long mac) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (mac >> shift) & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(octet >> 4, 16)));
+            builder.append(Character.toUpperCase(Character.forDigit(octet & 0x0F, 16)));
+            if (shift > 0) builder.append(':');
+        }
+        return builder.toString();
+    }
+}
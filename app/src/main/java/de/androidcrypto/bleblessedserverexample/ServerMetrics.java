@@ -0,0 +1,230 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters and latency histograms of the GATT server, recorded on the callback and producer threads.
+ *
+ * Per characteristic: reads, writes, notifications sent and failed, bytes sent and the latency from
+ * queueing a notification ({@link BaseService#notifyCharacteristicChanged}) to its onNotificationSent.
+ * Server wide: connected centrals, the time from (re)starting to advertise until a central connects,
+ * the time from the start of the server to its first advertisement and until all services are live
+ * ({@link ServiceStartup}) and, through gauges, the depth of the notification queue and how long the server advertised.
+ *
+ * Recording does not lock and does not allocate once a characteristic was seen. A snapshot reads
+ * the counters while the producers keep running, it is consistent per counter but not across them.
+ */
+final class ServerMetrics {
+
+    /**
+     * A value that is read when a snapshot is taken.
+     */
+    interface Gauge {
+        long get();
+    }
+
+    static final class CharacteristicMetrics {
+        @NotNull
+        final BluetoothGattCharacteristic characteristic;
+        final StripedCounter reads = new StripedCounter();
+        final StripedCounter writes = new StripedCounter();
+        final StripedCounter notificationsSent = new StripedCounter();
+        final StripedCounter notificationsFailed = new StripedCounter();
+        final StripedCounter bytesSent = new StripedCounter();
+        final LatencyHistogram notificationLatency = new LatencyHistogram();
+
+        CharacteristicMetrics(@NotNull BluetoothGattCharacteristic characteristic) {
+            this.characteristic = characteristic;
+        }
+    }
+
+    /**
+     * Server wide figures, reusable so that periodic snapshots do not allocate.
+     */
+    static final class Snapshot {
+        long takenAtNanos;
+        long uptimeNanos;
+        long reads;
+        long writes;
+        long notificationsSent;
+        long notificationsFailed;
+        long bytesSent;
+        long latencyCount;
+        long latencyTotalNanos;
+        long latencyMeanNanos;
+        long latencyP50Nanos;
+        long latencyP99Nanos;
+        long latencyMaxNanos;
+        long queueDepth;
+        int connectedCentrals;
+        long advertisingOnNanos;
+        long discoveryCount;
+        long discoveryMeanNanos;
+        long discoveryP50Nanos;
+        long discoveryMaxNanos;
+        long firstAdvertisementNanos;
+        long servicesReadyNanos;
+        private final long[] latencyBuckets = new long[LatencyHistogram.BUCKET_COUNT];
+        private final long[] discoveryBuckets = new long[LatencyHistogram.BUCKET_COUNT];
+
+        @Override
+        public String toString() {
+            return "notifications sent " + notificationsSent + ", failed " + notificationsFailed
+                    + ", bytes " + bytesSent + ", reads " + reads + ", writes " + writes
+                    + ", latency mean " + latencyMeanNanos / 1000 + " us, p99 " + latencyP99Nanos / 1000
+                    + " us, max " + latencyMaxNanos / 1000 + " us, queued " + queueDepth
+                    + ", centrals " + connectedCentrals + ", advertised " + advertisingOnNanos / 1_000_000
+                    + " ms, discovered " + discoveryCount + " times, mean " + discoveryMeanNanos / 1_000_000
+                    + " ms, first advertisement " + firstAdvertisementNanos / 1_000_000 + " ms, ready " + servicesReadyNanos / 1_000_000 + " ms";
+        }
+    }
+
+    private static final Gauge ZERO = () -> 0;
+
+    private final long startNanos = System.nanoTime();
+    private final Map<BluetoothGattCharacteristic, CharacteristicMetrics> byCharacteristic = new IdentityHashMap<>();
+    private volatile CharacteristicMetrics[] all = new CharacteristicMetrics[0];
+    private final AtomicInteger connectedCentrals = new AtomicInteger();
+    private volatile Gauge queueDepth = ZERO;
+    private volatile Gauge advertisingOnNanos = ZERO;
+    // since the start, -1 until it happened
+    private volatile long firstAdvertisementNanos = -1;
+    private volatile long servicesReadyNanos = -1;
+    final LatencyHistogram discoveryLatency = new LatencyHistogram();
+
+    /**
+     * @return the metrics of the characteristic, created on first use
+     */
+    @NotNull
+    CharacteristicMetrics of(@NotNull BluetoothGattCharacteristic characteristic) {
+        // the array is small and read without a lock, only a new characteristic takes the lock
+        for (CharacteristicMetrics metrics : all) {
+            if (metrics.characteristic == characteristic) return metrics;
+        }
+        synchronized (this) {
+            CharacteristicMetrics metrics = byCharacteristic.get(characteristic);
+            if (metrics == null) {
+                metrics = new CharacteristicMetrics(characteristic);
+                byCharacteristic.put(characteristic, metrics);
+                CharacteristicMetrics[] updated = Arrays.copyOf(all, all.length + 1);
+                updated[all.length] = metrics;
+                all = updated;
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * @return the metrics of all characteristics seen so far, do not modify
+     */
+    @NotNull
+    CharacteristicMetrics[] characteristics() {
+        return all;
+    }
+
+    void onCentralConnected() {
+        connectedCentrals.incrementAndGet();
+    }
+
+    void onCentralDisconnected() {
+        connectedCentrals.decrementAndGet();
+    }
+
+    int getConnectedCentrals() {
+        return connectedCentrals.get();
+    }
+
+    void setQueueDepthGauge(@NotNull Gauge gauge) {
+        this.queueDepth = gauge;
+    }
+
+    /**
+     * @param gauge total time the server advertised, in ns
+     */
+    void setAdvertisingOnGauge(@NotNull Gauge gauge) {
+        this.advertisingOnNanos = gauge;
+    }
+
+    /**
+     * The stack started advertising, only the first time counts.
+     */
+    void onAdvertisingStarted() {
+        if (firstAdvertisementNanos < 0) firstAdvertisementNanos = getUptimeNanos();
+    }
+
+    /**
+     * All services are live, see {@link ServiceStartup}.
+     */
+    void onServicesReady() {
+        if (servicesReadyNanos < 0) servicesReadyNanos = getUptimeNanos();
+    }
+
+    long getUptimeNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Fills the snapshot with the totals over all characteristics. Does not allocate.
+     */
+    void snapshot(@NotNull Snapshot into) {
+        into.takenAtNanos = System.nanoTime();
+        into.uptimeNanos = into.takenAtNanos - startNanos;
+        into.reads = 0;
+        into.writes = 0;
+        into.notificationsSent = 0;
+        into.notificationsFailed = 0;
+        into.bytesSent = 0;
+        into.latencyCount = 0;
+        into.latencyMaxNanos = 0;
+        Arrays.fill(into.latencyBuckets, 0);
+        long latencyTotalNanos = 0;
+        for (CharacteristicMetrics metrics : all) {
+            into.reads += metrics.reads.sum();
+            into.writes += metrics.writes.sum();
+            into.notificationsSent += metrics.notificationsSent.sum();
+            into.notificationsFailed += metrics.notificationsFailed.sum();
+            into.bytesSent += metrics.bytesSent.sum();
+            into.latencyCount += metrics.notificationLatency.addTo(into.latencyBuckets);
+            latencyTotalNanos += metrics.notificationLatency.getTotalNanos();
+            into.latencyMaxNanos = Math.max(into.latencyMaxNanos, metrics.notificationLatency.getMaxNanos());
+        }
+        into.latencyTotalNanos = latencyTotalNanos;
+        into.latencyMeanNanos = into.latencyCount == 0 ? 0 : latencyTotalNanos / into.latencyCount;
+        // a bucket reports its highest value, which may lie above the largest recorded one
+        into.latencyP50Nanos = Math.min(LatencyHistogram.valueAtPercentile(into.latencyBuckets, into.latencyCount, 50), into.latencyMaxNanos);
+        into.latencyP99Nanos = Math.min(LatencyHistogram.valueAtPercentile(into.latencyBuckets, into.latencyCount, 99), into.latencyMaxNanos);
+        into.queueDepth = queueDepth.get();
+        into.connectedCentrals = connectedCentrals.get();
+        into.advertisingOnNanos = advertisingOnNanos.get();
+        into.firstAdvertisementNanos = firstAdvertisementNanos;
+        into.servicesReadyNanos = servicesReadyNanos;
+        Arrays.fill(into.discoveryBuckets, 0);
+        into.discoveryCount = discoveryLatency.addTo(into.discoveryBuckets);
+        into.discoveryMaxNanos = discoveryLatency.getMaxNanos();
+        into.discoveryMeanNanos = into.discoveryCount == 0 ? 0 : discoveryLatency.getTotalNanos() / into.discoveryCount;
+        into.discoveryP50Nanos = Math.min(LatencyHistogram.valueAtPercentile(into.discoveryBuckets, into.discoveryCount, 50), into.discoveryMaxNanos);
+    }
+
+    /**
+     * Fills the counts of the notification latencies recorded between two snapshots of these
+     * metrics, the later one taken after the earlier one. Does not allocate.
+     *
+     * @param into array of {@link LatencyHistogram#BUCKET_COUNT} counts
+     * @return number of latencies recorded in between
+     */
+    static long latencyBetween(@NotNull Snapshot earlier, @NotNull Snapshot later, @NotNull long[] into) {
+        long total = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            into[bucket] = later.latencyBuckets[bucket] - earlier.latencyBuckets[bucket];
+            total += into[bucket];
+        }
+        return total;
+    }
+}
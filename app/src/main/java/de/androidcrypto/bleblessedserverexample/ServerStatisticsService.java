@@ -0,0 +1,189 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_READ;
+import static android.bluetooth.BluetoothGattCharacteristic.PERMISSION_WRITE;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_READ;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
+import static android.bluetooth.BluetoothGattService.SERVICE_TYPE_PRIMARY;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.NonNull;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Custom service that reports how the server is doing, so a gateway can monitor it over the same link.
+ *
+ * The statistics characteristic is a 20 byte snapshot of the {@link ServerMetrics} (little endian),
+ * small enough for a notification at the default MTU:
+ * format (uint8, currently 1), notifications per second (uint16), bytes per second (uint32),
+ * failed notifications since start (uint32), mean and p99 notification latency (uint16 each,
+ * in 0.1 ms), connected centrals (uint8), uptime in seconds (uint32).
+ * The rates and the latencies are measured over the last completed interval, the latencies are 0
+ * when no notification was acknowledged in it.
+ *
+ * It can be read and notified; the interval characteristic (uint16, seconds) sets how often the
+ * rates are measured and subscribers get a snapshot. The interval runs whether or not a central is
+ * subscribed, reads (and other users of {@link #encodeStatistics}) report the rates and latencies
+ * of the last interval and do not start a new one. Snapshots are encoded into reused buffers.
+ */
+class ServerStatisticsService extends BaseService {
+
+    public static final UUID SERVER_STATISTICS_SERVICE_UUID = UUID.fromString("7d2e0010-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+    public static final UUID SERVER_STATISTICS_CHARACTERISTIC_UUID = UUID.fromString("7d2e0011-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+    public static final UUID STATISTICS_INTERVAL_CHARACTERISTIC_UUID = UUID.fromString("7d2e0012-5f3a-4c1b-9e2d-3b6a1c0e8f10");
+
+    static final int FORMAT = 1;
+    static final int STATISTICS_LENGTH = 20;
+    static final int DEFAULT_INTERVAL_SECONDS = 5;
+    static final int MAX_INTERVAL_SECONDS = 3600;
+
+    private @NotNull final BluetoothGattService service = new BluetoothGattService(SERVER_STATISTICS_SERVICE_UUID, SERVICE_TYPE_PRIMARY);
+    private @NotNull final BluetoothGattCharacteristic statistics = new BluetoothGattCharacteristic(SERVER_STATISTICS_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_NOTIFY, PERMISSION_READ);
+    private @NotNull final BluetoothGattCharacteristic interval = new BluetoothGattCharacteristic(STATISTICS_INTERVAL_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_WRITE, PERMISSION_READ | PERMISSION_WRITE);
+    private @NotNull final ServerMetrics metrics;
+    private @NotNull final NotificationScheduler.Producer producer;
+
+    // guarded by this: the two snapshots at the ends of the last interval, its rates and latencies
+    private ServerMetrics.Snapshot previous = new ServerMetrics.Snapshot();
+    private ServerMetrics.Snapshot current = new ServerMetrics.Snapshot();
+    private final long[] intervalLatencies = new long[LatencyHistogram.BUCKET_COUNT];
+    private long notificationsPerSecond;
+    private long bytesPerSecond;
+    private long latencyMeanNanos;
+    private long latencyP99Nanos;
+    // guarded by this, the snapshot reads take between two intervals
+    private final ServerMetrics.Snapshot latest = new ServerMetrics.Snapshot();
+    // reads run on the callback thread, notifications on the scheduler thread, each has its own buffer
+    private @NotNull final byte[] readBuffer = new byte[STATISTICS_LENGTH];
+    private @NotNull final ReadResponse readResponse = new ReadResponse(GattStatus.SUCCESS, readBuffer);
+    private @NotNull final byte[] notifyBuffer = new byte[STATISTICS_LENGTH];
+    private @NotNull final byte[] intervalValue = new byte[2];
+    private volatile int intervalSeconds;
+
+    ServerStatisticsService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull ServerMetrics metrics) {
+        this(peripheral, scheduler, notificationQueue, subscriptions, metrics, DEFAULT_INTERVAL_SECONDS);
+    }
+
+    ServerStatisticsService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull ServerMetrics metrics, int intervalSeconds) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
+        this.metrics = Objects.requireNonNull(metrics);
+        service.addCharacteristic(statistics);
+        statistics.addDescriptor(getCccDescriptor());
+        service.addCharacteristic(interval);
+        configureNotifications(statistics, 1, NotificationQueue.OverflowPolicy.COALESCE_LATEST);
+        setInterval(intervalSeconds);
+        metrics.snapshot(current);
+        // not bound to the subscriptions, the rates are measured for reads too
+        producer = scheduler.register(getServiceName(), intervalSeconds * 1000L, this::onInterval);
+        producer.start();
+    }
+
+    @Override
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        if (characteristic == statistics) {
+            // the response is reused, blessed sends it before the next read callback runs
+            encodeStatistics(readBuffer);
+            return readResponse;
+        } else if (characteristic == interval) {
+            return new ReadResponse(GattStatus.SUCCESS, intervalValue);
+        }
+        return super.onCharacteristicRead(central, characteristic);
+    }
+
+    @Override
+    public GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        if (characteristic != interval) return GattStatus.WRITE_NOT_PERMITTED;
+        if (value.length != 2) return GattStatus.VALUE_NOT_ALLOWED;
+        int seconds = (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+        if (seconds < 1 || seconds > MAX_INTERVAL_SECONDS) return GattStatus.VALUE_NOT_ALLOWED;
+        setInterval(seconds);
+        producer.setPeriod(seconds * 1000L);
+        return GattStatus.SUCCESS;
+    }
+
+    int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    private void setInterval(int seconds) {
+        if (seconds < 1 || seconds > MAX_INTERVAL_SECONDS) throw new IllegalArgumentException("interval must be 1 to " + MAX_INTERVAL_SECONDS + " seconds");
+        intervalSeconds = seconds;
+        intervalValue[0] = (byte) seconds;
+        intervalValue[1] = (byte) (seconds >> 8);
+    }
+
+    // on the scheduler thread: ends the interval, measures its rates and latencies and notifies the subscribers
+    private void onInterval() {
+        synchronized (this) {
+            ServerMetrics.Snapshot older = previous;
+            previous = current;
+            current = older;
+            metrics.snapshot(current);
+            long elapsedNanos = Math.max(1, current.takenAtNanos - previous.takenAtNanos);
+            notificationsPerSecond = (current.notificationsSent - previous.notificationsSent) * 1_000_000_000L / elapsedNanos;
+            bytesPerSecond = (current.bytesSent - previous.bytesSent) * 1_000_000_000L / elapsedNanos;
+            long count = ServerMetrics.latencyBetween(previous, current, intervalLatencies);
+            latencyMeanNanos = count == 0 ? 0 : Math.max(0, current.latencyTotalNanos - previous.latencyTotalNanos) / count;
+            // a bucket reports its highest value, which may lie above the largest recorded one
+            latencyP99Nanos = Math.min(LatencyHistogram.valueAtPercentile(intervalLatencies, count, 99), current.latencyMaxNanos);
+            encode(current, notifyBuffer);
+        }
+        notifyCharacteristicChanged(notifyBuffer, statistics);
+    }
+
+    /**
+     * Takes a snapshot and encodes it with the rates and latencies of the last interval, see the
+     * class comment for the layout.
+     */
+    synchronized void encodeStatistics(@NotNull byte[] buffer) {
+        metrics.snapshot(latest);
+        encode(latest, buffer);
+    }
+
+    // called with the lock held
+    private void encode(@NotNull ServerMetrics.Snapshot snapshot, @NotNull byte[] buffer) {
+        buffer[0] = FORMAT;
+        writeUint16(buffer, 1, notificationsPerSecond);
+        writeUint32(buffer, 3, bytesPerSecond);
+        writeUint32(buffer, 7, snapshot.notificationsFailed);
+        writeUint16(buffer, 11, latencyMeanNanos / 100_000);
+        writeUint16(buffer, 13, latencyP99Nanos / 100_000);
+        buffer[15] = (byte) Math.min(snapshot.connectedCentrals, 0xFF);
+        writeUint32(buffer, 16, snapshot.uptimeNanos / 1_000_000_000L);
+    }
+
+    // values that do not fit are sent as the largest value
+    private static void writeUint16(byte[] buffer, int offset, long value) {
+        int clamped = (int) Math.max(0, Math.min(value, 0xFFFF));
+        buffer[offset] = (byte) clamped;
+        buffer[offset + 1] = (byte) (clamped >> 8);
+    }
+
+    private static void writeUint32(byte[] buffer, int offset, long value) {
+        long clamped = Math.max(0, Math.min(value, 0xFFFFFFFFL));
+        buffer[offset] = (byte) clamped;
+        buffer[offset + 1] = (byte) (clamped >> 8);
+        buffer[offset + 2] = (byte) (clamped >> 16);
+        buffer[offset + 3] = (byte) (clamped >> 24);
+    }
+
+    @Override
+    public @NotNull BluetoothGattService getService() {
+        return service;
+    }
+
+    @Override
+    public String getServiceName() {
+        return "Server Statistics Service";
+    }
+}
@@ -6,7 +6,6 @@ import android.bluetooth.BluetoothGattService;
 
 import androidx.annotation.NonNull;
 
-import com.welie.blessed.BluetoothCentral;
 import com.welie.blessed.GattStatus;
 import com.welie.blessed.ReadResponse;
 
@@ -18,23 +17,28 @@ interface Service {
 
     String getServiceName();
 
-    ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic);
+    ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic);
 
-    GattStatus onCharacteristicWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value);
+    /**
+     * Read at an offset (ATT Read Blob), the response holds the value from the offset on.
+     */
+    ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, int offset);
 
-    void onCharacteristicWriteCompleted(@NonNull BluetoothCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value);
+    GattStatus onCharacteristicWrite(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value);
 
-    ReadResponse onDescriptorRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattDescriptor descriptor);
+    void onCharacteristicWriteCompleted(@NonNull GattCentral central, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value);
 
-    GattStatus onDescriptorWrite(@NotNull BluetoothCentral central, @NotNull BluetoothGattDescriptor descriptor, @NotNull byte[] value);
+    ReadResponse onDescriptorRead(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor);
 
-    void onNotifyingEnabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic);
+    GattStatus onDescriptorWrite(@NotNull GattCentral central, @NotNull BluetoothGattDescriptor descriptor, @NotNull byte[] value);
 
-    void onNotifyingDisabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic);
+    void onNotifyingEnabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic);
 
-    void onNotificationSent(@NotNull BluetoothCentral central, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status);
+    void onNotifyingDisabled(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic);
 
-    void onCentralConnected(@NotNull BluetoothCentral central);
+    void onNotificationSent(@NotNull GattCentral central, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status);
 
-    void onCentralDisconnected(@NotNull BluetoothCentral central);
+    void onCentralConnected(@NotNull GattCentral central);
+
+    void onCentralDisconnected(@NotNull GattCentral central);
 }
@@ -0,0 +1,293 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattService;
+
+import com.welie.blessed.GattStatus;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Adds the GATT services to the stack in the order they are needed.
+ *
+ * Every service is registered with a priority and gets a {@link Readiness} that completes when the
+ * stack reports it with onServiceAdded. {@link #start} hands all {@link Priority#EAGER} services to
+ * the stack at once, without waiting for one before adding the next; the stack adds them one after
+ * the other in that order. The {@link Priority#LAZY} services follow in the background once the
+ * eager ones are live, so whatever waits for {@link #getEagerReadiness()}, e.g. advertising, does
+ * not wait for them. A central that connects in between sees them appear through Service Changed.
+ *
+ * The time until all services are live goes to the {@link ServerMetrics}.
+ */
+final class ServiceStartup {
+
+    enum Priority {
+        /**
+         * Needed right away, e.g. because it is advertised.
+         */
+        EAGER,
+        /**
+         * Added once the eager services are live.
+         */
+        LAZY
+    }
+
+    private static final HotLog.Event SERVICE_FAILED = HotLog.event(HotLog.WARN, "adding service %08x failed with status %d");
+    private static final HotLog.Event EAGER_LIVE = HotLog.event(HotLog.INFO, "%d eager services added after %d ms");
+    private static final HotLog.Event ALL_LIVE = HotLog.event(HotLog.INFO, "%d services added after %d ms");
+
+    /**
+     * Completes with the status of onServiceAdded, or of the first failure for a group of services.
+     * It cannot be cancelled.
+     */
+    static final class Readiness implements Future<GattStatus> {
+        // guarded by this
+        @Nullable
+        private GattStatus status;
+        private final List<Runnable> listeners = new ArrayList<>();
+
+        /**
+         * Runs the listener once the readiness completed, right away if it already did. It runs on
+         * the thread that completes it, i.e. the callback thread.
+         */
+        void whenDone(@NotNull Runnable listener) {
+            synchronized (this) {
+                if (status == null) {
+                    listeners.add(Objects.requireNonNull(listener));
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /**
+         * @return true if it completed successfully
+         */
+        synchronized boolean isReady() {
+            return status == GattStatus.SUCCESS;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return status != null;
+        }
+
+        @Override
+        public synchronized GattStatus get() throws InterruptedException {
+            while (status == null) {
+                wait();
+            }
+            return status;
+        }
+
+        @Override
+        public synchronized GattStatus get(long timeout, @NotNull TimeUnit unit) throws InterruptedException, TimeoutException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (status == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return status;
+        }
+
+        private void complete(@NotNull GattStatus status) {
+            List<Runnable> run;
+            synchronized (this) {
+                if (this.status != null) return;
+                this.status = status;
+                notifyAll();
+                run = new ArrayList<>(listeners);
+                listeners.clear();
+            }
+            for (Runnable listener : run) {
+                listener.run();
+            }
+        }
+    }
+
+    private static final class Entry {
+        @NotNull
+        final BluetoothGattService service;
+        @NotNull
+        final Priority priority;
+        final Readiness readiness = new Readiness();
+        // guarded by the startup
+        boolean done;
+
+        Entry(@NotNull BluetoothGattService service, @NotNull Priority priority) {
+            this.service = service;
+            this.priority = priority;
+        }
+    }
+
+    @NotNull
+    private final GattPeripheral peripheral;
+    @NotNull
+    private final ServerMetrics metrics;
+    private final Readiness eagerReadiness = new Readiness();
+    private final Readiness readiness = new Readiness();
+    // guarded by this, by service UUID in the order of registration
+    private final Map<UUID, Entry> entries = new LinkedHashMap<>();
+    private boolean started;
+    private int pendingEager;
+    private int pending;
+    @Nullable
+    private GattStatus eagerFailure;
+    @Nullable
+    private GattStatus failure;
+
+    ServiceStartup(@NotNull GattPeripheral peripheral, @NotNull ServerMetrics metrics) {
+        this.peripheral = Objects.requireNonNull(peripheral);
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * Registers a service to be added by {@link #start}. Services of the same priority are added in
+     * the order they were registered.
+     */
+    @NotNull
+    synchronized Readiness register(@NotNull BluetoothGattService service, @NotNull Priority priority) {
+        if (started) throw new IllegalStateException("services are already being added");
+        if (entries.containsKey(service.getUuid())) throw new IllegalArgumentException("service " + service.getUuid() + " is already registered");
+        Entry entry = new Entry(service, Objects.requireNonNull(priority));
+        entries.put(service.getUuid(), entry);
+        return entry.readiness;
+    }
+
+    /**
+     * Adds the eager services, the lazy ones follow when they are live.
+     */
+    void start() {
+        List<Entry> eager = new ArrayList<>();
+        synchronized (this) {
+            if (started) throw new IllegalStateException("already started");
+            started = true;
+            pending = entries.size();
+            for (Entry entry : entries.values()) {
+                if (entry.priority == Priority.EAGER) eager.add(entry);
+            }
+            pendingEager = eager.size();
+        }
+        if (eager.isEmpty()) {
+            onEagerDone();
+        } else {
+            add(eager);
+        }
+        if (entries.isEmpty()) onAllDone();
+    }
+
+    /**
+     * Called with onServiceAdded of the stack.
+     */
+    void onServiceAdded(@NotNull GattStatus status, @NotNull BluetoothGattService service) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(service.getUuid());
+        }
+        if (entry != null) complete(entry, status);
+    }
+
+    /**
+     * @return the readiness of a registered service, null if it is not registered
+     */
+    @Nullable
+    synchronized Readiness getReadiness(@NotNull UUID service) {
+        Entry entry = entries.get(service);
+        return entry != null ? entry.readiness : null;
+    }
+
+    /**
+     * @return true if the service is registered and live
+     */
+    synchronized boolean isLive(@NotNull UUID service) {
+        Entry entry = entries.get(service);
+        return entry != null && entry.readiness.isReady();
+    }
+
+    /**
+     * @return completes when all eager services are live, or with the status of the first that failed
+     */
+    @NotNull
+    Readiness getEagerReadiness() {
+        return eagerReadiness;
+    }
+
+    /**
+     * @return completes when all services are live, or with the status of the first that failed
+     */
+    @NotNull
+    Readiness getReadiness() {
+        return readiness;
+    }
+
+    private void add(@NotNull List<Entry> add) {
+        for (Entry entry : add) {
+            // the stack queues the service, it is live with onServiceAdded
+            if (!peripheral.addService(entry.service)) complete(entry, GattStatus.ERROR);
+        }
+    }
+
+    private void complete(@NotNull Entry entry, @NotNull GattStatus status) {
+        boolean eagerDone = false;
+        boolean allDone;
+        synchronized (this) {
+            if (entry.done) return;
+            entry.done = true;
+            if (status != GattStatus.SUCCESS && failure == null) failure = status;
+            if (entry.priority == Priority.EAGER) {
+                if (status != GattStatus.SUCCESS && eagerFailure == null) eagerFailure = status;
+                eagerDone = --pendingEager == 0;
+            }
+            allDone = --pending == 0;
+        }
+        if (status != GattStatus.SUCCESS) SERVICE_FAILED.log(entry.service.getUuid().getMostSignificantBits() >>> 32, status.value);
+        entry.readiness.complete(status);
+        if (eagerDone) onEagerDone();
+        if (allDone) onAllDone();
+    }
+
+    private void onEagerDone() {
+        List<Entry> lazy = new ArrayList<>();
+        GattStatus status;
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.priority == Priority.LAZY) lazy.add(entry);
+            }
+            status = eagerFailure != null ? eagerFailure : GattStatus.SUCCESS;
+        }
+        EAGER_LIVE.log(entries.size() - lazy.size(), TimeUnit.NANOSECONDS.toMillis(metrics.getUptimeNanos()));
+        eagerReadiness.complete(status);
+        add(lazy);
+    }
+
+    private void onAllDone() {
+        GattStatus status;
+        synchronized (this) {
+            status = failure != null ? failure : GattStatus.SUCCESS;
+        }
+        if (status == GattStatus.SUCCESS) metrics.onServicesReady();
+        ALL_LIVE.log(entries.size(), TimeUnit.NANOSECONDS.toMillis(metrics.getUptimeNanos()));
+        readiness.complete(status);
+    }
+}
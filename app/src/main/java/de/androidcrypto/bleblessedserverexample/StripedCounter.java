@@ -0,0 +1,41 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for the hot paths that many threads increment and that is only read now and then.
+ *
+ * Like java.util.concurrent.atomic.LongAdder, which needs API level 24: every thread adds to one of
+ * a few cells picked by its thread id, the cells sit a cache line apart so threads do not contend
+ * for the same line. The sum is read without stopping the writers and is not an atomic snapshot.
+ */
+final class StripedCounter {
+
+    // 8 longs = 64 bytes between two cells
+    private static final int CELL_SPACING = 8;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * CELL_SPACING);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.getAndAdd(stripe * CELL_SPACING, delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * CELL_SPACING);
+        }
+        return sum;
+    }
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(Integer.highestOneBit(Math.max(processors, 1) * 2 - 1) << 1, 64);
+    }
+}
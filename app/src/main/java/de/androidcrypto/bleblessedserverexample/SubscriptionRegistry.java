@@ -0,0 +1,179 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks per characteristic which centrals enabled notifications or indications.
+ *
+ * A producer can be bound to one or more characteristics: it is started when the first central
+ * subscribes and stopped when the last one unsubscribes or disconnects, so one central switching off
+ * notifications does not stop the others and a second subscriber does not start a second timer.
+ *
+ * Changes come from the GATT callbacks and are serialized; the subscriber list of a characteristic
+ * is a copy-on-write array, so producers iterate it on their own thread without locking or allocating.
+ */
+final class SubscriptionRegistry {
+
+    enum Mode {
+        NOTIFY, INDICATE
+    }
+
+    private static final GattCentral[] NO_CENTRALS = new GattCentral[0];
+
+    // the characteristic classes do not override equals, so this is an identity map; it is concurrent
+    // only so producers can look up their entry without taking the lock
+    private final ConcurrentHashMap<BluetoothGattCharacteristic, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The stack only reports that the CCC was enabled, it sends indications whenever the
+     * characteristic supports them, so the mode follows the properties.
+     */
+    @NotNull
+    static Mode modeOf(@NotNull BluetoothGattCharacteristic characteristic) {
+        return (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0 ? Mode.INDICATE : Mode.NOTIFY;
+    }
+
+    /**
+     * Starts the producer while at least one central is subscribed to the characteristic.
+     */
+    synchronized void bindProducer(@NotNull BluetoothGattCharacteristic characteristic, @NotNull NotificationScheduler.Producer producer) {
+        Entry entry = entry(characteristic);
+        entry.producers.add(producer);
+        if (entry.subscribers.length > 0) producer.start();
+    }
+
+    /**
+     * @return true if the central is the first subscriber of the characteristic
+     */
+    synchronized boolean subscribe(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull Mode mode) {
+        Entry entry = entry(characteristic);
+        int index = entry.indexOf(central.getAddress());
+        if (index >= 0) {
+            // the same central enabled again, possibly in the other mode
+            GattCentral[] subscribers = entry.subscribers.clone();
+            subscribers[index] = central;
+            entry.modes[index] = mode;
+            entry.subscribers = subscribers;
+            return false;
+        }
+        int count = entry.subscribers.length;
+        GattCentral[] subscribers = new GattCentral[count + 1];
+        Mode[] modes = new Mode[count + 1];
+        System.arraycopy(entry.subscribers, 0, subscribers, 0, count);
+        System.arraycopy(entry.modes, 0, modes, 0, count);
+        subscribers[count] = central;
+        modes[count] = mode;
+        entry.modes = modes;
+        entry.subscribers = subscribers;
+        if (count == 0) {
+            for (NotificationScheduler.Producer producer : entry.producers) {
+                producer.start();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the central was the last subscriber of the characteristic
+     */
+    synchronized boolean unsubscribe(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        Entry entry = entries.get(characteristic);
+        return entry != null && remove(entry, central.getAddress());
+    }
+
+    /**
+     * Removes the central from every characteristic, called when it disconnects.
+     */
+    synchronized void unsubscribeAll(@NotNull GattCentral central) {
+        String address = central.getAddress();
+        for (Entry entry : entries.values()) {
+            remove(entry, address);
+        }
+    }
+
+    /**
+     * @return the subscribed centrals, a snapshot that must not be modified
+     */
+    @NotNull
+    GattCentral[] subscribers(@NotNull BluetoothGattCharacteristic characteristic) {
+        Entry entry = entries.get(characteristic);
+        return entry == null ? NO_CENTRALS : entry.subscribers;
+    }
+
+    int subscriberCount(@NotNull BluetoothGattCharacteristic characteristic) {
+        return subscribers(characteristic).length;
+    }
+
+    /**
+     * @return the mode the central subscribed with, or null if it is not subscribed
+     */
+    @Nullable
+    synchronized Mode getMode(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        Entry entry = entries.get(characteristic);
+        if (entry == null) return null;
+        int index = entry.indexOf(central.getAddress());
+        return index >= 0 ? entry.modes[index] : null;
+    }
+
+    private Entry entry(BluetoothGattCharacteristic characteristic) {
+        Entry entry = entries.get(characteristic);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(characteristic, entry);
+        }
+        return entry;
+    }
+
+    private boolean remove(Entry entry, String address) {
+        int index = entry.indexOf(address);
+        if (index < 0) return false;
+        int count = entry.subscribers.length;
+        if (count == 1) {
+            entry.modes = new Mode[0];
+            entry.subscribers = NO_CENTRALS;
+            for (NotificationScheduler.Producer producer : entry.producers) {
+                if (!isBoundToSubscribed(producer)) producer.stop();
+            }
+            return true;
+        }
+        GattCentral[] subscribers = new GattCentral[count - 1];
+        Mode[] modes = new Mode[count - 1];
+        System.arraycopy(entry.subscribers, 0, subscribers, 0, index);
+        System.arraycopy(entry.subscribers, index + 1, subscribers, index, count - index - 1);
+        System.arraycopy(entry.modes, 0, modes, 0, index);
+        System.arraycopy(entry.modes, index + 1, modes, index, count - index - 1);
+        entry.modes = modes;
+        entry.subscribers = subscribers;
+        return false;
+    }
+
+    private boolean isBoundToSubscribed(NotificationScheduler.Producer producer) {
+        for (Entry entry : entries.values()) {
+            if (entry.subscribers.length > 0 && entry.producers.contains(producer)) return true;
+        }
+        return false;
+    }
+
+    private static final class Entry {
+        final List<NotificationScheduler.Producer> producers = new ArrayList<>(1);
+        volatile GattCentral[] subscribers = NO_CENTRALS;
+        Mode[] modes = new Mode[0];
+
+        // centrals are matched by address, the wrapper object may change between connections
+        int indexOf(String address) {
+            GattCentral[] current = subscribers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getAddress().equals(address)) return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encoder for the Temperature Measurement characteristic (0x2A1C) and the Temperature Fahrenheit
+ * characteristic (0x2A20).
+ *
+ * 0x2A1C layout (little endian):
+ * flags (uint8), temperature (FLOAT), time stamp (date time, 7 bytes, optional),
+ * temperature type (uint8, optional).
+ * 0x2A20 is a sint16 in 0.1 degree Fahrenheit.
+ *
+ * Like {@link HeartRateMeasurementEncoder} one buffer per payload length is kept and handed out,
+ * so a stream of measurements does not allocate. Not thread safe.
+ */
+final class TemperatureMeasurementEncoder {
+
+    static final int FLAG_FAHRENHEIT = 0x01;
+    static final int FLAG_TIME_STAMP_PRESENT = 0x02;
+    static final int FLAG_TEMPERATURE_TYPE_PRESENT = 0x04;
+
+    // temperature type values of the Temperature Type characteristic (0x2A1D)
+    static final int TYPE_ARMPIT = 1;
+    static final int TYPE_BODY = 2;
+    static final int TYPE_EAR = 3;
+    static final int TYPE_FINGER = 4;
+    static final int TYPE_GASTRO_INTESTINAL_TRACT = 5;
+    static final int TYPE_MOUTH = 6;
+    static final int TYPE_RECTUM = 7;
+    static final int TYPE_TOE = 8;
+    static final int TYPE_TYMPANUM = 9;
+
+    static final int DATE_TIME_LENGTH = 7;
+    private static final int MAX_LENGTH = 1 + 4 + DATE_TIME_LENGTH + 1;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final byte[][] buffers = new byte[MAX_LENGTH + 1][];
+    private final byte[] fahrenheitBuffer = new byte[2];
+    private double temperature;
+    private int precision = 2;
+    private boolean fahrenheit;
+    private boolean withTimeStamp;
+    private long localTimeMillis;
+    private int temperatureType = -1;
+
+    /**
+     * @param precision number of decimal places that are sent
+     */
+    TemperatureMeasurementEncoder setTemperature(double temperature, int precision) {
+        this.temperature = temperature;
+        this.precision = precision;
+        return this;
+    }
+
+    TemperatureMeasurementEncoder setFahrenheit(boolean fahrenheit) {
+        this.fahrenheit = fahrenheit;
+        return this;
+    }
+
+    /**
+     * @param localTimeMillis milliseconds since 1970-01-01 in local time, i.e. with the zone offset
+     *                        already added, or a negative value to omit the time stamp
+     */
+    TemperatureMeasurementEncoder setTimeStamp(long localTimeMillis) {
+        this.withTimeStamp = localTimeMillis >= 0;
+        this.localTimeMillis = localTimeMillis;
+        return this;
+    }
+
+    /**
+     * @param temperatureType one of the TYPE_ constants, or -1 to omit the type
+     */
+    TemperatureMeasurementEncoder setTemperatureType(int temperatureType) {
+        this.temperatureType = temperatureType;
+        return this;
+    }
+
+    /**
+     * Encodes a 0x2A1C Temperature Measurement into the reusable buffer of the resulting length.
+     */
+    @NotNull
+    byte[] encode() {
+        int length = 1 + 4 + (withTimeStamp ? DATE_TIME_LENGTH : 0) + (temperatureType >= 0 ? 1 : 0);
+        byte[] buffer = buffers[length];
+        if (buffer == null) {
+            buffer = new byte[length];
+            buffers[length] = buffer;
+        }
+        encode(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Encodes a 0x2A1C Temperature Measurement into a caller supplied buffer.
+     *
+     * @return offset behind the written measurement
+     */
+    int encode(@NotNull byte[] buffer, int offset) {
+        int flags = 0;
+        if (fahrenheit) flags |= FLAG_FAHRENHEIT;
+        if (withTimeStamp) flags |= FLAG_TIME_STAMP_PRESENT;
+        if (temperatureType >= 0) flags |= FLAG_TEMPERATURE_TYPE_PRESENT;
+        buffer[offset++] = (byte) flags;
+        offset = Ieee11073Float.writeFloat(buffer, offset, temperature, precision);
+        if (withTimeStamp) {
+            offset = writeDateTime(buffer, offset, localTimeMillis);
+        }
+        if (temperatureType >= 0) {
+            buffer[offset++] = (byte) temperatureType;
+        }
+        return offset;
+    }
+
+    /**
+     * Encodes a 0x2A20 Temperature Fahrenheit value (sint16, exponent -1) into a reusable buffer.
+     */
+    @NotNull
+    byte[] encodeFahrenheit(double fahrenheitValue) {
+        long tenths = Math.round(fahrenheitValue * 10);
+        int value = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+        fahrenheitBuffer[0] = (byte) value;
+        fahrenheitBuffer[1] = (byte) (value >> 8);
+        return fahrenheitBuffer;
+    }
+
+    /**
+     * Decodes the temperature of a 0x2A1C measurement, the unit is given by bit 0 of the flags.
+     */
+    static double decodeTemperature(@NotNull byte[] value) {
+        return Ieee11073Float.readFloat(value, 1);
+    }
+
+    /**
+     * Writes a Date Time (0x2A08): year (uint16), month, day, hours, minutes, seconds.
+     * The civil date is computed from the day number, so no Calendar is needed.
+     * Only times from 1970 on are supported.
+     *
+     * @return offset behind the written 7 bytes
+     */
+    static int writeDateTime(@NotNull byte[] buffer, int offset, long localTimeMillis) {
+        long days = localTimeMillis / MILLIS_PER_DAY;
+        int secondOfDay = (int) ((localTimeMillis % MILLIS_PER_DAY) / 1000);
+
+        // days since 1970-01-01 to year/month/day, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = z / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        buffer[offset++] = (byte) year;
+        buffer[offset++] = (byte) (year >> 8);
+        buffer[offset++] = (byte) month;
+        buffer[offset++] = (byte) day;
+        buffer[offset++] = (byte) (secondOfDay / 3600);
+        buffer[offset++] = (byte) ((secondOfDay / 60) % 60);
+        buffer[offset++] = (byte) (secondOfDay % 60);
+        return offset;
+    }
+}
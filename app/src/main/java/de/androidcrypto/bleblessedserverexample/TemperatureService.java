@@ -8,24 +8,20 @@ import static android.bluetooth.BluetoothGattService.SERVICE_TYPE_PRIMARY;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
-import android.os.Handler;
-import android.os.Looper;
 
-import com.welie.blessed.BluetoothBytesParser;
-import com.welie.blessed.BluetoothCentral;
-import com.welie.blessed.BluetoothPeripheralManager;
-import com.welie.blessed.GattStatus;
 import com.welie.blessed.ReadResponse;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.nio.ByteOrder;
+import java.util.Objects;
 import java.util.UUID;
 
-import timber.log.Timber;
-
 public class TemperatureService extends BaseService {
 
+    static final int PERIOD_MILLIS = 1000;
+
+    private static final HotLog.Event NEW_TEMPERATURE = HotLog.event(HotLog.INFO, "new temp (0.01 C): %d");
+
     /**
      * steps to create your own Service peripheral
      * 01: find the correct service UUID, here: temperature is in Environmental Sensing Service (see 16-bit UUID Numbers document)
@@ -59,12 +55,25 @@ public class TemperatureService extends BaseService {
     // uses indicate
     private @NotNull final BluetoothGattCharacteristic measurement = new BluetoothGattCharacteristic(TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_INDICATE, PERMISSION_READ);
     private @NotNull final BluetoothGattCharacteristic measurementFahrenheit = new BluetoothGattCharacteristic(TEMPERATURE_FAHRENHEIT_MEASUREMENT_CHARACTERISTIC_UUID, PROPERTY_READ | PROPERTY_INDICATE, PERMISSION_READ);
-    private @NotNull final Handler handler = new Handler(Looper.getMainLooper());
-    private @NotNull final Runnable notifyRunnable = this::notifyTemperature;
-    private int currentTemperature = 22;
+    // used only on the scheduler thread, reads are served from the published snapshots
+    private @NotNull final TemperatureMeasurementEncoder encoder = new TemperatureMeasurementEncoder();
+    private @NotNull final VersionedValue measurementValue = new VersionedValue(new byte[0]);
+    private @NotNull final VersionedValue fahrenheitValue = new VersionedValue(new byte[0]);
+    private @NotNull final SampleSource source;
+    private float currentTemperature; // Celsius
+    private long sequence;
+
+    TemperatureService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions) {
+        this(peripheral, scheduler, notificationQueue, subscriptions, defaultSource());
+    }
 
-    TemperatureService(@NotNull BluetoothPeripheralManager peripheralManager) {
-        super(peripheralManager);
+    /**
+     * @param source temperature in degrees Celsius
+     */
+    TemperatureService(@NotNull GattPeripheral peripheral, @NotNull NotificationScheduler scheduler, @NotNull NotificationQueue notificationQueue, @NotNull SubscriptionRegistry subscriptions, @NotNull SampleSource source) {
+        super(peripheral, scheduler, notificationQueue, subscriptions);
+        this.source = Objects.requireNonNull(source);
+        currentTemperature = (float) source.valueAt(0);
         service.addCharacteristic(measurement);
         measurement.addDescriptor(getCccDescriptor());
 
@@ -72,105 +81,51 @@ public class TemperatureService extends BaseService {
         service.addCharacteristic(measurementFahrenheit);
         measurementFahrenheit.addDescriptor(getCccDescriptor());
 
+        configureNotifications(measurement, 1, NotificationQueue.OverflowPolicy.COALESCE_LATEST);
+        configureNotifications(measurementFahrenheit, 1, NotificationQueue.OverflowPolicy.COALESCE_LATEST);
+        publishTemperature();
+        registerProducer(PERIOD_MILLIS, this::notifyTemperature, measurement, measurementFahrenheit); // every second a new value
     }
 
-    @Override
-    public void onCentralDisconnected(@NotNull BluetoothCentral central) {
-        if (noCentralsConnected()) {
-            stopNotifying();
-        }
+    // a random walk between -10 and 40 degrees Celsius, the same one in every run
+    @NotNull
+    static SampleSource defaultSource() {
+        return Waveforms.randomWalk(0x181A, 22, 5, PERIOD_MILLIS, -10, 40);
     }
 
     @Override
-    public ReadResponse onCharacteristicRead(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            // step 05: provide the data in the correct sequence
-
-            // this is for temperature in Celsius or Fahrenheit ("00002A1C-0000-1000-8000-00805f9b34fb")
-            byte flag = 0;
-            // bit 0 = Temperature Units Flag, 0 = Celsius, 1 = Fahrenheit
-            // for Celsius no bitSetting
-            flag = setBitInByte(flag, 0); // set fahrenheit
-            // bit 1 = Time Stamp Flag, 0 = no TimeStamp, 1 = TimeStamp present
-            // for noTimeStamp no bitSetting
-            // bit 2 = Temperature Type Flag, 0 = Temperature type not present, 1 = Temperature type present
-            // for no Temperature type present no bitSetting
-            // flag = setBitInByte(flag, 0);
-            // following Temperature value (in Celsius or Fahrenheit) is FLOAT
-
-            // as we want Fahrenheit we need to converse the data
-            float temperature = celsiusToFahrenheit(currentTemperature);
-            byte[] returnByte = getTemperatureValue(flag, temperature);
-            return new ReadResponse(GattStatus.SUCCESS, returnByte);
-
-            /*
-            // this is for temperature in Celsius ("00002A6E-0000-1000-8000-00805f9b34fb")
-            BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
-            parser.setFloatValue(currentTemperature, 2);
-            return new ReadResponse(GattStatus.SUCCESS, parser.getValue());
-             */
-        } else if (characteristic.getUuid().equals(TEMPERATURE_FAHRENHEIT_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            // step 05: provide the data in the correct sequence
-
-            // temperature in Fahrenheit
-            // todo examine correct value, this is giving wrong value
-            // this is for temperature in Fahrenheit (""00002A20-0000-1000-8000-00805f9b34fb"")
-            BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
-            parser.setFloatValue(celsiusToFahrenheit(currentTemperature), 2);
-            return new ReadResponse(GattStatus.SUCCESS, parser.getValue());
-
-            /*
-            // this is for temperature in Celsius or Fahrenheit ("00002A1C-0000-1000-8000-00805f9b34fb")
-            byte flag = 0;
-            // bit 0 = Temperature Units Flag, 0 = Celsius, 1 = Fahrenheit
-            // for Celsius no bitSetting
-            flag = setBitInByte(flag, 0); // set fahrenheit
-            // bit 1 = Time Stamp Flag, 0 = no TimeStamp, 1 = TimeStamp present
-            // for noTimeStamp no bitSetting
-            // bit 2 = Temperature Type Flag, 0 = Temperature type not present, 1 = Temperature type present
-            // for no Temperature type present no bitSetting
-            // flag = setBitInByte(flag, 0);
-            // following Temperature value (in Celsius or Fahrenheit) is FLOAT
-
-            // as we want Fahrenheit we need to converse the data
-            float temperature = celsiusToFahrenheit(currentTemperature);
-
-            byte[] returnByte = getTemperatureValue(flag, temperature);
-
-            return new ReadResponse(GattStatus.SUCCESS, returnByte);
-            */
-
-            /*
-            // this is for temperature in Celsius ("00002A6E-0000-1000-8000-00805f9b34fb")
-            BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
-            parser.setFloatValue(currentTemperature, 2);
-            return new ReadResponse(GattStatus.SUCCESS, parser.getValue());
-             */
+    public ReadResponse onCharacteristicRead(@NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        // step 05: provide the data in the correct sequence, the values are encoded by the producer
+        if (characteristic == measurement) {
+            return measurementValue.read();
+        } else if (characteristic == measurementFahrenheit) {
+            return fahrenheitValue.read();
         }
         return super.onCharacteristicRead(central, characteristic);
     }
 
-    @Override
-    public void onNotifyingEnabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            notifyTemperature();
-        }
-    }
+    private void notifyTemperature() {
+        currentTemperature = (float) source.valueAt(sequence * PERIOD_MILLIS * 1_000_000L);
 
-    @Override
-    public void onNotifyingDisabled(@NotNull BluetoothCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
-        if (characteristic.getUuid().equals(TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-            stopNotifying();
+        publishTemperature();
+        publishSample(measurement, celsiusToFahrenheit(currentTemperature), SampleObserver.UNIT_DEGREES_FAHRENHEIT, System.currentTimeMillis(), sequence++);
+        notifyCharacteristicChanged(measurementValue.getValue(), measurement);
+        if (subscriptions.subscriberCount(measurementFahrenheit) > 0) {
+            notifyCharacteristicChanged(fahrenheitValue.getValue(), measurementFahrenheit);
         }
-    }
 
-    private void notifyTemperature() {
-        currentTemperature += (int) ((Math.random() * 10) - 5);
-        if (currentTemperature > 40) currentTemperature = 40;
-        // step 05: provide the data in the correct sequence
+        /*
+        // this is for temperature in Celsius ("00002A6E-0000-1000-8000-00805f9b34fb")
+        BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
+        parser.setFloatValue(currentTemperature, 2);
+        notifyCharacteristicChanged(parser.getValue(), measurement);
+        */
 
-        // todo check for UUIDs to provide different data
+        NEW_TEMPERATURE.log(Math.round(currentTemperature * 100));
+    }
 
+    // encodes the current temperature once for reads and notifications of both characteristics
+    private void publishTemperature() {
         // this is for temperature in Celsius or Fahrenheit ("00002A1C-0000-1000-8000-00805f9b34fb")
         byte flag = 0;
         // bit 0 = Temperature Units Flag, 0 = Celsius, 1 = Fahrenheit
@@ -185,24 +140,12 @@ public class TemperatureService extends BaseService {
 
         // as we want Fahrenheit we need to converse the data
         float temperature = celsiusToFahrenheit(currentTemperature);
+        measurementValue.publish(encoder.setFahrenheit(testBit(flag, 0)).setTemperature(temperature, 2).encode());
 
-        byte[] returnByte = getTemperatureValue(flag, temperature);
-        notifyCharacteristicChanged(returnByte, measurement);
-
-        /*
-        // this is for temperature in Celsius ("00002A6E-0000-1000-8000-00805f9b34fb")
-        BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
-        parser.setFloatValue(currentTemperature, 2);
-        notifyCharacteristicChanged(parser.getValue(), measurement);
-        */
-
-        handler.postDelayed(notifyRunnable, 1000); // every second a new value
-        System.out.println("** newTemp: " + currentTemperature);
-        Timber.i("new temp: %d", currentTemperature);
-    }
-
-    private void stopNotifying() {
-        handler.removeCallbacks(notifyRunnable);
+        // temperature in Fahrenheit (""00002A20-0000-1000-8000-00805f9b34fb"")
+        // the value is a sint16 with a decimal exponent of -1 and not a FLOAT, see
+        // https://github.com/oesmith/gatt-xml/blob/master/org.bluetooth.characteristic.temperature_fahrenheit.xml
+        fahrenheitValue.publish(encoder.encodeFahrenheit(temperature));
     }
 
     @Override
@@ -219,19 +162,6 @@ public class TemperatureService extends BaseService {
      * utilities for manipulating the data
      */
 
-    private byte[] getTemperatureValue(byte flag, float temperature) {
-        byte[] flagByte = new byte[1];
-        flagByte[0] = flag;
-        BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
-        parser.setFloatValue(temperature, 2);
-        byte[] floatValueByte = parser.getValue();
-        int floatValueByteLength = floatValueByte.length;
-        byte[] returnByte = new byte[1 + floatValueByteLength]; // 1 byte for flag, xx bytes for floatValue
-        System.arraycopy(flagByte, 0, returnByte, 0, 1);
-        System.arraycopy(floatValueByte, 0, returnByte, 1, floatValueByteLength);
-        return returnByte;
-    }
-
     public float celsiusToFahrenheit (@NotNull float celsius) {
         return ((celsius * 9) / 5) + 32;
         /*
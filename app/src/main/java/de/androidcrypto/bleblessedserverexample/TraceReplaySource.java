@@ -0,0 +1,118 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a recorded trace from a memory mapped file, at the original speed or faster.
+ *
+ * The file is little endian: the magic "BSTR", the version (uint16, currently 1) and the record
+ * length (uint16, 8), followed by records of the time since the start of the trace (uint32, in
+ * microseconds, not decreasing) and the value (float32). See {@link #write} to create one.
+ *
+ * The records are read straight from the mapping, a trace of any length costs no heap. At the
+ * end the trace either starts over or keeps returning its last value. Before the first record
+ * the first value is returned.
+ */
+final class TraceReplaySource implements SampleSource {
+
+    static final int MAGIC = 0x52545342; // "BSTR" read as little endian int
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 8;
+    static final int RECORD_LENGTH = 8;
+
+    @NotNull
+    private final ByteBuffer trace;
+    private final int count;
+    private final double speed;
+    private final boolean loop;
+    // length of one pass when looping: up to the last record plus the mean record interval
+    private final long lapMicros;
+    private int index;
+
+    private TraceReplaySource(@NotNull ByteBuffer trace, double speed, boolean loop) {
+        this.trace = trace;
+        this.count = (trace.limit() - HEADER_LENGTH) / RECORD_LENGTH;
+        this.speed = speed;
+        this.loop = loop;
+        long lastMicros = timeMicros(count - 1);
+        this.lapMicros = count > 1 ? lastMicros + lastMicros / (count - 1) : 0;
+    }
+
+    /**
+     * Maps a trace file.
+     *
+     * @param speed 1 replays at the original speed, 10 ten times as fast
+     * @param loop  start over at the end instead of holding the last value
+     */
+    @NotNull
+    static TraceReplaySource open(@NotNull File file, double speed, boolean loop) throws IOException {
+        if (!(speed > 0)) throw new IllegalArgumentException("speed must be positive");
+        ByteBuffer trace;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            // the mapping stays valid after the file is closed
+            trace = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        trace.order(ByteOrder.LITTLE_ENDIAN);
+        if (trace.limit() < HEADER_LENGTH + RECORD_LENGTH || trace.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a sample trace");
+        }
+        if ((trace.getShort(4) & 0xFFFF) != VERSION || (trace.getShort(6) & 0xFFFF) != RECORD_LENGTH
+                || (trace.limit() - HEADER_LENGTH) % RECORD_LENGTH != 0) {
+            throw new IOException(file + " has an unsupported trace format");
+        }
+        return new TraceReplaySource(trace, speed, loop);
+    }
+
+    /**
+     * Writes a trace file, e.g. from a recording or for a test.
+     *
+     * @param timesMicros time of every value since the start of the trace, not decreasing
+     */
+    static void write(@NotNull File file, @NotNull long[] timesMicros, @NotNull float[] values) throws IOException {
+        if (timesMicros.length != values.length || values.length == 0) throw new IllegalArgumentException("need the same number of times and values");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + values.length * RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_LENGTH);
+        long previous = 0;
+        for (int i = 0; i < values.length; i++) {
+            long time = timesMicros[i];
+            if (time < previous || time > 0xFFFFFFFFL) throw new IllegalArgumentException("times must not decrease and fit in 32 bits");
+            buffer.putInt((int) time).putFloat(values[i]);
+            previous = time;
+        }
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(buffer.array());
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    @Override
+    public double valueAt(long elapsedNanos) {
+        long micros = (long) (elapsedNanos / 1000 * speed);
+        if (loop && lapMicros > 0) {
+            micros %= lapMicros;
+        }
+        if (micros < timeMicros(index)) {
+            // started over
+            index = 0;
+        }
+        while (index + 1 < count && timeMicros(index + 1) <= micros) {
+            index++;
+        }
+        return trace.getFloat(HEADER_LENGTH + index * RECORD_LENGTH + 4);
+    }
+
+    private long timeMicros(int record) {
+        return trace.getInt(HEADER_LENGTH + record * RECORD_LENGTH) & 0xFFFFFFFFL;
+    }
+}
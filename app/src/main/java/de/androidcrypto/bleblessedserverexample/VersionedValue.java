@@ -0,0 +1,107 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Latest encoded value of a readable characteristic.
+ *
+ * The producer of the characteristic publishes every value it encodes; a read hands out the
+ * prepared ReadResponse of the newest snapshot through a volatile reference, it neither locks
+ * nor encodes nor allocates on the GATT callback thread.
+ *
+ * Values that go stale without a running producer (e.g. the current time when nobody is
+ * subscribed) can be kept warm with {@link #enableRefreshAhead}: a read of a value older than half
+ * the refresh period wakes a background refresh on the scheduler, which keeps refreshing at that
+ * period as long as reads keep coming. The wakeup does not wait for the scheduler lock, and the
+ * read still returns the current snapshot, so the first read after a long idle time gets the value
+ * published last and the reads after it get fresh ones.
+ */
+final class VersionedValue {
+
+    /**
+     * Encodes a fresh value. Called on the scheduler thread.
+     */
+    interface Source {
+        @NotNull
+        byte[] encode();
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final long publishedAtNanos;
+        final ReadResponse response;
+
+        Snapshot(long version, long publishedAtNanos, byte[] value) {
+            this.version = version;
+            this.publishedAtNanos = publishedAtNanos;
+            this.response = new ReadResponse(GattStatus.SUCCESS, value);
+        }
+    }
+
+    private volatile Snapshot snapshot;
+    private Source source;
+    private NotificationScheduler.Producer refresher;
+    private long refreshAheadNanos;
+    private long keepWarmNanos;
+    private volatile boolean warm;
+    private volatile long lastReadNanos;
+
+    VersionedValue(@NotNull byte[] initialValue) {
+        this.snapshot = new Snapshot(0, System.nanoTime(), initialValue.clone());
+    }
+
+    /**
+     * @param periodMillis refresh period while reads keep coming, reads of values older than half of it start the refresh
+     */
+    VersionedValue enableRefreshAhead(@NotNull NotificationScheduler scheduler, @NotNull String name, long periodMillis, @NotNull Source source) {
+        this.source = source;
+        this.refreshAheadNanos = periodMillis * 500_000L;
+        this.keepWarmNanos = periodMillis * 10_000_000L;
+        this.refresher = scheduler.register(name + " refresh", periodMillis, this::refresh);
+        return this;
+    }
+
+    /**
+     * Publishes a new value, the array is copied. Safe to call from any thread.
+     */
+    synchronized void publish(@NotNull byte[] value) {
+        snapshot = new Snapshot(snapshot.version + 1, System.nanoTime(), value.clone());
+    }
+
+    @NotNull
+    ReadResponse read() {
+        Snapshot current = snapshot;
+        if (refresher == null) return current.response;
+
+        long now = System.nanoTime();
+        lastReadNanos = now;
+        if (now - current.publishedAtNanos > refreshAheadNanos && !warm) {
+            // a request the scheduler has not taken over yet is repeated by the next stale read
+            warm = refresher.requestStart();
+        }
+        return current.response;
+    }
+
+    /**
+     * @return the current value, do not modify
+     */
+    @NotNull
+    byte[] getValue() {
+        return snapshot.response.value;
+    }
+
+    long getVersion() {
+        return snapshot.version;
+    }
+
+    private void refresh() {
+        publish(source.encode());
+        if (System.nanoTime() - lastReadNanos > keepWarmNanos) {
+            warm = false;
+            refresher.stop();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic {@link SampleSource}s. They are deterministic: the random walk takes a seed, so two
+ * runs with the same parameters produce the same values.
+ */
+final class Waveforms {
+
+    private Waveforms() {
+    }
+
+    @NotNull
+    static SampleSource constant(double value) {
+        return elapsedNanos -> value;
+    }
+
+    /**
+     * offset + amplitude * sin(2 pi t / period)
+     */
+    @NotNull
+    static SampleSource sine(double offset, double amplitude, long periodMillis) {
+        if (periodMillis <= 0) throw new IllegalArgumentException("period must be positive");
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        return elapsedNanos -> offset + amplitude * Math.sin(2 * Math.PI * (elapsedNanos % periodNanos) / periodNanos);
+    }
+
+    /**
+     * Starts at the initial value and moves by a uniformly distributed step of at most maxStep
+     * in either direction every stepMillis, the value stays within min and max.
+     */
+    @NotNull
+    static SampleSource randomWalk(long seed, double initial, double maxStep, long stepMillis, double min, double max) {
+        if (stepMillis <= 0) throw new IllegalArgumentException("step must be positive");
+        if (min > max || initial < min || initial > max) throw new IllegalArgumentException("initial value must be within min and max");
+        return new RandomWalk(seed, initial, maxStep, TimeUnit.MILLISECONDS.toNanos(stepMillis), min, max);
+    }
+
+    private static final class RandomWalk implements SampleSource {
+        private final Random random;
+        private final double maxStep;
+        private final long stepNanos;
+        private final double min;
+        private final double max;
+        private double value;
+        private long steps;
+
+        private RandomWalk(long seed, double initial, double maxStep, long stepNanos, double min, double max) {
+            this.random = new Random(seed);
+            this.value = initial;
+            this.maxStep = maxStep;
+            this.stepNanos = stepNanos;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double valueAt(long elapsedNanos) {
+            // takes every step up to the given time, a producer that runs less often than the
+            // walk steps still sees the same values as one that runs at the step rate
+            for (long due = elapsedNanos / stepNanos; steps < due; steps++) {
+                value = Math.max(min, Math.min(max, value + (random.nextDouble() * 2 - 1) * maxStep));
+            }
+            return value;
+        }
+    }
+}
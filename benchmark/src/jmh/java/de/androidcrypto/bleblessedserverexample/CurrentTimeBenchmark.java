@@ -0,0 +1,66 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import com.welie.blessed.BluetoothBytesParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteOrder;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Current Time (0x2A2B) encode of CurrentTimeService.getCurrentTime and the decode that
+ * BluetoothServer.onNotificationSent does for the UI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CurrentTimeBenchmark {
+
+    private final long offset = 1500;
+    private byte[] currentTime;
+
+    @Setup
+    public void setup() {
+        currentTime = encode();
+    }
+
+    /**
+     * getCurrentTime including the bytes2String argument that is built for the log call
+     */
+    @Benchmark
+    public byte[] encodeAsImplemented() {
+        byte[] value = encode();
+        String logged = BluetoothBytesParser.bytes2String(value);
+        return logged.isEmpty() ? null : value;
+    }
+
+    @Benchmark
+    public byte[] encodeOnly() {
+        return encode();
+    }
+
+    @Benchmark
+    public String decodeToUiString() {
+        BluetoothBytesParser parser = new BluetoothBytesParser(currentTime, ByteOrder.LITTLE_ENDIAN);
+        Date date = parser.getDateTime();
+        return date.toString();
+    }
+
+    private byte[] encode() {
+        BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
+        Calendar cal = Calendar.getInstance();
+        Date date = cal.getTime();
+        date.setTime(date.getTime() - offset);
+        cal.setTime(date);
+        parser.setCurrentTime(cal);
+        return parser.getValue();
+    }
+}
@@ -0,0 +1,173 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the handler of a characteristic read the way BluetoothServer did it (hash the platform
+ * service object, then compare UUIDs in the service) against the GattDispatchTable identity lookup.
+ * The services mirror the layout of the app: 2, 1, 1 and 2 characteristics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+    private static final ReadResponse FIRST = new ReadResponse(GattStatus.SUCCESS, new byte[]{1});
+    private static final ReadResponse SECOND = new ReadResponse(GattStatus.SUCCESS, new byte[]{2});
+    private static final ReadResponse NOT_SUPPORTED = new ReadResponse(GattStatus.REQUEST_NOT_SUPPORTED, null);
+
+    private final HashMap<BluetoothGattService, Service> serviceImplementations = new HashMap<>();
+    private final List<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+    private GattDispatchTable dispatchTable;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<Service> services = new ArrayList<>();
+        int[] layout = {2, 1, 1, 2};
+        for (int s = 0; s < layout.length; s++) {
+            BenchService service = new BenchService(s, layout[s]);
+            services.add(service);
+            serviceImplementations.put(service.getService(), service);
+            characteristics.addAll(service.getService().getCharacteristics());
+        }
+        dispatchTable = new GattDispatchTable(services);
+    }
+
+    @Benchmark
+    public ReadResponse hashServiceAndCompareUuids() {
+        BluetoothGattCharacteristic characteristic = nextCharacteristic();
+        Service serviceImplementation = serviceImplementations.get(characteristic.getService());
+        return ((BenchService) serviceImplementation).readByUuid(characteristic);
+    }
+
+    @Benchmark
+    public ReadResponse dispatchTableIdentity() {
+        BluetoothGattCharacteristic characteristic = nextCharacteristic();
+        Service serviceImplementation = dispatchTable.forCharacteristic(characteristic);
+        return serviceImplementation.onCharacteristicRead(null, characteristic);
+    }
+
+    private BluetoothGattCharacteristic nextCharacteristic() {
+        next = (next + 1) % characteristics.size();
+        return characteristics.get(next);
+    }
+
+    private static final class BenchService implements Service {
+        private final BluetoothGattService service;
+        private final BluetoothGattCharacteristic first;
+        private final BluetoothGattCharacteristic second;
+        private final UUID firstUuid;
+        private final UUID secondUuid;
+
+        BenchService(int index, int characteristicCount) {
+            service = new BluetoothGattService(uuid(0x1800 + index), BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            firstUuid = uuid(0x2A00 + index * 2);
+            secondUuid = uuid(0x2A01 + index * 2);
+            first = new BluetoothGattCharacteristic(firstUuid, BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+            service.addCharacteristic(first);
+            if (characteristicCount > 1) {
+                second = new BluetoothGattCharacteristic(secondUuid, BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+                service.addCharacteristic(second);
+            } else {
+                second = null;
+            }
+        }
+
+        private static UUID uuid(int shortUuid) {
+            return UUID.fromString(String.format("0000%04X-0000-1000-8000-00805f9b34fb", shortUuid));
+        }
+
+        ReadResponse readByUuid(BluetoothGattCharacteristic characteristic) {
+            if (characteristic.getUuid().equals(firstUuid)) {
+                return FIRST;
+            } else if (characteristic.getUuid().equals(secondUuid)) {
+                return SECOND;
+            }
+            return NOT_SUPPORTED;
+        }
+
+        @Override
+        public ReadResponse onCharacteristicRead(GattCentral central, BluetoothGattCharacteristic characteristic) {
+            if (characteristic == first) {
+                return FIRST;
+            } else if (characteristic == second) {
+                return SECOND;
+            }
+            return NOT_SUPPORTED;
+        }
+
+        @Override
+        public ReadResponse onCharacteristicRead(GattCentral central, BluetoothGattCharacteristic characteristic, int offset) {
+            return onCharacteristicRead(central, characteristic);
+        }
+
+        @Override
+        public BluetoothGattService getService() {
+            return service;
+        }
+
+        @Override
+        public String getServiceName() {
+            return "Benchmark Service";
+        }
+
+        @Override
+        public GattStatus onCharacteristicWrite(GattCentral central, BluetoothGattCharacteristic characteristic, byte[] value) {
+            return GattStatus.REQUEST_NOT_SUPPORTED;
+        }
+
+        @Override
+        public void onCharacteristicWriteCompleted(GattCentral central, BluetoothGattCharacteristic characteristic, byte[] value) {
+        }
+
+        @Override
+        public ReadResponse onDescriptorRead(GattCentral central, BluetoothGattDescriptor descriptor) {
+            return NOT_SUPPORTED;
+        }
+
+        @Override
+        public GattStatus onDescriptorWrite(GattCentral central, BluetoothGattDescriptor descriptor, byte[] value) {
+            return GattStatus.REQUEST_NOT_SUPPORTED;
+        }
+
+        @Override
+        public void onNotifyingEnabled(GattCentral central, BluetoothGattCharacteristic characteristic) {
+        }
+
+        @Override
+        public void onNotifyingDisabled(GattCentral central, BluetoothGattCharacteristic characteristic) {
+        }
+
+        @Override
+        public void onNotificationSent(GattCentral central, byte[] value, BluetoothGattCharacteristic characteristic, GattStatus status) {
+        }
+
+        @Override
+        public void onCentralConnected(GattCentral central) {
+        }
+
+        @Override
+        public void onCentralDisconnected(GattCentral central) {
+        }
+    }
+}
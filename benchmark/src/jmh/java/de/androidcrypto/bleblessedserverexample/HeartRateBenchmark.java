@@ -0,0 +1,75 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT16;
+import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
+
+import com.welie.blessed.BluetoothBytesParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heart Rate Measurement (0x2A37) encode and the decode done in BluetoothServer.onNotificationSent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeartRateBenchmark {
+
+    private final HeartRateMeasurementEncoder encoder = new HeartRateMeasurementEncoder();
+    private byte[] uint8Measurement;
+    private byte[] fullMeasurement;
+    private int heartRate;
+
+    @Setup
+    public void setup() {
+        encoder.setSensorContact(true, true);
+        uint8Measurement = new HeartRateMeasurementEncoder().setHeartRate(80).encode();
+        HeartRateMeasurementEncoder full = new HeartRateMeasurementEncoder().setHeartRate(300).setEnergyExpended(120);
+        for (int i = 0; i < 7; i++) full.addRrInterval(768);
+        fullMeasurement = full.encode().clone();
+    }
+
+    /**
+     * what HeartRateService.notifyHeartRate did before the encoder
+     */
+    @Benchmark
+    public byte[] encodeLegacyArray() {
+        heartRate = (heartRate + 1) & 0x7F;
+        return new byte[]{0x00, (byte) heartRate};
+    }
+
+    @Benchmark
+    public byte[] encodeWithRrInterval() {
+        heartRate = (heartRate + 1) & 0x7F;
+        return encoder.setHeartRate(40 + heartRate).addRrInterval(768).encode();
+    }
+
+    /**
+     * what BluetoothServer.onNotificationSent did before the static decode
+     */
+    @Benchmark
+    public int decodeBytesParser() {
+        BluetoothBytesParser parser = new BluetoothBytesParser(fullMeasurement);
+        int flags = parser.getIntValue(FORMAT_UINT8);
+        final int unit = flags & 0x01;
+        return (unit == 0) ? parser.getIntValue(FORMAT_UINT8) : parser.getIntValue(FORMAT_UINT16);
+    }
+
+    @Benchmark
+    public int decodeStatic() {
+        return HeartRateMeasurementEncoder.decodeHeartRate(fullMeasurement);
+    }
+
+    @Benchmark
+    public int decodeStaticUint8() {
+        return HeartRateMeasurementEncoder.decodeHeartRate(uint8Measurement);
+    }
+}
@@ -0,0 +1,79 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static com.welie.blessed.BluetoothBytesParser.FORMAT_FLOAT;
+import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
+
+import com.welie.blessed.BluetoothBytesParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Temperature Measurement (0x2A1C) encode and decode, the BluetoothBytesParser.setFloatValue path
+ * TemperatureService used before against the IEEE-11073 codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemperatureBenchmark {
+
+    private final TemperatureMeasurementEncoder encoder = new TemperatureMeasurementEncoder().setFahrenheit(true);
+    private final byte[] callerBuffer = new byte[16];
+    private byte[] measurement;
+    private float temperature = 71.6f;
+
+    @Setup
+    public void setup() {
+        measurement = new TemperatureMeasurementEncoder().setFahrenheit(true).setTemperature(71.6, 2).encode();
+    }
+
+    /**
+     * TemperatureService.getTemperatureValue as it was: flag array, parser, result array and two copies
+     */
+    @Benchmark
+    public byte[] encodeBytesParser() {
+        temperature += 0.01f;
+        byte[] flagByte = new byte[1];
+        flagByte[0] = TemperatureMeasurementEncoder.FLAG_FAHRENHEIT;
+        BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
+        parser.setFloatValue(temperature, 2);
+        byte[] floatValueByte = parser.getValue();
+        int floatValueByteLength = floatValueByte.length;
+        byte[] returnByte = new byte[1 + floatValueByteLength];
+        System.arraycopy(flagByte, 0, returnByte, 0, 1);
+        System.arraycopy(floatValueByte, 0, returnByte, 1, floatValueByteLength);
+        return returnByte;
+    }
+
+    @Benchmark
+    public byte[] encodeIeee11073() {
+        temperature += 0.01f;
+        return encoder.setTemperature(temperature, 2).encode();
+    }
+
+    @Benchmark
+    public int encodeIeee11073CallerBuffer() {
+        temperature += 0.01f;
+        return encoder.setTemperature(temperature, 2).encode(callerBuffer, 0);
+    }
+
+    @Benchmark
+    public float decodeBytesParser() {
+        BluetoothBytesParser parser = new BluetoothBytesParser(measurement, ByteOrder.LITTLE_ENDIAN);
+        parser.getIntValue(FORMAT_UINT8); // flags
+        return parser.getFloatValue(FORMAT_FLOAT);
+    }
+
+    @Benchmark
+    public double decodeIeee11073() {
+        return TemperatureMeasurementEncoder.decodeTemperature(measurement);
+    }
+}
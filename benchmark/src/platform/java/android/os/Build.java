@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Plain JVM stand-in for the framework class, the device strings the Device Information Service reads.
+ */
+public class Build {
+
+    public static final String MANUFACTURER = "JVM";
+    public static final String MODEL = "Simulator";
+    public static final String HARDWARE = "jvm";
+    public static final String DISPLAY = "simulator-1";
+}
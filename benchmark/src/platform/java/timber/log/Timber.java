@@ -0,0 +1,31 @@
+package timber.log;
+
+/**
+ * Plain JVM stand-in for Timber without a planted tree, every call is a no-op.
+ */
+public final class Timber {
+
+    private Timber() {
+    }
+
+    public static void v(String message, Object... args) {
+    }
+
+    public static void d(String message, Object... args) {
+    }
+
+    public static void i(String message, Object... args) {
+    }
+
+    public static void w(String message, Object... args) {
+    }
+
+    public static void e(String message, Object... args) {
+    }
+
+    public static void e(Throwable t, String message, Object... args) {
+    }
+
+    public static void log(int priority, String message, Object... args) {
+    }
+}
@@ -0,0 +1,88 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdvertisingControllerTest {
+
+    private final NotificationScheduler scheduler = new NotificationScheduler();
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void followsTheConnections() throws InterruptedException {
+        List<Integer> modes = new ArrayList<>();
+        AtomicInteger stopped = new AtomicInteger();
+        AdvertisingManager manager = new AdvertisingManager(new AdvertisingManager.Advertiser() {
+            @Override
+            public void startAdvertising(AdvertisingPlan.PayloadSet payload, int mode) {
+                synchronized (modes) {
+                    modes.add(mode);
+                }
+            }
+
+            @Override
+            public void stopAdvertising() {
+                stopped.incrementAndGet();
+            }
+        }, scheduler);
+        AdvertisingPlan plan = new AdvertisingPlan(Collections.singletonList(HeartRateService.HEART_BEAT_RATE_SERVICE_UUID), 7, true);
+        AdvertisingController controller = new AdvertisingController(manager, plan, scheduler, metrics, 4, 100, 300);
+        controller.start();
+        controller.onAdvertisingStarted();
+        assertEquals(AdvertisingManager.MODE_LOW_LATENCY, controller.getMode());
+
+        Thread.sleep(120);
+        controller.onCentralConnected();
+        assertEquals("after the burst", AdvertisingManager.MODE_BALANCED, controller.getMode());
+        controller.onCentralConnected();
+        assertEquals("half of the centrals connected", AdvertisingManager.MODE_LOW_POWER, controller.getMode());
+        controller.onCentralConnected();
+        controller.onCentralConnected();
+        assertEquals("all centrals connected", -1, controller.getMode());
+        assertEquals(1, stopped.get());
+        controller.onAdvertisingStopped();
+
+        controller.onCentralDisconnected();
+        assertEquals("a central left", AdvertisingManager.MODE_LOW_LATENCY, controller.getMode());
+        controller.onAdvertisingStarted();
+        Thread.sleep(20);
+        controller.onCentralConnected();
+        assertEquals(2, stopped.get());
+        controller.onAdvertisingStopped();
+
+        for (int i = 0; i < 4; i++) {
+            controller.onCentralDisconnected();
+        }
+        controller.onAdvertisingStarted();
+        // the scheduler evaluates once a second, by then nobody came or went for the idle time
+        Thread.sleep(1100);
+        assertEquals("idle", AdvertisingManager.MODE_LOW_POWER, controller.getMode());
+        controller.stop();
+        controller.onAdvertisingStopped();
+
+        ServerMetrics.Snapshot snapshot = new ServerMetrics.Snapshot();
+        metrics.snapshot(snapshot);
+        assertEquals(2, snapshot.discoveryCount);
+        assertTrue(snapshot.discoveryMaxNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(snapshot.advertisingOnNanos >= TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals("counted after stop", snapshot.advertisingOnNanos, controller.getAdvertisingOnNanos());
+        synchronized (modes) {
+            assertEquals(AdvertisingManager.MODE_LOW_LATENCY, (int) modes.get(0));
+            assertTrue(modes.contains(AdvertisingManager.MODE_BALANCED));
+        }
+    }
+}
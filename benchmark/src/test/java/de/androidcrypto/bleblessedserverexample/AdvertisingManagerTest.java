@@ -0,0 +1,97 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdvertisingManagerTest {
+
+    private final NotificationScheduler scheduler = new NotificationScheduler();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void rotatesThroughThePayloadSets() throws InterruptedException {
+        AdvertisingPlan plan = new AdvertisingPlan(AdvertisingPlanTest.SERVICES, "Pixel 7".length(), true);
+        List<AdvertisingPlan.PayloadSet> onAir = new ArrayList<>();
+        AtomicInteger stopped = new AtomicInteger();
+        AdvertisingManager advertising = new AdvertisingManager(new AdvertisingManager.Advertiser() {
+            @Override
+            public void startAdvertising(AdvertisingPlan.PayloadSet payload, int mode) {
+                synchronized (onAir) {
+                    onAir.add(payload);
+                }
+            }
+
+            @Override
+            public void stopAdvertising() {
+                stopped.incrementAndGet();
+            }
+        }, scheduler, 50);
+        advertising.start(plan);
+        Thread.sleep(260);
+        advertising.onCentralConnected();
+        AdvertisingPlan.PayloadSet current = advertising.getPayloadOnAir();
+        advertising.stop();
+        int rotations;
+        synchronized (onAir) {
+            rotations = onAir.size();
+            assertTrue(new HashSet<>(onAir).containsAll(plan.getSets()));
+        }
+        assertEquals(1, stopped.get());
+        for (UUID service : AdvertisingPlanTest.SERVICES) {
+            LatencyHistogram latency = advertising.getDiscoveryLatency(service);
+            assertEquals(service.toString(), current.contains(service), latency != null);
+        }
+        Thread.sleep(120);
+        synchronized (onAir) {
+            assertEquals("rotated after stop", rotations, onAir.size());
+        }
+    }
+
+    @Test
+    public void putsSetsOnAirOnceTheirServicesAreLive() throws InterruptedException {
+        AdvertisingPlan plan = new AdvertisingPlan(AdvertisingPlanTest.SERVICES, "Pixel 7".length(), true);
+        Set<UUID> live = Collections.synchronizedSet(new HashSet<UUID>());
+        live.addAll(plan.getSets().get(0).advertised);
+        live.addAll(plan.getSets().get(0).scanResponse);
+        Set<AdvertisingPlan.PayloadSet> onAir = Collections.synchronizedSet(new HashSet<AdvertisingPlan.PayloadSet>());
+        AdvertisingManager advertising = new AdvertisingManager(new AdvertisingManager.Advertiser() {
+            @Override
+            public void startAdvertising(AdvertisingPlan.PayloadSet payload, int mode) {
+                onAir.add(payload);
+            }
+
+            @Override
+            public void stopAdvertising() {
+            }
+        }, scheduler, 50);
+        advertising.setAvailability(live::contains);
+        advertising.start(plan);
+        Thread.sleep(200);
+        assertEquals(Collections.singleton(plan.getSets().get(0)), new HashSet<>(onAir));
+
+        live.addAll(plan.getSets().get(2).scanResponse);
+        Thread.sleep(200);
+        assertEquals(new HashSet<>(Arrays.asList(plan.getSets().get(0), plan.getSets().get(2))), new HashSet<>(onAir));
+
+        live.addAll(AdvertisingPlanTest.SERVICES);
+        Thread.sleep(200);
+        advertising.stop();
+        assertEquals(new HashSet<>(plan.getSets()), new HashSet<>(onAir));
+    }
+}
@@ -0,0 +1,50 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public class AdvertisingPlanTest {
+
+    static final List<UUID> SERVICES = Arrays.asList(
+            HeartRateService.HEART_BEAT_RATE_SERVICE_UUID,
+            TemperatureService.ENVIRONMENTAL_SENSING_SERVICE_UUID,
+            UUID.fromString("00001805-0000-1000-8000-00805f9b34fb"),
+            DeviceInformationService.DEVICE_INFORMATION_SERVICE_UUID,
+            SampleStreamService.SAMPLE_STREAM_SERVICE_UUID,
+            ServerStatisticsService.SERVER_STATISTICS_SERVICE_UUID,
+            BulkIngestService.BULK_INGEST_SERVICE_UUID,
+            ControlPointService.CONTROL_POINT_SERVICE_UUID);
+
+    @Test
+    public void packsServicesAndSpreadsTheRest() {
+        AdvertisingPlan plan = new AdvertisingPlan(SERVICES, "Pixel 7".length(), true);
+        // the four 16 bit UUIDs are always on air, the 128 bit ones take turns in the scan response
+        assertEquals(SERVICES.subList(0, 4), plan.getFixed());
+        assertEquals(4, plan.getSets().size());
+        Set<UUID> covered = new HashSet<>();
+        for (AdvertisingPlan.PayloadSet set : plan.getSets()) {
+            assertEquals(plan.getFixed(), set.advertised);
+            assertTrue(set.includeName);
+            assertTrue(AdvertisingPlan.FLAGS_LENGTH + AdvertisingPlan.TX_POWER_LENGTH + AdvertisingPlan.encodedLength(set.advertised) <= AdvertisingPlan.MAX_PAYLOAD_LENGTH);
+            assertTrue(AdvertisingPlan.AD_HEADER_LENGTH + 7 + AdvertisingPlan.encodedLength(set.scanResponse) <= AdvertisingPlan.MAX_PAYLOAD_LENGTH);
+            covered.addAll(set.advertised);
+            covered.addAll(set.scanResponse);
+        }
+        assertEquals(new HashSet<>(SERVICES), covered);
+    }
+
+    @Test
+    public void dropsANameThatLeavesNoRoom() {
+        assertFalse(new AdvertisingPlan(SERVICES, 20, true).getSets().get(0).includeName);
+        assertEquals(1, new AdvertisingPlan(SERVICES.subList(0, 2), 20, true).getSets().size());
+    }
+}
@@ -0,0 +1,106 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.GattStatus;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BulkIngestServiceTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void retransmitsLostChunks() throws InterruptedException {
+        GattDispatcher dispatcher = server.dispatcher;
+        BulkIngestService bulkIngest = server.bulkIngest;
+        BluetoothGattCharacteristic control = server.characteristic(BulkIngestService.BULK_INGEST_CONTROL_CHARACTERISTIC_UUID);
+        BluetoothGattCharacteristic data = server.characteristic(BulkIngestService.BULK_INGEST_DATA_CHARACTERISTIC_UUID);
+        byte[] blob = new byte[300 * 1024 + 17];
+        new Random(21).nextBytes(blob);
+        AtomicReference<byte[]> ingested = new AtomicReference<>();
+        bulkIngest.setTransferListener((central, value) -> {
+            byte[] copy = new byte[value.remaining()];
+            value.get(copy);
+            ingested.set(copy);
+        });
+
+        VirtualCentral gateway = server.peripheral.connect(0, 247);
+        BlockingQueue<byte[]> notifications = new LinkedBlockingQueue<>();
+        gateway.listener = (characteristic, value) -> notifications.add(value.clone());
+        server.peripheral.subscribe(gateway, control);
+        int chunkLength = 247 - 3 - BulkIngestService.CHUNK_HEADER_LENGTH;
+        int chunkCount = (blob.length + chunkLength - 1) / chunkLength;
+        assertEquals(GattStatus.SUCCESS, server.peripheral.write(gateway, control, start(blob.length, chunkLength)));
+
+        // another central has to wait for the running transfer
+        VirtualCentral other = server.peripheral.connect(1, 247);
+        assertEquals(GattStatus.BUSY, server.peripheral.write(other, control, start(100, chunkLength)));
+
+        // the link loses every 37th chunk and the last one the first time they are sent
+        Set<Integer> lost = new HashSet<>();
+        int next = 0;
+        while (true) {
+            byte[] notification = notifications.poll(2, TimeUnit.SECONDS);
+            assertNotNull("no credit from the server", notification);
+            if ((notification[0] & 0xFF) == BulkIngestService.COMPLETE) break;
+            assertEquals(BulkIngestService.CREDIT, notification[0] & 0xFF);
+            int expected = uint16(notification, 1);
+            int limit = uint16(notification, 3);
+            for (int i = 5; i < notification.length; i += 2) {
+                dispatcher.onCharacteristicWrite(gateway, data, chunk(blob, uint16(notification, i), chunkLength));
+            }
+            // nothing reported missing but not everything arrived: the tail was lost
+            if (notification.length == 5 && next == chunkCount && expected < next) next = expected;
+            for (; next < limit; next++) {
+                if ((next % 37 == 5 || next == chunkCount - 1) && lost.add(next)) continue;
+                dispatcher.onCharacteristicWrite(gateway, data, chunk(blob, next, chunkLength));
+            }
+        }
+
+        assertNotNull(ingested.get());
+        assertArrayEquals(blob, ingested.get());
+        assertEquals(0, bulkIngest.getRejectedChunks());
+        assertFalse(bulkIngest.isTransferRunning());
+
+        // a transfer ends with the connection of its sender
+        assertEquals(GattStatus.SUCCESS, server.peripheral.write(other, control, start(100, chunkLength)));
+        server.peripheral.disconnect(other);
+        assertFalse(bulkIngest.isTransferRunning());
+        assertEquals(GattStatus.WRITE_NOT_PERMITTED, dispatcher.onCharacteristicWrite(gateway, data, chunk(blob, 0, chunkLength)));
+        server.peripheral.disconnect(gateway);
+    }
+
+    private static byte[] start(int length, int chunkLength) {
+        return new byte[]{BulkIngestService.START, (byte) length, (byte) (length >> 8), (byte) (length >> 16), (byte) (length >> 24), (byte) chunkLength, (byte) (chunkLength >> 8)};
+    }
+
+    private static byte[] chunk(byte[] blob, int sequence, int chunkLength) {
+        int offset = sequence * chunkLength;
+        int length = Math.min(chunkLength, blob.length - offset);
+        byte[] chunk = new byte[BulkIngestService.CHUNK_HEADER_LENGTH + length];
+        chunk[0] = (byte) sequence;
+        chunk[1] = (byte) (sequence >> 8);
+        System.arraycopy(blob, offset, chunk, BulkIngestService.CHUNK_HEADER_LENGTH, length);
+        return chunk;
+    }
+
+    private static int uint16(byte[] value, int offset) {
+        return (value[offset] & 0xFF) | (value[offset + 1] & 0xFF) << 8;
+    }
+}
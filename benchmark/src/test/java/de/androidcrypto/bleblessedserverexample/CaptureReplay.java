@@ -0,0 +1,175 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a capture of the app (see {@link GattCapture}) back through the services on a
+ * {@link SimulatedPeripheral}, at the recorded speed or faster. Connections, reads, writes and
+ * subscriptions are replayed, the notifications are produced by the services again; the captured
+ * notifications are only counted for comparison. Run it from the project root with
+ * ./gradlew -p benchmark replayCapture -Pcapture=path/to/capture -Pspeed=10
+ */
+final class CaptureReplay {
+
+    // centrals that connected before the oldest segment still there get the default MTU
+    private static final int DEFAULT_MTU = 23;
+
+    @NotNull
+    private final SimulatedPeripheral peripheral;
+    @NotNull
+    private final GattDispatcher dispatcher;
+    private final Map<String, VirtualCentral> centrals = new HashMap<>();
+    private final Map<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<>();
+
+    long recordsReplayed;
+    long recordsSkipped;
+    long capturedNotifications;
+
+    CaptureReplay(@NotNull SimulatedPeripheral peripheral, @NotNull GattDispatcher dispatcher) {
+        this.peripheral = peripheral;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Replays a whole capture, the centrals that are still connected at its end stay connected.
+     *
+     * @param speed 1 keeps the recorded timing, 10 replays ten times as fast, 0 as fast as possible
+     */
+    void replay(@NotNull File directory, double speed) throws IOException, InterruptedException {
+        GattCaptureReader reader = new GattCaptureReader(directory);
+        long startNanos = System.nanoTime();
+        long firstRecordNanos = -1;
+        while (reader.next()) {
+            if (firstRecordNanos < 0) firstRecordNanos = reader.getTimeNanos();
+            if (speed > 0) {
+                long due = startNanos + (long) ((reader.getTimeNanos() - firstRecordNanos) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (apply(reader)) {
+                recordsReplayed++;
+            } else {
+                recordsSkipped++;
+            }
+        }
+    }
+
+    // false if the record refers to something the services do not have
+    private boolean apply(@NotNull GattCaptureReader record) {
+        String address = record.getAddress();
+        if (record.getType() == GattCapture.CONNECTED) {
+            VirtualCentral previous = centrals.remove(address);
+            if (previous != null) peripheral.disconnect(previous);
+            centrals.put(address, peripheral.connect(address, record.getValueUint16()));
+            return true;
+        } else if (record.getType() == GattCapture.DISCONNECTED) {
+            VirtualCentral central = centrals.remove(address);
+            if (central != null) peripheral.disconnect(central);
+            return central != null;
+        }
+
+        VirtualCentral central = centrals.get(address);
+        if (central == null) {
+            central = peripheral.connect(address, DEFAULT_MTU);
+            centrals.put(address, central);
+        }
+        BluetoothGattCharacteristic characteristic = characteristic(record.getCharacteristicUuid());
+        if (characteristic == null) return false;
+        switch (record.getType()) {
+            case GattCapture.READ:
+                dispatcher.onCharacteristicRead(central, characteristic);
+                return true;
+            case GattCapture.READ_BLOB:
+                dispatcher.onCharacteristicRead(central, characteristic, record.getValueUint16());
+                return true;
+            case GattCapture.WRITE:
+                dispatcher.onCharacteristicWrite(central, characteristic, record.getValue());
+                return true;
+            case GattCapture.WRITE_COMPLETED:
+                dispatcher.onCharacteristicWriteCompleted(central, characteristic, record.getValue());
+                return true;
+            case GattCapture.DESCRIPTOR_READ:
+            case GattCapture.DESCRIPTOR_WRITE:
+                BluetoothGattDescriptor descriptor = characteristic.getDescriptor(record.getDescriptorUuid());
+                if (descriptor == null) return false;
+                if (record.getType() == GattCapture.DESCRIPTOR_READ) {
+                    dispatcher.onDescriptorRead(central, descriptor);
+                } else {
+                    dispatcher.onDescriptorWrite(central, descriptor, record.getValue());
+                }
+                return true;
+            case GattCapture.NOTIFYING_ENABLED:
+                peripheral.subscribe(central, characteristic);
+                return true;
+            case GattCapture.NOTIFYING_DISABLED:
+                peripheral.unsubscribe(central, characteristic);
+                return true;
+            case GattCapture.NOTIFICATION:
+                capturedNotifications++;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private BluetoothGattCharacteristic characteristic(@Nullable UUID uuid) {
+        if (uuid == null) return null;
+        if (!characteristics.containsKey(uuid)) {
+            characteristics.put(uuid, dispatcher.findCharacteristic(uuid));
+        }
+        return characteristics.get(uuid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: CaptureReplay <capture directory> [speed, 1 = as recorded, 0 = as fast as possible]");
+            System.exit(2);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+
+        NotificationScheduler scheduler = new NotificationScheduler();
+        SimulatedPeripheral peripheral = new SimulatedPeripheral(500, 15_000, 2);
+        ServerMetrics metrics = new ServerMetrics();
+        NotificationQueue notificationQueue = new NotificationQueue(peripheral, metrics);
+        SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+        List<Service> services = new ArrayList<>();
+        services.add(new DeviceInformationService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new CurrentTimeService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new HeartRateService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new TemperatureService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new SampleStreamService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new ServerStatisticsService(peripheral, scheduler, notificationQueue, subscriptions, metrics));
+        services.add(new BulkIngestService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new ControlPointService(peripheral, scheduler, notificationQueue, subscriptions));
+        GattDispatcher dispatcher = new GattDispatcher(services, notificationQueue, subscriptions, metrics);
+        peripheral.setDispatcher(dispatcher);
+
+        CaptureReplay replay = new CaptureReplay(peripheral, dispatcher);
+        long start = System.nanoTime();
+        replay.replay(new File(args[0]), speed);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        ServerMetrics.Snapshot snapshot = new ServerMetrics.Snapshot();
+        metrics.snapshot(snapshot);
+        scheduler.shutdown();
+        peripheral.shutdown();
+
+        System.out.println(String.format(Locale.ROOT, "replayed %d records in %d ms, skipped %d", replay.recordsReplayed, elapsedMillis, replay.recordsSkipped));
+        System.out.println(String.format(Locale.ROOT, "notifications captured %d, sent in the replay %d", replay.capturedNotifications, peripheral.notificationsSent.get()));
+        System.out.println("metrics: " + snapshot);
+    }
+}
@@ -0,0 +1,26 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ConnectionLogTest {
+
+    private static final int ADDRESSES = 200;
+
+    @Test
+    public void keepsTheNewestEntries() {
+        ConnectionLog log = new ConnectionLog(ConnectionLog.DEFAULT_CAPACITY);
+        for (int i = 0; i < 100_000; i++) {
+            int type = i % 2 == 0 ? ServerEventBus.CENTRAL_CONNECTED : ServerEventBus.CENTRAL_DISCONNECTED;
+            log.add(i, type, i % ADDRESSES);
+        }
+
+        assertEquals(ConnectionLog.DEFAULT_CAPACITY, log.size());
+        assertEquals(100_000, log.getTotalCount());
+        assertEquals(99_999, log.getTimestamp(0));
+        assertEquals(ServerEventBus.CENTRAL_DISCONNECTED, log.getType(0));
+        assertEquals(100_000 - ConnectionLog.DEFAULT_CAPACITY, log.getTimestamp(log.size() - 1));
+        assertEquals((100_000 - ConnectionLog.DEFAULT_CAPACITY) % ADDRESSES, log.getAddress(log.size() - 1));
+    }
+}
@@ -0,0 +1,133 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.GattStatus;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ControlPointServiceTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void pipelinesRequests() throws InterruptedException {
+        GattDispatcher dispatcher = server.dispatcher;
+        ControlPointService controlPoint = server.controlPoint;
+        BluetoothGattCharacteristic control = server.characteristic(ControlPointService.CONTROL_POINT_CHARACTERISTIC_UUID);
+        int sleep = 0x20;
+        controlPoint.register(sleep, (central, parameters) -> {
+            if (parameters.length != 1) throw new IllegalArgumentException("takes the milliseconds to sleep");
+            Thread.sleep(parameters[0]);
+            return parameters;
+        });
+        VirtualCentral gateway = server.peripheral.connect(0, SimulatedServer.MTU);
+        BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+        gateway.listener = (characteristic, value) -> responses.add(value.clone());
+        server.peripheral.subscribe(gateway, control);
+
+        // the first requests take longest, they are still running when the later ones complete
+        long startNanos = System.nanoTime();
+        long sequentialMillis = 0;
+        for (int id = 0; id < ControlPointService.MAX_IN_FLIGHT_PER_CENTRAL; id++) {
+            int millis = 5 * (ControlPointService.MAX_IN_FLIGHT_PER_CENTRAL - id);
+            sequentialMillis += millis;
+            assertEquals(GattStatus.SUCCESS, dispatcher.onCharacteristicWrite(gateway, control, new byte[]{(byte) id, (byte) sleep, (byte) millis}));
+        }
+        assertEquals(GattStatus.VALUE_NOT_ALLOWED, dispatcher.onCharacteristicWrite(gateway, control, new byte[]{0, ControlPointService.ECHO}));
+        assertEquals(GattStatus.SUCCESS, dispatcher.onCharacteristicWrite(gateway, control, new byte[]{100, ControlPointService.ECHO}));
+
+        Set<Integer> completed = new HashSet<>();
+        int firstCompleted = -1;
+        boolean busy = false;
+        for (int i = 0; i <= ControlPointService.MAX_IN_FLIGHT_PER_CENTRAL; i++) {
+            byte[] response = responses.poll(2, TimeUnit.SECONDS);
+            assertNotNull("response missing", response);
+            if (response[0] == 100) {
+                assertEquals(ControlPointService.BUSY, response[2]);
+                busy = true;
+                continue;
+            }
+            assertEquals(sleep, response[1]);
+            assertEquals(ControlPointService.SUCCESS, response[2]);
+            assertEquals(5 * (ControlPointService.MAX_IN_FLIGHT_PER_CENTRAL - response[0]), response[3]);
+            if (firstCompleted < 0) firstCompleted = response[0];
+            completed.add((int) response[0]);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue(busy);
+        assertEquals(ControlPointService.MAX_IN_FLIGHT_PER_CENTRAL, completed.size());
+        assertTrue("responses came in request order", firstCompleted != 0);
+        assertTrue(elapsedMillis < sequentialMillis);
+
+        // errors are answered with the status, the ids are free again
+        assertEquals(0, controlPoint.getInFlightCount(gateway));
+        dispatcher.onCharacteristicWrite(gateway, control, new byte[]{0, (byte) 0x7F});
+        dispatcher.onCharacteristicWrite(gateway, control, new byte[]{1, (byte) sleep});
+        dispatcher.onCharacteristicWrite(gateway, control, new byte[]{2, ControlPointService.ECHO, 'o', 'k'});
+        int[] status = new int[3];
+        for (int i = 0; i < status.length; i++) {
+            byte[] response = responses.poll(2, TimeUnit.SECONDS);
+            assertNotNull("response missing", response);
+            status[response[0]] = response[2];
+            if (response[0] == 2) assertEquals("ok", new String(response, 3, 2, StandardCharsets.US_ASCII));
+        }
+        assertEquals(ControlPointService.OPCODE_NOT_SUPPORTED, status[0]);
+        assertEquals(ControlPointService.INVALID_PARAMETER, status[1]);
+        assertEquals(ControlPointService.SUCCESS, status[2]);
+        server.peripheral.disconnect(gateway);
+    }
+
+    @Test
+    public void slowCentralDoesNotHoldUpTheOthers() throws InterruptedException {
+        // every notification takes 300 ms to be acknowledged
+        SimulatedServer slow = new SimulatedServer(300_000, SimulatedServer.INDICATION_LATENCY_MICROS);
+        try {
+            GattDispatcher dispatcher = slow.dispatcher;
+            BluetoothGattCharacteristic control = slow.characteristic(ControlPointService.CONTROL_POINT_CHARACTERISTIC_UUID);
+            VirtualCentral gateway = slow.peripheral.connect(0, SimulatedServer.MTU);
+            VirtualCentral other = slow.peripheral.connect(1, SimulatedServer.MTU);
+            BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+            other.listener = (characteristic, value) -> responses.add(value.clone());
+            slow.peripheral.subscribe(gateway, control);
+            slow.peripheral.subscribe(other, control);
+
+            // the responses pile up in the lane of the gateway behind the one in flight, the waiting
+            // ones count against its limit
+            for (int id = 0; id <= ControlPointService.MAX_IN_FLIGHT_PER_CENTRAL; id++) {
+                assertEquals(GattStatus.SUCCESS, dispatcher.onCharacteristicWrite(gateway, control, new byte[]{(byte) id, ControlPointService.ECHO}));
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+            while (slow.controlPoint.getInFlightCount(gateway) > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, slow.controlPoint.getInFlightCount(gateway));
+            // the lane takes one busy reply, after that the write itself fails
+            assertEquals(GattStatus.SUCCESS, dispatcher.onCharacteristicWrite(gateway, control, new byte[]{20, ControlPointService.ECHO}));
+            assertEquals(0, slow.controlPoint.getInFlightCount(gateway));
+            assertEquals(GattStatus.BUSY, dispatcher.onCharacteristicWrite(gateway, control, new byte[]{21, ControlPointService.ECHO}));
+
+            // the workers are free for the other central, its response arrives with the first
+            // acknowledgement, long before the lane of the gateway is through
+            assertEquals(GattStatus.SUCCESS, dispatcher.onCharacteristicWrite(other, control, new byte[]{1, ControlPointService.ECHO}));
+            byte[] response = responses.poll(1, TimeUnit.SECONDS);
+            assertNotNull("response missing", response);
+            assertEquals(ControlPointService.SUCCESS, response[2]);
+        } finally {
+            slow.after();
+        }
+    }
+}
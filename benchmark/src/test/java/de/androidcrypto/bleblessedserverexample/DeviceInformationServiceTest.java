@@ -0,0 +1,65 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeviceInformationServiceTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void readsDoNotAllocateAndServeOffsets() {
+        GattDispatcher dispatcher = server.dispatcher;
+        VirtualCentral central = server.peripheral.connect(0, SimulatedServer.MTU);
+        BluetoothGattCharacteristic pnpId = server.characteristic(DeviceInformationService.PNP_ID_CHARACTERISTIC_UUID);
+        ReadResponse first = dispatcher.onCharacteristicRead(central, pnpId, 0);
+        assertEquals(7, first.value.length);
+        assertSame("value was encoded again", first, dispatcher.onCharacteristicRead(central, pnpId, 0));
+
+        ReadResponse blob = dispatcher.onCharacteristicRead(central, server.modelNumber, 2);
+        assertEquals("Simulator".substring(2), new String(blob.value, StandardCharsets.UTF_8));
+        assertSame(blob, dispatcher.onCharacteristicRead(central, server.modelNumber, 2));
+        assertEquals(GattStatus.INVALID_OFFSET, dispatcher.onCharacteristicRead(central, server.modelNumber, 100).status);
+    }
+
+    @Test
+    public void repeatedWritesKeepTheTable() {
+        GattDispatcher dispatcher = server.dispatcher;
+        BluetoothGattCharacteristic modelNumber = server.modelNumber;
+        // blessed hands over a long write reassembled
+        byte[] longName = new byte[300];
+        for (int i = 0; i < longName.length; i++) {
+            longName[i] = (byte) ('a' + i % 26);
+        }
+        List<VirtualCentral> centrals = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            centrals.add(server.peripheral.connect(i, SimulatedServer.MTU));
+        }
+        assertEquals(GattStatus.SUCCESS, server.peripheral.write(centrals.get(0), modelNumber, longName));
+        ReadResponse response = dispatcher.onCharacteristicRead(centrals.get(0), modelNumber);
+        assertEquals(new String(longName, StandardCharsets.US_ASCII), new String(response.value, StandardCharsets.US_ASCII));
+        for (VirtualCentral central : centrals) {
+            assertEquals(GattStatus.SUCCESS, server.peripheral.write(central, modelNumber, longName.clone()));
+            assertSame("the same value was copied again", response, dispatcher.onCharacteristicRead(central, modelNumber));
+        }
+        assertEquals(21, server.metrics.of(modelNumber).writes.sum());
+
+        VirtualCentral central = centrals.get(0);
+        assertEquals(GattStatus.INVALID_ATTRIBUTE_VALUE_LENGTH, server.peripheral.write(central, modelNumber, new byte[DeviceInformationService.MAX_MODEL_NUMBER_LENGTH + 1]));
+        assertSame(response, dispatcher.onCharacteristicRead(central, modelNumber));
+        server.disconnectAll(centrals);
+    }
+}
@@ -0,0 +1,59 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.welie.blessed.GattStatus;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class GattCaptureTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void captureReplaysThroughTheServices() throws IOException, InterruptedException {
+        SimulatedPeripheral peripheral = server.peripheral;
+        File directory = Files.createTempDirectory("capture").toFile();
+        try {
+            GattCapture capture = new GattCapture(directory, GattCapture.MIN_SEGMENT_BYTES, 8);
+            server.dispatcher.setCapture(capture);
+            VirtualCentral central = peripheral.connect(0, 185);
+            peripheral.subscribe(central, server.heartRate);
+            byte[] modelName = "capture".getBytes(StandardCharsets.UTF_8);
+            int reads = 5000;
+            for (int i = 0; i < reads; i++) {
+                peripheral.read(central, server.temperature);
+            }
+            assertEquals(GattStatus.SUCCESS, peripheral.write(central, server.modelNumber, modelName));
+            Thread.sleep(1100);
+            peripheral.disconnect(central);
+            server.dispatcher.setCapture(null);
+            capture.close();
+            // 5000 reads do not fit into one segment of 64 KiB
+            assertTrue(GattCaptureReader.segments(directory).length > 1);
+
+            long readsBefore = server.metrics.of(server.temperature).reads.sum();
+            CaptureReplay replay = new CaptureReplay(peripheral, server.dispatcher);
+            replay.replay(directory, 10);
+
+            assertEquals(0, replay.recordsSkipped);
+            assertTrue("no notifications captured", replay.capturedNotifications > 0);
+            assertEquals(reads, server.metrics.of(server.temperature).reads.sum() - readsBefore);
+            assertEquals(2, server.metrics.of(server.modelNumber).writes.sum());
+            assertEquals(0, server.metrics.getConnectedCentrals());
+        } finally {
+            for (File segment : GattCaptureReader.segments(directory)) {
+                assertTrue(segment.delete());
+            }
+            assertTrue(directory.delete());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.GattStatus;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the services against a {@link SimulatedPeripheral} with a few hundred virtual centrals and
+ * prints the throughput, latency and memory figures as one summary after the run. The size of the
+ * run can be changed with system properties, e.g.
+ * ./gradlew -p benchmark test --tests '*GattServerLoadTest' -Dsimulator.centrals=500 -Dsimulator.runMillis=10000
+ *
+ * The behaviour of the single components is tested in their own test classes.
+ */
+public class GattServerLoadTest {
+
+    private static final int CENTRALS = Integer.getInteger("simulator.centrals", 200);
+    private static final long RUN_MILLIS = Long.getLong("simulator.runMillis", 3000);
+    private static final long NOTIFICATION_LATENCY_MICROS = Long.getLong("simulator.notificationLatencyMicros", SimulatedServer.NOTIFICATION_LATENCY_MICROS);
+    private static final long INDICATION_LATENCY_MICROS = Long.getLong("simulator.indicationLatencyMicros", SimulatedServer.INDICATION_LATENCY_MICROS);
+
+    // the figures of all runs, printed once at the end
+    private static final Map<String, Object> summary = new LinkedHashMap<>();
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer(NOTIFICATION_LATENCY_MICROS, INDICATION_LATENCY_MICROS);
+
+    @Test
+    public void notificationThroughput() throws InterruptedException {
+        List<VirtualCentral> centrals = server.connectAndSubscribe(CENTRALS);
+        Thread.sleep(RUN_MILLIS);
+        // taken while the producers keep running
+        ServerMetrics.Snapshot snapshot = new ServerMetrics.Snapshot();
+        server.metrics.snapshot(snapshot);
+        server.disconnectAll(centrals);
+
+        SimulatedPeripheral peripheral = server.peripheral;
+        long sent = peripheral.notificationsSent.get();
+        long received = 0;
+        long minReceived = Long.MAX_VALUE;
+        for (VirtualCentral central : centrals) {
+            long count = central.notificationsReceived.get();
+            received += count;
+            minReceived = Math.min(minReceived, count);
+        }
+        report("centrals", CENTRALS);
+        report("notifications sent", sent);
+        report("notifications/s", sent * 1000 / RUN_MILLIS);
+        report("bytes/s", peripheral.bytesSent.get() * 1000 / RUN_MILLIS);
+        report("avg ack latency us", average(peripheral.ackLatencyNanosTotal.get(), received) / 1000);
+        report("max ack latency us", peripheral.ackLatencyNanosMax.get() / 1000);
+        report("avg dispatch ns", average(peripheral.dispatchNanosTotal.get(), received));
+        report("max dispatch ns", peripheral.dispatchNanosMax.get());
+        report("metrics", snapshot);
+
+        assertTrue("no notifications were sent", sent > 0);
+        assertEquals(CENTRALS, snapshot.connectedCentrals);
+        assertTrue("notifications were not counted", snapshot.notificationsSent > 0 && snapshot.notificationsSent <= sent);
+        assertTrue(snapshot.latencyP50Nanos <= snapshot.latencyP99Nanos);
+        assertTrue(snapshot.latencyP99Nanos <= snapshot.latencyMaxNanos);
+        // the histogram is off by at most 1/16
+        assertTrue(snapshot.latencyMeanNanos <= snapshot.latencyP99Nanos + snapshot.latencyP99Nanos / 16);
+        // every central subscribed to 3 characteristics that tick once a second
+        assertTrue("a central was starved", minReceived >= RUN_MILLIS / 1000);
+    }
+
+    @Test
+    public void readAndWriteDispatch() {
+        List<VirtualCentral> centrals = server.connectAndSubscribe(CENTRALS);
+        BluetoothGattCharacteristic[] readable = {server.heartRate, server.temperature, server.temperatureFahrenheit, server.currentTime, server.modelNumber};
+        int rounds = 50;
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (VirtualCentral central : centrals) {
+                for (BluetoothGattCharacteristic characteristic : readable) {
+                    assertEquals(GattStatus.SUCCESS, server.peripheral.read(central, characteristic).status);
+                }
+            }
+        }
+        long reads = (long) rounds * centrals.size() * readable.length;
+        report("reads", reads);
+        report("avg read dispatch ns", average(System.nanoTime() - start, reads));
+
+        byte[] modelName = "load test".getBytes(StandardCharsets.UTF_8);
+        start = System.nanoTime();
+        for (VirtualCentral central : centrals) {
+            assertEquals(GattStatus.SUCCESS, server.peripheral.write(central, server.modelNumber, modelName));
+        }
+        report("writes", centrals.size());
+        report("avg write dispatch ns", average(System.nanoTime() - start, centrals.size()));
+        server.disconnectAll(centrals);
+    }
+
+    @Test
+    public void memoryPerCentral() throws InterruptedException {
+        long before = usedMemory();
+        List<VirtualCentral> centrals = server.connectAndSubscribe(CENTRALS);
+        // let every lane send at least once so its buffers exist
+        Thread.sleep(1500);
+        long after = usedMemory();
+        report("bytes per central", (after - before) / centrals.size());
+        server.disconnectAll(centrals);
+    }
+
+    @AfterClass
+    public static void printSummary() {
+        StringBuilder text = new StringBuilder("GATT server load test\n");
+        for (Map.Entry<String, Object> figure : summary.entrySet()) {
+            text.append(String.format(Locale.ROOT, "  %-24s %s%n", figure.getKey(), figure.getValue()));
+        }
+        System.out.print(text);
+    }
+
+    private static long average(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String name, Object value) {
+        synchronized (summary) {
+            summary.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class HeartRateServiceTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void producersPublishTypedSamples() throws InterruptedException {
+        // the observer runs on the scheduler thread, the samples are checked here
+        BlockingQueue<Sample> samples = new LinkedBlockingQueue<>();
+        SampleObserver observer = (characteristic, value, unit, timeMillis, sequence) -> {
+            if (characteristic == server.heartRate) samples.add(new Sample(value, unit, sequence));
+        };
+        for (Service service : server.dispatcher.services()) {
+            ((BaseService) service).addSampleObserver(observer);
+        }
+        VirtualCentral central = server.peripheral.connect(0, SimulatedServer.MTU);
+        server.peripheral.subscribe(central, server.heartRate);
+        Thread.sleep(2200);
+        server.peripheral.disconnect(central);
+
+        List<Sample> published = new ArrayList<>();
+        samples.drainTo(published);
+        assertTrue("no samples published", published.size() >= 2);
+        for (int i = 0; i < published.size(); i++) {
+            Sample sample = published.get(i);
+            assertEquals(SampleObserver.UNIT_BEATS_PER_MINUTE, sample.unit);
+            assertEquals(i, sample.sequence);
+            assertTrue(sample.value >= 40 && sample.value <= 120);
+        }
+    }
+
+    @Test
+    public void defaultSourceIsTheSameInEveryRun() {
+        SampleSource first = HeartRateService.defaultSource();
+        SampleSource second = HeartRateService.defaultSource();
+        // the walk is the same in every run, also when the second source is asked less often
+        assertEquals(first.valueAt(1_000_000_000L), first.valueAt(1_000_000_000L), 0);
+        first.valueAt(5_000_000_000L);
+        assertEquals(first.valueAt(10_000_000_000L), second.valueAt(10_000_000_000L), 0);
+    }
+
+    private static final class Sample {
+        final double value;
+        final int unit;
+        final long sequence;
+
+        Sample(double value, int unit, long sequence) {
+            this.value = value;
+            this.unit = unit;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class HotLogTest {
+
+    @Test
+    public void recordsEnabledLevelsOnly() {
+        HotLog.Event disabled = HotLog.event(HotLog.DEBUG, "test debug %d");
+        HotLog.Event enabled = HotLog.event(HotLog.WARN, "test warn %d, %016x");
+        disabled.log(1);
+        enabled.log(2, HotLog.pack(new byte[]{0x41, 0x42}, 0));
+
+        StringBuilder dump = new StringBuilder();
+        HotLog.dump(dump);
+        assertTrue(dump.toString(), dump.indexOf("test warn 2, 4142000000000000") >= 0);
+        assertEquals(-1, dump.indexOf("test debug"));
+    }
+
+    @Test
+    public void formatterSleepsUntilSomethingIsRecorded() throws InterruptedException {
+        HotLog.Event event = HotLog.event(HotLog.WARN, "test wakeup %d");
+        Thread formatter = null;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("HotLog")) formatter = thread;
+        }
+        assertNotNull(formatter);
+        // parked without a timeout once everything is formatted, not woken periodically
+        assertTrue(awaitState(formatter, true));
+        event.log(1);
+        assertTrue("not woken by a new entry", awaitState(formatter, false));
+        assertTrue(awaitState(formatter, true));
+    }
+
+    private static boolean awaitState(Thread formatter, boolean parked) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (System.nanoTime() < deadline) {
+            if ((formatter.getState() == Thread.State.WAITING) == parked) return true;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,55 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SampleStreamServiceTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void streamingPacksSamplesUpToTheMtu() throws InterruptedException {
+        BluetoothGattCharacteristic sampleStream = server.characteristic(SampleStreamService.SAMPLE_STREAM_CHARACTERISTIC_UUID);
+        VirtualCentral small = server.peripheral.connect(0, 23);
+        VirtualCentral large = server.peripheral.connect(1, 247);
+        server.peripheral.subscribe(small, sampleStream);
+        server.peripheral.subscribe(large, sampleStream);
+        Thread.sleep(2000);
+        server.peripheral.disconnect(small);
+        server.peripheral.disconnect(large);
+
+        long largeSamples = samples(large);
+        assertTrue("no samples streamed", largeSamples > SampleStreamService.SAMPLE_RATE_HZ);
+        assertTrue("frame exceeds the MTU", small.bytesReceived.get() <= small.notificationsReceived.get() * 20);
+        // every frame is full, 120 samples fill in 480 ms
+        assertTrue(large.notificationsReceived.get() >= 3);
+        assertEquals("frames were not full", SampleStreamPacker.samplesPerFrame(247) * large.notificationsReceived.get(), largeSamples);
+    }
+
+    @Test
+    public void lowLatencySendsPartlyFilledFrames() throws InterruptedException {
+        server.sampleStream.setMaxLatency(100);
+        BluetoothGattCharacteristic sampleStream = server.characteristic(SampleStreamService.SAMPLE_STREAM_CHARACTERISTIC_UUID);
+        VirtualCentral large = server.peripheral.connect(0, 247);
+        server.peripheral.subscribe(large, sampleStream);
+        Thread.sleep(1000);
+        server.peripheral.disconnect(large);
+
+        // a frame every 100 ms with the 25 samples of that time
+        long frames = large.notificationsReceived.get();
+        assertTrue(frames >= 8);
+        long perFrame = samples(large) / frames;
+        assertTrue("frames of " + perFrame + " samples", perFrame >= 20 && perFrame <= 30);
+    }
+
+    private static long samples(VirtualCentral central) {
+        long headers = central.notificationsReceived.get() * SampleStreamPacker.HEADER_LENGTH;
+        return (central.bytesReceived.get() - headers) / SampleStreamPacker.SAMPLE_SIZE;
+    }
+}
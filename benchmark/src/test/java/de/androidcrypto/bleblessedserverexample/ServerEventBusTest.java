@@ -0,0 +1,55 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ServerEventBusTest {
+
+    @Test
+    public void coalescesStatesPerFrame() throws InterruptedException {
+        AtomicInteger frameRequests = new AtomicInteger();
+        ServerEventBus bus = new ServerEventBus(drain -> frameRequests.incrementAndGet(), 1 << 16);
+        List<Long> heartRates = new ArrayList<>();
+        List<Long> connections = new ArrayList<>();
+        ServerEventBus.Listener listener = (type, value, payload) -> {
+            if (type == ServerEventBus.HEART_RATE) heartRates.add(value);
+            if (type == ServerEventBus.CENTRAL_CONNECTED) connections.add(value);
+        };
+        bus.subscribe(listener);
+        bus.subscribe(listener);
+
+        Thread[] publishers = new Thread[4];
+        for (int i = 0; i < publishers.length; i++) {
+            final int publisher = i;
+            publishers[i] = new Thread(() -> {
+                for (int n = 0; n < 5000; n++) {
+                    bus.publish(ServerEventBus.HEART_RATE, 60 + n % 100);
+                }
+                bus.publish(ServerEventBus.CENTRAL_CONNECTED, publisher);
+            });
+            publishers[i].start();
+        }
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        bus.drain();
+        bus.publish(ServerEventBus.HEART_RATE, 72);
+        bus.drain();
+
+        assertEquals(0, bus.getDroppedCount());
+        assertEquals("connection events are not coalesced", 4, connections.size());
+        assertEquals("one heart rate per frame", 2, heartRates.size());
+        assertEquals(72L, (long) heartRates.get(1));
+        assertEquals("one frame per drain", 2, frameRequests.get());
+    }
+
+    @Test
+    public void convertsMacAddresses() {
+        assertEquals("AA:BB:CC:01:02:03", ServerEventBus.macToString(ServerEventBus.macToLong("AA:BB:CC:01:02:03")));
+    }
+}
@@ -0,0 +1,93 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+public class ServerStatisticsServiceTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void reportsTheLoad() throws InterruptedException {
+        BluetoothGattCharacteristic statistics = server.characteristic(ServerStatisticsService.SERVER_STATISTICS_CHARACTERISTIC_UUID);
+        List<VirtualCentral> centrals = server.connectAndSubscribe(10);
+        VirtualCentral monitor = centrals.get(0);
+        server.peripheral.subscribe(monitor, statistics);
+        Thread.sleep(2200);
+
+        byte[] value = server.dispatcher.onCharacteristicRead(monitor, statistics).value;
+        assertEquals(ServerStatisticsService.STATISTICS_LENGTH, value.length);
+        assertEquals(ServerStatisticsService.FORMAT, value[0]);
+        int centralsReported = value[15] & 0xFF;
+        long uptimeSeconds = (value[16] & 0xFFL) | (value[17] & 0xFFL) << 8 | (value[18] & 0xFFL) << 16 | (value[19] & 0xFFL) << 24;
+        assertEquals(10, centralsReported);
+        assertTrue(uptimeSeconds >= 2);
+        // one statistics notification per second on top of the three measurements
+        assertTrue("statistics were not notified", monitor.notificationsReceived.get() > centrals.get(1).notificationsReceived.get());
+        server.disconnectAll(centrals);
+    }
+
+    @Test
+    public void readsDoNotShrinkTheRateWindow() throws InterruptedException {
+        BluetoothGattCharacteristic statistics = server.characteristic(ServerStatisticsService.SERVER_STATISTICS_CHARACTERISTIC_UUID);
+        // nobody subscribes to the statistics, the interval runs anyway
+        List<VirtualCentral> centrals = server.connectAndSubscribe(20);
+        Thread.sleep(1200);
+
+        VirtualCentral reader = centrals.get(0);
+        byte[] first = server.dispatcher.onCharacteristicRead(reader, statistics).value.clone();
+        Thread.sleep(50);
+        byte[] second = server.dispatcher.onCharacteristicRead(reader, statistics).value;
+        int notificationsPerSecond = (first[1] & 0xFF) | (first[2] & 0xFF) << 8;
+        assertTrue(notificationsPerSecond > 0);
+        for (int i = 1; i < 7; i++) {
+            assertEquals("the rates of the last interval", first[i], second[i]);
+        }
+        server.disconnectAll(centrals);
+    }
+
+    @Test
+    public void latenciesAreThoseOfTheLastInterval() throws InterruptedException {
+        BluetoothGattCharacteristic statistics = server.characteristic(ServerStatisticsService.SERVER_STATISTICS_CHARACTERISTIC_UUID);
+        VirtualCentral reader = server.peripheral.connect(0, SimulatedServer.MTU);
+        LatencyHistogram latency = server.metrics.of(server.heartRate).notificationLatency;
+        for (int i = 0; i < 1000; i++) {
+            latency.record(1_000_000);
+        }
+        // the interval with the fast notifications, then one without any
+        assertTrue(awaitMeanLatency(reader, statistics, mean -> mean > 0));
+        assertTrue(awaitMeanLatency(reader, statistics, mean -> mean == 0));
+
+        for (int i = 0; i < 10; i++) {
+            latency.record(50_000_000);
+        }
+        assertTrue(awaitMeanLatency(reader, statistics, mean -> mean > 0));
+        byte[] value = server.dispatcher.onCharacteristicRead(reader, statistics).value;
+        // in 0.1 ms, the histogram is off by at most 1/16; over the lifetime the mean would be 1.5 ms
+        int mean = (value[11] & 0xFF) | (value[12] & 0xFF) << 8;
+        int p99 = (value[13] & 0xFF) | (value[14] & 0xFF) << 8;
+        assertEquals(500, mean);
+        assertTrue("p99 " + p99, p99 >= 500 && p99 <= 532);
+        server.peripheral.disconnect(reader);
+    }
+
+    private boolean awaitMeanLatency(VirtualCentral reader, BluetoothGattCharacteristic statistics, IntPredicate condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        while (System.nanoTime() < deadline) {
+            byte[] value = server.dispatcher.onCharacteristicRead(reader, statistics).value;
+            if (condition.test((value[11] & 0xFF) | (value[12] & 0xFF) << 8)) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
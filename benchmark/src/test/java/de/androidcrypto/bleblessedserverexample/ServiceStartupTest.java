@@ -0,0 +1,71 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.welie.blessed.GattStatus;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ServiceStartupTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void advertisedServicesGoLiveFirst() throws InterruptedException, TimeoutException {
+        SimulatedPeripheral peripheral = server.peripheral;
+        GattDispatcher dispatcher = server.dispatcher;
+        ServiceStartup startup = new ServiceStartup(peripheral, server.metrics);
+        peripheral.setServiceStartup(startup, 2000);
+        List<UUID> eager = Arrays.asList(HeartRateService.HEART_BEAT_RATE_SERVICE_UUID, TemperatureService.ENVIRONMENTAL_SENSING_SERVICE_UUID);
+        List<ServiceStartup.Readiness> all = new ArrayList<>();
+        for (Service service : dispatcher.services()) {
+            UUID uuid = service.getService().getUuid();
+            all.add(startup.register(service.getService(), eager.contains(uuid) ? ServiceStartup.Priority.EAGER : ServiceStartup.Priority.LAZY));
+        }
+        AtomicInteger handedOverWhenEagerReady = new AtomicInteger(-1);
+        startup.getEagerReadiness().whenDone(() -> {
+            handedOverWhenEagerReady.set(peripheral.addedServices.size());
+            // the stack would report this right after the advertising was started
+            server.metrics.onAdvertisingStarted();
+        });
+        assertFalse(startup.isLive(HeartRateService.HEART_BEAT_RATE_SERVICE_UUID));
+        startup.start();
+
+        assertEquals(GattStatus.SUCCESS, startup.getEagerReadiness().get(1, TimeUnit.SECONDS));
+        assertTrue(startup.getReadiness(HeartRateService.HEART_BEAT_RATE_SERVICE_UUID).isReady());
+        assertTrue(startup.isLive(HeartRateService.HEART_BEAT_RATE_SERVICE_UUID));
+        assertEquals(GattStatus.SUCCESS, startup.getReadiness().get(1, TimeUnit.SECONDS));
+        assertEquals("lazy services waited for the eager ones", eager.size(), handedOverWhenEagerReady.get());
+        assertEquals(dispatcher.services().length, peripheral.addedServices.size());
+        assertEquals(eager, peripheral.addedServices.subList(0, eager.size()));
+        for (ServiceStartup.Readiness readiness : all) {
+            assertTrue(readiness.isReady());
+        }
+        assertFalse("not registered", startup.isLive(UUID.randomUUID()));
+
+        ServerMetrics.Snapshot snapshot = new ServerMetrics.Snapshot();
+        server.metrics.snapshot(snapshot);
+        assertTrue(snapshot.firstAdvertisementNanos > 0);
+        // two of eight services at 2 ms each
+        assertTrue(snapshot.servicesReadyNanos - snapshot.firstAdvertisementNanos >= TimeUnit.MILLISECONDS.toNanos(10));
+        try {
+            startup.register(dispatcher.services()[0].getService(), ServiceStartup.Priority.LAZY);
+            fail("registered after the start");
+        } catch (IllegalStateException expected) {
+            // services cannot be added to a running startup
+        }
+    }
+}
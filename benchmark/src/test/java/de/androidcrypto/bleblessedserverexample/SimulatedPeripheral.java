@@ -0,0 +1,189 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.welie.blessed.GattStatus;
+import com.welie.blessed.ReadResponse;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for the peripheral manager. Virtual centrals connect, subscribe, read and
+ * write through the same {@link GattDispatcher} the app uses, and every notification is
+ * acknowledged after a configurable latency on an ack thread, the way the stack reports
+ * onNotificationSent. Indications get their own latency since they wait for the central's confirmation.
+ * Services are added one after the other with a configurable latency each, see {@link #setServiceStartup}.
+ */
+final class SimulatedPeripheral implements GattPeripheral {
+
+    private final long notificationLatencyMicros;
+    private final long indicationLatencyMicros;
+    private final ScheduledExecutorService ackExecutor;
+    private final ConcurrentHashMap<String, VirtualCentral> connectedCentrals = new ConcurrentHashMap<>();
+    private GattDispatcher dispatcher;
+    private volatile ServiceStartup serviceStartup;
+    private long serviceAddMicros;
+    // guarded by this, when the simulated stack is done with the services handed to it
+    private long servicesAddedAtNanos;
+
+    // the order the services were handed to the stack
+    final List<UUID> addedServices = Collections.synchronizedList(new ArrayList<UUID>());
+
+    final AtomicLong notificationsSent = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    // from handing the value to the stack until the ack arrives, includes the configured latency
+    final AtomicLong ackLatencyNanosTotal = new AtomicLong();
+    final AtomicLong ackLatencyNanosMax = new AtomicLong();
+    // time spent in the dispatcher for one onNotificationSent, i.e. service, queue release and next send
+    final AtomicLong dispatchNanosTotal = new AtomicLong();
+    final AtomicLong dispatchNanosMax = new AtomicLong();
+
+    SimulatedPeripheral(long notificationLatencyMicros, long indicationLatencyMicros, int ackThreads) {
+        this.notificationLatencyMicros = notificationLatencyMicros;
+        this.indicationLatencyMicros = indicationLatencyMicros;
+        this.ackExecutor = Executors.newScheduledThreadPool(ackThreads, runnable -> {
+            Thread thread = new Thread(runnable, "SimulatedAck");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void setDispatcher(@NotNull GattDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * @param serviceAddMicros how long the stack takes to add one service
+     */
+    synchronized void setServiceStartup(@NotNull ServiceStartup serviceStartup, long serviceAddMicros) {
+        this.serviceStartup = serviceStartup;
+        this.serviceAddMicros = serviceAddMicros;
+    }
+
+    @NotNull
+    VirtualCentral connect(int index, int mtu) {
+        return connect(String.format(Locale.ROOT, "02:00:00:%02X:%02X:%02X", (index >> 16) & 0xFF, (index >> 8) & 0xFF, index & 0xFF), mtu);
+    }
+
+    @NotNull
+    VirtualCentral connect(@NotNull String address, int mtu) {
+        VirtualCentral central = new VirtualCentral(address, mtu);
+        central.connected = true;
+        connectedCentrals.put(address, central);
+        dispatcher.onCentralConnected(central);
+        return central;
+    }
+
+    void disconnect(@NotNull VirtualCentral central) {
+        central.connected = false;
+        connectedCentrals.remove(central.getAddress());
+        central.subscriptions.clear();
+        dispatcher.onCentralDisconnected(central);
+    }
+
+    /**
+     * Writes the CCC descriptor, like blessed the simulator keeps the subscription state itself and
+     * reports the change to the service.
+     */
+    void subscribe(@NotNull VirtualCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        boolean indicate = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0;
+        central.subscriptions.put(characteristic, indicate);
+        dispatcher.onNotifyingEnabled(central, characteristic);
+    }
+
+    void unsubscribe(@NotNull VirtualCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        if (central.subscriptions.remove(characteristic) != null) {
+            dispatcher.onNotifyingDisabled(central, characteristic);
+        }
+    }
+
+    @NotNull
+    ReadResponse read(@NotNull VirtualCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        return dispatcher.onCharacteristicRead(central, characteristic);
+    }
+
+    @NotNull
+    ReadResponse read(@NotNull VirtualCentral central, @NotNull BluetoothGattDescriptor descriptor) {
+        return dispatcher.onDescriptorRead(central, descriptor);
+    }
+
+    @NotNull
+    GattStatus write(@NotNull VirtualCentral central, @NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value) {
+        GattStatus status = dispatcher.onCharacteristicWrite(central, characteristic, value);
+        if (status == GattStatus.SUCCESS) {
+            dispatcher.onCharacteristicWriteCompleted(central, characteristic, value);
+        }
+        return status;
+    }
+
+    void shutdown() {
+        ackExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean notifyCharacteristicChanged(@NotNull byte[] value, @NotNull GattCentral central, @NotNull BluetoothGattCharacteristic characteristic) {
+        VirtualCentral virtualCentral = (VirtualCentral) central;
+        Boolean indicate = virtualCentral.subscriptions.get(characteristic);
+        if (!virtualCentral.connected || indicate == null) return false;
+
+        long sentAt = System.nanoTime();
+        notificationsSent.incrementAndGet();
+        bytesSent.addAndGet(value.length);
+        long latency = indicate ? indicationLatencyMicros : notificationLatencyMicros;
+        ackExecutor.schedule(() -> acknowledge(virtualCentral, value, characteristic, sentAt), latency, TimeUnit.MICROSECONDS);
+        return true;
+    }
+
+    private void acknowledge(VirtualCentral central, byte[] value, BluetoothGattCharacteristic characteristic, long sentAt) {
+        long start = System.nanoTime();
+        record(start - sentAt, ackLatencyNanosTotal, ackLatencyNanosMax);
+        central.notificationsReceived.incrementAndGet();
+        central.bytesReceived.addAndGet(value.length);
+        VirtualCentral.NotificationListener listener = central.listener;
+        if (listener != null) listener.onNotification(characteristic, value);
+        dispatcher.onNotificationSent(central, value, characteristic, GattStatus.SUCCESS);
+        record(System.nanoTime() - start, dispatchNanosTotal, dispatchNanosMax);
+    }
+
+    private static void record(long nanos, AtomicLong total, AtomicLong max) {
+        total.addAndGet(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // retry
+        }
+    }
+
+    @Override
+    public @NotNull Collection<? extends GattCentral> getConnectedCentrals() {
+        return connectedCentrals.values();
+    }
+
+    @Override
+    public boolean addService(@NotNull BluetoothGattService service) {
+        ServiceStartup startup = serviceStartup;
+        if (startup == null) return false;
+        long delayNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            servicesAddedAtNanos = Math.max(servicesAddedAtNanos, now) + TimeUnit.MICROSECONDS.toNanos(serviceAddMicros);
+            delayNanos = servicesAddedAtNanos - now;
+        }
+        addedServices.add(service.getUuid());
+        ackExecutor.schedule(() -> startup.onServiceAdded(GattStatus.SUCCESS, service), delayNanos, TimeUnit.NANOSECONDS);
+        return true;
+    }
+}
@@ -0,0 +1,103 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertNotNull;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The services of the app on a {@link SimulatedPeripheral}, wired like BluetoothServer wires them.
+ * Used as a JUnit rule, every test gets a new server that is shut down after it:
+ * {@code @Rule public final SimulatedServer server = new SimulatedServer();}
+ */
+final class SimulatedServer extends ExternalResource {
+
+    static final int MTU = 23;
+    static final long NOTIFICATION_LATENCY_MICROS = 500;
+    static final long INDICATION_LATENCY_MICROS = 15_000;
+
+    final NotificationScheduler scheduler = new NotificationScheduler();
+    final SimulatedPeripheral peripheral;
+    final ServerMetrics metrics = new ServerMetrics();
+    final GattDispatcher dispatcher;
+    final SampleStreamService sampleStream;
+    final BulkIngestService bulkIngest;
+    final ControlPointService controlPoint;
+
+    final BluetoothGattCharacteristic heartRate;
+    final BluetoothGattCharacteristic temperature;
+    final BluetoothGattCharacteristic temperatureFahrenheit;
+    final BluetoothGattCharacteristic currentTime;
+    final BluetoothGattCharacteristic modelNumber;
+
+    SimulatedServer() {
+        this(NOTIFICATION_LATENCY_MICROS, INDICATION_LATENCY_MICROS);
+    }
+
+    SimulatedServer(long notificationLatencyMicros, long indicationLatencyMicros) {
+        peripheral = new SimulatedPeripheral(notificationLatencyMicros, indicationLatencyMicros, 2);
+        NotificationQueue notificationQueue = new NotificationQueue(peripheral, metrics);
+        SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+        List<Service> services = new ArrayList<>();
+        services.add(new DeviceInformationService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new CurrentTimeService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new HeartRateService(peripheral, scheduler, notificationQueue, subscriptions));
+        services.add(new TemperatureService(peripheral, scheduler, notificationQueue, subscriptions));
+        sampleStream = new SampleStreamService(peripheral, scheduler, notificationQueue, subscriptions);
+        services.add(sampleStream);
+        services.add(new ServerStatisticsService(peripheral, scheduler, notificationQueue, subscriptions, metrics, 1));
+        bulkIngest = new BulkIngestService(peripheral, scheduler, notificationQueue, subscriptions);
+        services.add(bulkIngest);
+        controlPoint = new ControlPointService(peripheral, scheduler, notificationQueue, subscriptions);
+        services.add(controlPoint);
+        dispatcher = new GattDispatcher(services, notificationQueue, subscriptions, metrics);
+        peripheral.setDispatcher(dispatcher);
+
+        heartRate = characteristic(HeartRateService.HEART_BEAT_RATE_MEASUREMENT_CHARACTERISTIC_UUID);
+        temperature = characteristic(TemperatureService.TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID);
+        temperatureFahrenheit = characteristic(TemperatureService.TEMPERATURE_FAHRENHEIT_MEASUREMENT_CHARACTERISTIC_UUID);
+        currentTime = characteristic(CurrentTimeService.CURRENT_TIME_CHARACTERISTIC_UUID);
+        modelNumber = characteristic(DeviceInformationService.MODEL_NUMBER_CHARACTERISTIC_UUID);
+    }
+
+    @NotNull
+    BluetoothGattCharacteristic characteristic(@NotNull UUID uuid) {
+        BluetoothGattCharacteristic characteristic = dispatcher.findCharacteristic(uuid);
+        assertNotNull(characteristic);
+        return characteristic;
+    }
+
+    /**
+     * Connects centrals at the default MTU that subscribe to the three measurements ticking once a second.
+     */
+    @NotNull
+    List<VirtualCentral> connectAndSubscribe(int count) {
+        List<VirtualCentral> centrals = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            VirtualCentral central = peripheral.connect(i, MTU);
+            peripheral.subscribe(central, heartRate);
+            peripheral.subscribe(central, temperature);
+            peripheral.subscribe(central, currentTime);
+            centrals.add(central);
+        }
+        return centrals;
+    }
+
+    void disconnectAll(@NotNull List<VirtualCentral> centrals) {
+        for (VirtualCentral central : centrals) {
+            peripheral.disconnect(central);
+        }
+    }
+
+    @Override
+    protected void after() {
+        scheduler.shutdown();
+        peripheral.shutdown();
+    }
+}
@@ -0,0 +1,36 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SubscriptionRegistryTest {
+
+    @Rule
+    public final SimulatedServer server = new SimulatedServer();
+
+    @Test
+    public void unsubscribeKeepsOtherCentralsNotified() throws InterruptedException {
+        List<VirtualCentral> centrals = server.connectAndSubscribe(2);
+        VirtualCentral leaving = centrals.get(0);
+        VirtualCentral staying = centrals.get(1);
+        server.peripheral.unsubscribe(leaving, server.heartRate);
+        server.peripheral.unsubscribe(leaving, server.temperature);
+        server.peripheral.unsubscribe(leaving, server.currentTime);
+        // values in flight are still acknowledged
+        Thread.sleep(100);
+        long leavingBefore = leaving.notificationsReceived.get();
+        long stayingBefore = staying.notificationsReceived.get();
+        Thread.sleep(2200);
+
+        assertEquals("notified after unsubscribing", leavingBefore, leaving.notificationsReceived.get());
+        // two ticks of three characteristics, each at most once per tick
+        long stayingReceived = staying.notificationsReceived.get() - stayingBefore;
+        assertTrue("the remaining central lost its notifications", stayingReceived >= 4);
+        assertTrue("producers ticked more than once per period", stayingReceived <= 9);
+    }
+}
@@ -0,0 +1,44 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TraceReplaySourceTest {
+
+    @Test
+    public void replaysRecordedTraces() throws IOException {
+        // 250 Hz, the value is the index of the record
+        int count = 1000;
+        long[] timesMicros = new long[count];
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            timesMicros[i] = i * 4000L;
+            values[i] = i;
+        }
+        File file = File.createTempFile("trace", ".bin");
+        try {
+            TraceReplaySource.write(file, timesMicros, values);
+            TraceReplaySource original = TraceReplaySource.open(file, 1, false);
+            TraceReplaySource fast = TraceReplaySource.open(file, 4, true);
+            assertEquals(count, original.getCount());
+
+            assertEquals(0, original.valueAt(0), 0);
+            assertEquals(250, original.valueAt(1_000_000_000L), 0);
+            assertEquals(250, original.valueAt(1_003_000_000L), 0);
+            // holds the last value at the end
+            assertEquals(count - 1, original.valueAt(10_000_000_000L), 0);
+
+            assertEquals(1000 - 1, fast.valueAt(999_000_000L), 0);
+            // a lap is 4 s of trace, 1 s at 4x
+            assertEquals(0, fast.valueAt(1_000_000_000L), 0);
+            assertEquals(500, fast.valueAt(1_500_000_000L), 0);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
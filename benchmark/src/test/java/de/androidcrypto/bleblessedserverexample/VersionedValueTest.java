@@ -0,0 +1,42 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+import com.welie.blessed.ReadResponse;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class VersionedValueTest {
+
+    @Test
+    public void staleReadsRefreshInTheBackground() throws InterruptedException {
+        NotificationScheduler scheduler = new NotificationScheduler();
+        BlockingQueue<Thread> encoders = new LinkedBlockingQueue<>();
+        VersionedValue value = new VersionedValue(new byte[]{0}).enableRefreshAhead(scheduler, "test", 20, () -> {
+            encoders.add(Thread.currentThread());
+            return new byte[]{1};
+        });
+        try {
+            Thread.sleep(50);
+            // the stale value is returned as it is, the refresh runs on the scheduler
+            ReadResponse stale = value.read();
+            assertEquals(0, stale.value[0]);
+            Thread encoder = encoders.poll(1, TimeUnit.SECONDS);
+            assertNotNull("no refresh after a stale read", encoder);
+            assertNotSame(Thread.currentThread(), encoder);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (value.getVersion() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, value.read().value[0]);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.androidcrypto.bleblessedserverexample;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A central of the {@link SimulatedPeripheral}. It remembers which characteristics it subscribed to
+ * and counts what it received.
+ */
+final class VirtualCentral implements GattCentral {
+
+    interface NotificationListener {
+        /**
+         * Called on the ack thread for every notification the central receives. The value is
+         * recycled afterwards, copy it to keep it.
+         */
+        void onNotification(@NotNull BluetoothGattCharacteristic characteristic, @NotNull byte[] value);
+    }
+
+    private final String address;
+    private final int mtu;
+    // characteristic -> true for indications, false for notifications
+    final Map<BluetoothGattCharacteristic, Boolean> subscriptions = Collections.synchronizedMap(new IdentityHashMap<BluetoothGattCharacteristic, Boolean>());
+    final AtomicLong notificationsReceived = new AtomicLong();
+    final AtomicLong bytesReceived = new AtomicLong();
+    volatile boolean connected;
+    volatile NotificationListener listener;
+
+    VirtualCentral(@NotNull String address, int mtu) {
+        this.address = address;
+        this.mtu = mtu;
+    }
+
+    @Override
+    public @NotNull String getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getCurrentMtu() {
+        return mtu;
+    }
+
+    boolean isSubscribed(@NotNull BluetoothGattCharacteristic characteristic) {
+        return subscriptions.containsKey(characteristic);
+    }
+}